@@ -0,0 +1,225 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.zunisoft.common.photo.PhotoStore;
+import com.zunisoft.wishlist.model.Item;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Benchmark of the database performance profiles on the item query paths.
+ *
+ * Builds a scratch database per profile through
+ * <tt>DatabaseAdapter.createDatabase()</tt>, and times batch inserts,
+ * paging through the list, loading by ID and full-text search. The timings
+ * are written to the log; the test itself only checks that every profile
+ * sees the same rows.
+ *
+ * @author krdavis
+ */
+public class DatabaseConfigBenchmark extends AndroidTestCase {
+	// Tag used by logging APIs
+	private static final String TAG = "DatabaseConfigBenchmark";
+
+	// Benchmark size
+	private static final int ROWS = 2000;
+	private static final int PAGE_SIZE = Item.DEFAULT_PAGE_SIZE;
+	private static final int LOAD_STRIDE = 10;
+	private static final String[] SEARCHES = { "item", "kitchen", "blue",
+			"garden tools", "7" };
+
+	private File dbFile;
+	private File photoDir;
+
+	/**
+	 * Picks the scratch database location.
+	 *
+	 * @throws Exception
+	 *             If setup fails.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		dbFile = new File(getContext().getCacheDir(), "config_benchmark.db");
+		photoDir = new File(getContext().getCacheDir(), "config_benchmark_photos");
+	}
+
+	/**
+	 * Deletes the scratch database.
+	 *
+	 * @throws Exception
+	 *             If teardown fails.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		deleteDatabase();
+
+		super.tearDown();
+	}
+
+	/**
+	 * Runs the query paths under every named profile.
+	 */
+	public void testProfiles() {
+		String[] profiles = { DatabaseConfig.PROFILE_DEFAULT,
+				DatabaseConfig.PROFILE_LOW_MEMORY, DatabaseConfig.PROFILE_BALANCED,
+				DatabaseConfig.PROFILE_THROUGHPUT };
+
+		for (String profile : profiles) {
+			run(DatabaseConfig.forName(profile));
+		}
+	}
+
+	/**
+	 * Times the query paths under one profile.
+	 *
+	 * @param config
+	 *            The profile.
+	 */
+	private void run(DatabaseConfig config) {
+		deleteDatabase();
+
+		// Set up the database like DatabaseAdapter does
+		DatabaseAdapter.createDatabase(dbFile.getPath(), config);
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+		if (config.getPageSize() != DatabaseConfig.UNSET)
+			assertEquals(config.getPageSize(), DatabaseUtils.longForQuery(db,
+					"PRAGMA page_size", null));
+		db.enableWriteAheadLogging();
+		config.apply(db);
+
+		// Queries go through the write-ahead log connection pool
+		SQLiteDatabase reader = db;
+
+		try {
+			Item model = newItem(db, reader);
+
+			// Batch insert
+			List<Item> items = new ArrayList<Item>(ROWS);
+			for (int i = 1; i <= ROWS; i++) {
+				Item item = newItem(db, reader);
+				item.setDescription("Item " + i + (i % 3 == 0 ? " blue" : ""));
+				item.setLocation(i % 2 == 0 ? "Kitchen" : "Garden tools");
+				item.setCaptureDate(new Date(1420070400000L + i * 86400000L));
+				item.setCategory("Category " + (i % 10));
+				item.setDesirability(i % 6);
+				item.setBarcode("0123456789" + i);
+				item.setNotes("Notes for item " + i);
+				items.add(item);
+			}
+
+			long start = System.nanoTime();
+			model.saveAll(items);
+			long insertNanos = System.nanoTime() - start;
+
+			// Page through the whole list
+			start = System.nanoTime();
+			int paged = 0;
+			Object[] afterKey = null;
+			while (true) {
+				Cursor cursor = model.findPage(Item.SORT_BY_DESCRIPTION, afterKey,
+						PAGE_SIZE);
+				try {
+					if (!cursor.moveToLast())
+						break;
+
+					paged += cursor.getCount();
+					afterKey = Item.SORT_BY_DESCRIPTION.readKey(cursor);
+				} finally {
+					cursor.close();
+				}
+			}
+			long pageNanos = System.nanoTime() - start;
+
+			// Load by ID, past the identity map
+			ActiveRecord.clearIdentityMaps();
+			start = System.nanoTime();
+			int loads = 0;
+			for (int id = 1; id <= ROWS; id += LOAD_STRIDE) {
+				try {
+					model.load(id);
+					loads++;
+				} catch (RecordNotFoundException e) {
+					fail("Item " + id + " not found");
+				}
+			}
+			long loadNanos = System.nanoTime() - start;
+
+			// Full-text search
+			start = System.nanoTime();
+			int found = 0;
+			for (String search : SEARCHES) {
+				Cursor cursor = model.search(search, true);
+				try {
+					found += cursor.getCount();
+				} finally {
+					cursor.close();
+				}
+			}
+			long searchNanos = System.nanoTime() - start;
+
+			Log.i(TAG, config.getName() + ": insert " + (insertNanos / ROWS / 1000)
+					+ " us/row, page " + (pageNanos / ROWS / 1000) + " us/row, load "
+					+ (loadNanos / loads / 1000) + " us/item, search "
+					+ (searchNanos / SEARCHES.length / 1000) + " us/query (" + found
+					+ " hits)");
+
+			assertEquals(config.getName(), ROWS, paged);
+		} finally {
+			ActiveRecord.releaseStatementCaches();
+			ActiveRecord.clearIdentityMaps();
+			db.close();
+		}
+	}
+
+	/**
+	 * Creates an item bound to the scratch database.
+	 *
+	 * @param db
+	 *            Database object used for writes.
+	 * @param reader
+	 *            Database object used for queries.
+	 * @return The item.
+	 */
+	private Item newItem(SQLiteDatabase db, SQLiteDatabase reader) {
+		Item item = new Item(getContext().getResources());
+		item.setSQLiteDatabase(db, reader);
+		item.setPhotoStore(new PhotoStore(photoDir));
+		return item;
+	}
+
+	/**
+	 * Deletes the scratch database and its log files.
+	 */
+	private void deleteDatabase() {
+		SQLiteDatabase.deleteDatabase(dbFile);
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-run and debounce tests of <tt>ObservableQuery</tt>.
+ *
+ * @author krdavis
+ */
+public class ObservableQueryTest extends AndroidTestCase {
+	// Table the query under test reads
+	private static final String TABLE = "observed";
+
+	// Debounce settings of the query under test, in ms
+	private static final long DEBOUNCE_MS = 100;
+	private static final long MAX_DELAY_MS = 400;
+
+	// Member variables
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final AtomicInteger runs = new AtomicInteger();
+	private final List<Integer> results = new ArrayList<Integer>();
+	private ObservableQuery<Integer> query;
+
+	/**
+	 * Creates a query counting its runs.
+	 *
+	 * @throws Exception
+	 *             If setup fails.
+	 */
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+
+		query = new ObservableQuery<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return runs.incrementAndGet();
+			}
+		}, TABLE);
+		query.setDebounce(DEBOUNCE_MS, MAX_DELAY_MS);
+	}
+
+	/**
+	 * Unsubscribes the query.
+	 *
+	 * @throws Exception
+	 *             If teardown fails.
+	 */
+	@Override
+	protected void tearDown() throws Exception {
+		onMainThread(new Runnable() {
+			@Override
+			public void run() {
+				query.unsubscribe();
+			}
+		});
+
+		super.tearDown();
+	}
+
+	/**
+	 * The query runs once when subscribed.
+	 */
+	public void testRunsOnSubscribe() throws InterruptedException {
+		subscribe();
+		settle(DEBOUNCE_MS);
+
+		assertEquals(1, runs.get());
+		assertEquals(1, resultCount());
+	}
+
+	/**
+	 * A burst of changes to the query's table leads to a single run.
+	 */
+	public void testBurstIsDebounced() throws InterruptedException {
+		subscribe();
+		settle(DEBOUNCE_MS);
+
+		for (int i = 0; i < 10; i++) {
+			ChangeBus.getInstance().post(new ChangeEvent(TABLE, ChangeEvent.INSERT, i));
+		}
+		settle(DEBOUNCE_MS * 3);
+
+		assertEquals(2, runs.get());
+		assertEquals(2, resultCount());
+	}
+
+	/**
+	 * A long burst still runs the query every maximum delay.
+	 */
+	public void testLongBurstRunsAtMaximumDelay() throws InterruptedException {
+		subscribe();
+		settle(DEBOUNCE_MS);
+
+		long end = System.currentTimeMillis() + MAX_DELAY_MS * 3;
+		for (int i = 0; System.currentTimeMillis() < end; i++) {
+			ChangeBus.getInstance().post(new ChangeEvent(TABLE, ChangeEvent.UPDATE, i));
+			Thread.sleep(DEBOUNCE_MS / 4);
+		}
+		settle(DEBOUNCE_MS * 3);
+
+		assertTrue(runs.get() >= 3);
+	}
+
+	/**
+	 * Changes to other tables don't run the query.
+	 */
+	public void testOtherTablesAreIgnored() throws InterruptedException {
+		subscribe();
+		settle(DEBOUNCE_MS);
+
+		ChangeBus.getInstance().post(new ChangeEvent("other", ChangeEvent.INSERT, 1));
+		settle(DEBOUNCE_MS * 3);
+
+		assertEquals(1, runs.get());
+	}
+
+	/**
+	 * No results are delivered after unsubscribing.
+	 */
+	public void testUnsubscribeStopsRuns() throws InterruptedException {
+		subscribe();
+		settle(DEBOUNCE_MS);
+
+		onMainThread(new Runnable() {
+			@Override
+			public void run() {
+				query.unsubscribe();
+			}
+		});
+		ChangeBus.getInstance().post(new ChangeEvent(TABLE, ChangeEvent.DELETE, 1));
+		settle(DEBOUNCE_MS * 3);
+
+		assertEquals(1, runs.get());
+		assertFalse(query.isSubscribed());
+	}
+
+	/**
+	 * Subscribes the query on the main thread, recording its results.
+	 */
+	private void subscribe() throws InterruptedException {
+		onMainThread(new Runnable() {
+			@Override
+			public void run() {
+				query.subscribe(new DatabaseCallback<Integer>() {
+					@Override
+					public void onResult(Integer result) {
+						synchronized (results) {
+							results.add(result);
+						}
+					}
+
+					@Override
+					public void onError(Exception e) {
+						fail(e.toString());
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Gets the number of results delivered.
+	 *
+	 * @return The result count.
+	 */
+	private int resultCount() {
+		synchronized (results) {
+			return results.size();
+		}
+	}
+
+	/**
+	 * Waits for pending runs, then for the main thread to deliver them.
+	 *
+	 * @param ms
+	 *            Time to wait, in ms.
+	 */
+	private void settle(long ms) throws InterruptedException {
+		Thread.sleep(ms);
+		onMainThread(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+	}
+
+	/**
+	 * Runs a task on the main thread and waits for it.
+	 *
+	 * @param task
+	 *            The task.
+	 */
+	private void onMainThread(final Runnable task) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				task.run();
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Benchmark of the photo codecs.
+ *
+ * Encodes and decodes a synthetic camera-like photo at the large photo and
+ * thumbnail sizes with every codec, and reports the encode time, decode
+ * time and bytes stored. The timings are written to the log; the test
+ * itself only checks that every codec round-trips the photo and that the
+ * lossy codecs store less than PNG.
+ *
+ * @author krdavis
+ */
+public class PhotoCodecBenchmark extends AndroidTestCase {
+	// Tag used by logging APIs
+	private static final String TAG = "PhotoCodecBenchmark";
+
+	// Benchmark size
+	private static final int ROUNDS = 10;
+	private static final int[][] SIZES = { { 640, 480 }, { 256, 256 } };
+
+	/**
+	 * Runs every codec on every photo size.
+	 */
+	public void testCodecs() {
+		PhotoCodec[] codecs = { BitmapCodec.png(),
+				BitmapCodec.jpeg(BitmapCodec.DEFAULT_JPEG_QUALITY),
+				BitmapCodec.jpeg(70),
+				BitmapCodec.webp(BitmapCodec.DEFAULT_WEBP_QUALITY),
+				BitmapCodec.webp(60) };
+
+		for (int[] size : SIZES) {
+			Bitmap photo = createPhoto(size[0], size[1]);
+			try {
+				int pngBytes = run(codecs[0], photo);
+				for (int i = 1; i < codecs.length; i++) {
+					assertTrue(codecs[i].getName() + " isn't smaller than PNG",
+							run(codecs[i], photo) < pngBytes);
+				}
+			} finally {
+				photo.recycle();
+			}
+		}
+	}
+
+	/**
+	 * The photo store encodes large photos lossy and small ones lossless.
+	 */
+	public void testStoreCodecChoice() {
+		PhotoStore store = new PhotoStore(getContext().getCacheDir());
+
+		Bitmap large = createPhoto(256, 256);
+		Bitmap small = createPhoto(64, 64);
+		try {
+			assertEquals(Bitmap.CompressFormat.JPEG,
+					((BitmapCodec) store.getCodec(large)).getFormat());
+			assertEquals(Bitmap.CompressFormat.PNG,
+					((BitmapCodec) store.getCodec(small)).getFormat());
+		} finally {
+			large.recycle();
+			small.recycle();
+		}
+	}
+
+	/**
+	 * Times one codec on one photo.
+	 *
+	 * @param codec
+	 *            The codec.
+	 * @param photo
+	 *            The photo.
+	 * @return Bytes stored for the photo.
+	 */
+	private int run(PhotoCodec codec, Bitmap photo) {
+		byte[] data = null;
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			data = codec.encode(photo);
+		}
+		long encodeNanos = System.nanoTime() - start;
+		assertNotNull(codec.getName() + " failed to encode", data);
+
+		start = System.nanoTime();
+		for (int i = 0; i < ROUNDS; i++) {
+			Bitmap decoded = BitmapFactory.decodeByteArray(data, 0, data.length);
+			assertNotNull(codec.getName() + " failed to decode", decoded);
+			assertEquals(photo.getWidth(), decoded.getWidth());
+			assertEquals(photo.getHeight(), decoded.getHeight());
+			decoded.recycle();
+		}
+		long decodeNanos = System.nanoTime() - start;
+
+		Log.i(TAG, codec.getName() + " " + photo.getWidth() + "x" + photo.getHeight()
+				+ ": encode " + (encodeNanos / ROUNDS / 1000) + " us, decode "
+				+ (decodeNanos / ROUNDS / 1000) + " us, " + data.length + " bytes");
+
+		return data.length;
+	}
+
+	/**
+	 * Draws a photo with smooth gradients and sensor-like noise, which
+	 * compresses like a camera image rather than like flat artwork.
+	 *
+	 * @param width
+	 *            Width in pixels.
+	 * @param height
+	 *            Height in pixels.
+	 * @return The photo.
+	 */
+	private static Bitmap createPhoto(int width, int height) {
+		Bitmap photo = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+		Canvas canvas = new Canvas(photo);
+
+		Paint paint = new Paint();
+		paint.setShader(new LinearGradient(0, 0, width, height, Color.rgb(40, 90, 160),
+				Color.rgb(230, 200, 120), Shader.TileMode.CLAMP));
+		canvas.drawRect(0, 0, width, height, paint);
+
+		paint.setShader(null);
+		paint.setColor(Color.rgb(180, 40, 40));
+		canvas.drawCircle(width / 2, height / 2, Math.min(width, height) / 4, paint);
+
+		Random random = new Random(42);
+		int[] row = new int[width];
+		for (int y = 0; y < height; y++) {
+			photo.getPixels(row, 0, width, 0, y, width, 1);
+			for (int x = 0; x < width; x++) {
+				int noise = random.nextInt(17) - 8;
+				int c = row[x];
+				row[x] = Color.rgb(clamp(Color.red(c) + noise),
+						clamp(Color.green(c) + noise), clamp(Color.blue(c) + noise));
+			}
+			photo.setPixels(row, 0, width, 0, y, width, 1);
+		}
+
+		return photo;
+	}
+
+	/**
+	 * Clamps a color component.
+	 *
+	 * @param value
+	 *            The component.
+	 * @return The component between 0 and 255.
+	 */
+	private static int clamp(int value) {
+		return Math.max(0, Math.min(255, value));
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.wishlist.model;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Date;
+
+/**
+ * Micro-benchmark of mapping item rows with per-field column lookups versus
+ * the cached column indexes of <tt>ItemMapper</tt>.
+ *
+ * Runs against an in-memory cursor so only the mapping is measured. The
+ * per-row times are written to the log; the test itself only checks that
+ * both approaches map the same values.
+ *
+ * @author krdavis
+ */
+public class ItemMapperBenchmark extends AndroidTestCase {
+    // Tag used by logging APIs
+    private static final String TAG = "ItemMapperBenchmark";
+
+    // Benchmark size
+    private static final int ROWS = 2000;
+    private static final int WARMUP_PASSES = 3;
+    private static final int PASSES = 10;
+
+    private MatrixCursor cursor;
+
+    /**
+     * Builds the cursor the benchmark maps.
+     *
+     * @throws Exception
+     *             If setup fails.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        cursor = new MatrixCursor(Item.DEFAULT_SELECT_LIST, ROWS);
+        for (int i = 1; i <= ROWS; i++) {
+            cursor.addRow(new Object[] { i, "thumb" + i, 96, 96, "large" + i, 1024,
+                    768, "Location " + i, "Description " + i,
+                    1420070400000L + i * 86400000L, i % 2 == 0 ? null : 1420070400000L,
+                    "Category " + (i % 10), i % 6, "0123456789" + i, "Notes " + i });
+        }
+    }
+
+    /**
+     * Closes the cursor.
+     *
+     * @throws Exception
+     *             If teardown fails.
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        cursor.close();
+
+        super.tearDown();
+    }
+
+    /**
+     * Maps every row both ways and compares the cost per row.
+     */
+    public void testMappingCostPerRow() {
+        Item lookupItem = new Item(getContext().getResources());
+        Item mappedItem = new Item(getContext().getResources());
+        ItemMapper mapper = new ItemMapper();
+
+        for (int i = 0; i < WARMUP_PASSES; i++) {
+            mapWithLookups(lookupItem);
+            mapWithMapper(mapper, mappedItem);
+        }
+
+        long lookupNanos = 0;
+        long mapperNanos = 0;
+        for (int i = 0; i < PASSES; i++) {
+            long start = System.nanoTime();
+            mapWithLookups(lookupItem);
+            lookupNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            mapWithMapper(mapper, mappedItem);
+            mapperNanos += System.nanoTime() - start;
+        }
+
+        long rows = (long) ROWS * PASSES;
+        Log.i(TAG, "getColumnIndex() per field: " + (lookupNanos / rows) + " ns/row");
+        Log.i(TAG, "ItemMapper: " + (mapperNanos / rows) + " ns/row");
+        Log.i(TAG, "Saved per row: " + ((lookupNanos - mapperNanos) / rows) + " ns");
+
+        // Both end on the last row
+        assertEquals(lookupItem.getId(), mappedItem.getId());
+        assertEquals(lookupItem.getDescription(), mappedItem.getDescription());
+        assertEquals(lookupItem.getCaptureDate(), mappedItem.getCaptureDate());
+        assertEquals(lookupItem.getPurchasedDate(), mappedItem.getPurchasedDate());
+        assertEquals(lookupItem.getNotes(), mappedItem.getNotes());
+        assertEquals(lookupItem.getThumbnailPhotoRef(), mappedItem.getThumbnailPhotoRef());
+    }
+
+    /**
+     * Maps every row the way Item.load() used to, looking up each column
+     * index by name for every field.
+     *
+     * @param item
+     *            The item to map into.
+     */
+    private void mapWithLookups(Item item) {
+        for (cursor.moveToFirst(); !cursor.isAfterLast(); cursor.moveToNext()) {
+            item.setId(cursor.getInt(cursor.getColumnIndex(Item.COL_ROW_ID)));
+            item.setDescription(cursor.getString(cursor.getColumnIndex(Item.COL_DESCRIPTION)));
+            item.setLocation(cursor.getString(cursor.getColumnIndex(Item.COL_LOCATION)));
+            item.setCaptureDate(new Date(cursor.getLong(cursor
+                    .getColumnIndex(Item.COL_DATE_CAPTURED))));
+            int index = cursor.getColumnIndex(Item.COL_DATE_PURCHASED);
+            item.setPurchasedDate(cursor.isNull(index) ? null
+                    : new Date(cursor.getLong(index)));
+            item.setCategory(cursor.getString(cursor.getColumnIndex(Item.COL_CATEGORY)));
+            item.setDesirability(cursor.getInt(cursor.getColumnIndex(Item.COL_DESIRABILITY)));
+            item.setBarcode(cursor.getString(cursor.getColumnIndex(Item.COL_BARCODE)));
+            item.setNotes(cursor.getString(cursor.getColumnIndex(Item.COL_NOTES)));
+            item.setThumbnailPhotoRef(cursor.getString(cursor
+                    .getColumnIndex(Item.COL_PHOTO_THUMBNAIL_REF)));
+            item.setLargePhotoRef(cursor.getString(cursor
+                    .getColumnIndex(Item.COL_PHOTO_LARGE_REF)));
+        }
+    }
+
+    /**
+     * Maps every row with the row mapper.
+     *
+     * @param mapper
+     *            The mapper.
+     * @param item
+     *            The item to map into.
+     */
+    private void mapWithMapper(ItemMapper mapper, Item item) {
+        Cursor c = cursor;
+        for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+            mapper.map(c, item);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.wishlist.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.zunisoft.common.db.ActiveRecord;
+import com.zunisoft.common.db.DatabaseAdapter;
+import com.zunisoft.common.db.MemoryStorageEngine;
+import com.zunisoft.common.db.RecordNotFoundException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Benchmark of the item query paths on the SQLite and in-memory storage
+ * engines.
+ *
+ * Times batch inserts, paging through the list, loading by ID and search
+ * on each engine. The timings are written to the log; the test itself only
+ * checks that both engines see the same rows and search hits.
+ *
+ * @author krdavis
+ */
+public class ItemStorageBenchmark extends AndroidTestCase {
+    // Tag used by logging APIs
+    private static final String TAG = "ItemStorageBenchmark";
+
+    // Benchmark size
+    private static final int ROWS = 2000;
+    private static final int PAGE_SIZE = Item.DEFAULT_PAGE_SIZE;
+    private static final int LOAD_STRIDE = 10;
+    private static final String[] SEARCHES = { "item", "kitchen", "blue",
+            "garden tools", "7" };
+
+    private File dbFile;
+
+    /**
+     * Picks the scratch database location.
+     *
+     * @throws Exception
+     *             If setup fails.
+     */
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        dbFile = new File(getContext().getCacheDir(), "storage_benchmark.db");
+        SQLiteDatabase.deleteDatabase(dbFile);
+    }
+
+    /**
+     * Deletes the scratch database.
+     *
+     * @throws Exception
+     *             If teardown fails.
+     */
+    @Override
+    protected void tearDown() throws Exception {
+        SQLiteDatabase.deleteDatabase(dbFile);
+
+        super.tearDown();
+    }
+
+    /**
+     * Runs the query paths on both engines.
+     */
+    public void testEngines() {
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        DatabaseAdapter.createSchema(db);
+        int sqliteHits;
+        try {
+            Item model = new Item(getContext().getResources());
+            model.setSQLiteDatabase(db);
+            sqliteHits = run("SQLite", model);
+        } finally {
+            ActiveRecord.releaseStatementCaches();
+            ActiveRecord.clearIdentityMaps();
+            db.close();
+        }
+
+        Item model = new Item(getContext().getResources());
+        model.setStorageEngine(new MemoryStorageEngine());
+        int memoryHits = run("Memory", model);
+        ActiveRecord.clearIdentityMaps();
+
+        assertEquals(sqliteHits, memoryHits);
+    }
+
+    /**
+     * Times the query paths on one engine.
+     *
+     * @param name
+     *            The engine name, for the log.
+     * @param model
+     *            An item on the engine.
+     * @return The total number of search hits.
+     */
+    private int run(String name, Item model) {
+        Log.d(TAG, "run() -> " + name);
+
+        // Batch insert
+        List<Item> items = new ArrayList<Item>(ROWS);
+        for (int i = 1; i <= ROWS; i++) {
+            Item item = new Item(getContext().getResources());
+            item.setDescription("Item " + i + (i % 3 == 0 ? " blue" : ""));
+            item.setLocation(i % 2 == 0 ? "Kitchen" : "Garden tools");
+            item.setCaptureDate(new Date(1420070400000L + i * 86400000L));
+            item.setCategory("Category " + (i % 10));
+            item.setDesirability(i % 6);
+            item.setBarcode("0123456789" + i);
+            item.setNotes("Notes for item " + i);
+            items.add(item);
+        }
+
+        long start = System.nanoTime();
+        model.saveAll(items);
+        long insertNanos = System.nanoTime() - start;
+
+        // Page through the whole list
+        start = System.nanoTime();
+        int paged = 0;
+        Object[] afterKey = null;
+        while (true) {
+            Cursor cursor = model.findPage(Item.SORT_BY_DESCRIPTION, afterKey, PAGE_SIZE);
+            try {
+                if (!cursor.moveToLast())
+                    break;
+
+                paged += cursor.getCount();
+                afterKey = Item.SORT_BY_DESCRIPTION.readKey(cursor);
+            } finally {
+                cursor.close();
+            }
+        }
+        long pageNanos = System.nanoTime() - start;
+
+        // Load by ID, past the identity map
+        ActiveRecord.clearIdentityMaps();
+        start = System.nanoTime();
+        int loads = 0;
+        for (int id = 1; id <= ROWS; id += LOAD_STRIDE) {
+            try {
+                model.load(id);
+                loads++;
+            } catch (RecordNotFoundException e) {
+                fail(name + ": item " + id + " not found");
+            }
+        }
+        long loadNanos = System.nanoTime() - start;
+
+        // Search
+        start = System.nanoTime();
+        int found = 0;
+        for (String search : SEARCHES) {
+            Cursor cursor = model.search(search, true);
+            try {
+                found += cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+        long searchNanos = System.nanoTime() - start;
+
+        Log.i(TAG, name + ": insert " + (insertNanos / ROWS / 1000) + " us/row, page "
+                + (pageNanos / ROWS / 1000) + " us/row, load "
+                + (loadNanos / loads / 1000) + " us/item, search "
+                + (searchNanos / SEARCHES.length / 1000) + " us/query (" + found
+                + " hits)");
+
+        assertEquals(name, ROWS, paged);
+        return found;
+    }
+}
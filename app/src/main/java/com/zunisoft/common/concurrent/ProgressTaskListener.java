@@ -0,0 +1,39 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.concurrent;
+
+/**
+ * Task listener interface for tasks that report progress.
+ *
+ * @author krdavis
+ */
+public interface ProgressTaskListener extends TaskListener {
+    /**
+     * Called while a task is executing to report its progress. May be called
+     * from a background thread.
+     *
+     * @param message
+     *            Description of the work currently being done.
+     * @param progress
+     *            Units of work done so far.
+     * @param max
+     *            Total units of work, 0 if unknown.
+     */
+    void onTaskProgress(String message, long progress, long max);
+}
@@ -21,12 +21,18 @@ package com.zunisoft.common.db;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
 
 import java.security.InvalidParameterException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -35,24 +41,60 @@ import java.util.regex.Pattern;
  * This is a pseudo active record abstract class that will be extended by
  * concrete data objects.
  * 
+ * Every blocking operation has an asynchronous variant that runs on the
+ * <tt>DatabaseExecutor</tt>. A model must not be used by anyone else while
+ * one of its asynchronous operations is running.
+ * 
+ * Models can also expose their finders as observable queries, whose results
+ * are kept up to date as the rows they read change.
+ * 
  * @author krdavis
  */
 public abstract class ActiveRecord {
-	/** Database object */
+	// Tag used by logging APIs
+	private static final String TAG = "ActiveRecord";
+	
+	/** Default number of records written per batch transaction */
+	public static final int DEFAULT_BATCH_SIZE = 100;
+	
+	/** Database object used for writes */
 	protected SQLiteDatabase db;
 	
+	/** Database object used for queries */
+	protected SQLiteDatabase readDb;
+	
 	/** Errors collection - database column name|error message */
 	protected HashMap<String, String> errors = new HashMap<String, String>();
 	
 	/** Application resources object */
 	protected Resources res;
 	
+	/** Number of records written per batch transaction */
+	protected int batchSize = DEFAULT_BATCH_SIZE;
+	
 	/** Single quote */
 	protected static final String SINGLE_QUOTE = "'";
 	
 	/** Escaped single quote */
 	protected static final String ESC_SINGLE_QUOTE = "''";
 	
+	// Compiled statement caches - model class|cache
+	private static final HashMap<Class<?>, StatementCache> statementCaches =
+			new HashMap<Class<?>, StatementCache>();
+	
+	// Identity maps - model class|map
+	private static final HashMap<Class<?>, IdentityMap> identityMaps =
+			new HashMap<Class<?>, IdentityMap>();
+	
+	// Storage engine the model's rows are kept in
+	private StorageEngine storage;
+	
+	// Changes made inside a batch transaction, posted once it commits
+	private final List<ChangeEvent> pendingChanges = new ArrayList<ChangeEvent>();
+	
+	// Columns changed since the model was last loaded or saved
+	private final HashSet<String> dirtyColumns = new HashSet<String>();
+	
 	/**
 	 * Constructs a new <tt>ActiveRecord</tt> object.
 	 * 
@@ -104,13 +146,675 @@ public abstract class ActiveRecord {
 	abstract public Cursor findAll();
 	
 	/**
-	 * Sets the database object for the model.
+	 * Gets the row ID of the model.
+	 * 
+	 * @return The row ID or 0 if the model hasn't been saved yet.
+	 */
+	abstract public long getRowId();
+	
+	/**
+	 * Loads a record into the model in the background.
+	 * 
+	 * @param id
+	 *            The ID of the record to load.
+	 * @param callback
+	 *            Callback notified on the main thread, may be null. A missing
+	 *            record is reported as a RecordNotFoundException.
+	 * @return The future of the load.
+	 */
+	public Future<Void> loadAsync(final int id, DatabaseCallback<Void> callback) {
+		return async(new Callable<Void>() {
+			@Override
+			public Void call() throws RecordNotFoundException {
+				load(id);
+				return null;
+			}
+		}, callback);
+	}
+	
+	/**
+	 * Saves the model in the background.
+	 * 
+	 * @param callback
+	 *            Callback receiving the result of save() on the main thread,
+	 *            may be null.
+	 * @return The future of the save.
+	 */
+	public Future<Long> saveAsync(DatabaseCallback<Long> callback) {
+		return async(new Callable<Long>() {
+			@Override
+			public Long call() {
+				return save();
+			}
+		}, callback);
+	}
+	
+	/**
+	 * Deletes the model in the background.
+	 * 
+	 * @param callback
+	 *            Callback receiving the result of delete() on the main
+	 *            thread, may be null.
+	 * @return The future of the delete.
+	 */
+	public Future<Boolean> deleteAsync(DatabaseCallback<Boolean> callback) {
+		return async(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return delete();
+			}
+		}, callback);
+	}
+	
+	/**
+	 * Retrieves all records associated with the model in the background.
+	 * 
+	 * @param callback
+	 *            Callback receiving the result set on the main thread, may
+	 *            be null. The callback owns the cursor.
+	 * @return The future of the result set.
+	 */
+	public Future<Cursor> findAllAsync(DatabaseCallback<Cursor> callback) {
+		return asyncQuery(new Callable<Cursor>() {
+			@Override
+			public Cursor call() {
+				return findAll();
+			}
+		}, callback);
+	}
+	
+	/**
+	 * Runs an operation on the database executor.
+	 * 
+	 * @param operation
+	 *            The operation.
+	 * @param callback
+	 *            Callback notified on the main thread, may be null.
+	 * @return The future of the operation's result.
+	 */
+	protected <T> Future<T> async(Callable<T> operation, DatabaseCallback<T> callback) {
+		return DatabaseExecutor.getInstance().submit(operation, callback);
+	}
+	
+	/**
+	 * Runs a query on the database executor. The cursor window is filled in
+	 * the background too, so the first access to the result on the main
+	 * thread doesn't read from the database.
+	 * 
+	 * @param query
+	 *            The query.
+	 * @param callback
+	 *            Callback receiving the result set on the main thread, may
+	 *            be null.
+	 * @return The future of the result set.
+	 */
+	protected Future<Cursor> asyncQuery(final Callable<Cursor> query,
+			DatabaseCallback<Cursor> callback) {
+		return async(new Callable<Cursor>() {
+			@Override
+			public Cursor call() throws Exception {
+				Cursor cursor = query.call();
+				cursor.getCount();
+				return cursor;
+			}
+		}, callback);
+	}
+	
+	/**
+	 * Creates an observable query, which runs again in the background
+	 * whenever rows of the given tables change. The query reads through
+	 * the model, which should not be used for anything else while the query
+	 * is subscribed.
+	 * 
+	 * @param query
+	 *            The query.
+	 * @param tables
+	 *            The tables the query reads.
+	 * @return The query, not yet subscribed.
+	 */
+	protected <T> ObservableQuery<T> observe(Callable<T> query, String... tables) {
+		return new ObservableQuery<T>(query, tables);
+	}
+	
+	/**
+	 * Called after a batch transaction the model took part in has ended.
+	 * 
+	 * Models can use this to defer work that must only happen once their
+	 * changes are durable, or to undo in-memory state after a rollback.
+	 * 
+	 * @param committed
+	 *            True if the transaction was committed, false if it was
+	 *            rolled back.
+	 */
+	protected void onTransactionFinished(boolean committed) {
+	}
+	
+	/**
+	 * Saves a list of records. Records are written in chunks of
+	 * getBatchSize() records, each chunk in its own transaction. A record
+	 * that fails validation or is rejected by the database is reported in
+	 * the result and does not affect the other records.
+	 * 
+	 * Records without storage use this model's storage.
+	 * 
+	 * @param records
+	 *            The records to save.
+	 * @return The row ID of every record and the errors of the failed ones.
+	 */
+	public BatchResult saveAll(List<? extends ActiveRecord> records) {
+		Log.d(TAG, "saveAll() -> " + records.size() + " records");
+		
+		BatchResult result = new BatchResult(records.size());
+		
+		for (int start = 0; start < records.size(); start += batchSize) {
+			int end = Math.min(start + batchSize, records.size());
+			boolean committed = false;
+			StorageEngine storage = getStorageEngine();
+			
+			storage.beginTransaction();
+			try {
+				for (int i = start; i < end; i++) {
+					ActiveRecord record = adopt(records.get(i));
+					
+					if (record.save() == -1) {
+						result.setFailed(i, record.getErrors());
+					} else {
+						result.setSucceeded(i, record.getRowId());
+					}
+				}
+				storage.setTransactionSuccessful();
+				committed = true;
+			} finally {
+				storage.endTransaction();
+				finishTransaction(records.subList(start, end), committed);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Deletes a list of records. Records are deleted in chunks of
+	 * getBatchSize() records, each chunk in its own transaction. A record
+	 * that cannot be deleted is reported in the result and does not affect
+	 * the other records.
+	 * 
+	 * Records without storage use this model's storage.
+	 * 
+	 * @param records
+	 *            The records to delete.
+	 * @return The row ID of every deleted record and the failed ones.
+	 */
+	public BatchResult deleteAll(List<? extends ActiveRecord> records) {
+		Log.d(TAG, "deleteAll() -> " + records.size() + " records");
+		
+		BatchResult result = new BatchResult(records.size());
+		
+		for (int start = 0; start < records.size(); start += batchSize) {
+			int end = Math.min(start + batchSize, records.size());
+			boolean committed = false;
+			StorageEngine storage = getStorageEngine();
+			
+			storage.beginTransaction();
+			try {
+				for (int i = start; i < end; i++) {
+					ActiveRecord record = adopt(records.get(i));
+					long id = record.getRowId();
+					
+					if (record.delete()) {
+						result.setSucceeded(i, id);
+					} else {
+						result.setFailed(i, record.getErrors());
+					}
+				}
+				storage.setTransactionSuccessful();
+				committed = true;
+			} finally {
+				storage.endTransaction();
+				finishTransaction(records.subList(start, end), committed);
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Tells the records of an ended batch transaction how it ended and
+	 * posts their changes if it was committed.
+	 * 
+	 * @param records
+	 *            The records that took part in the transaction.
+	 * @param committed
+	 *            True if the transaction was committed, false if it was
+	 *            rolled back.
+	 */
+	private static void finishTransaction(List<? extends ActiveRecord> records,
+			boolean committed) {
+		List<ChangeEvent> changes = new ArrayList<ChangeEvent>();
+		
+		for (ActiveRecord record : records) {
+			record.onTransactionFinished(committed);
+			
+			if (committed)
+				changes.addAll(record.pendingChanges);
+			record.pendingChanges.clear();
+		}
+		
+		ChangeBus.getInstance().post(changes);
+	}
+	
+	/**
+	 * Reports a change made by the model. Changes made inside a batch
+	 * transaction are held back until it commits and dropped if it rolls
+	 * back.
+	 * 
+	 * @param table
+	 *            The table that changed.
+	 * @param type
+	 *            One of ChangeEvent.INSERT, UPDATE or DELETE.
+	 * @param id
+	 *            The row ID of the changed row.
+	 */
+	protected void notifyChange(String table, int type, long id) {
+		ChangeEvent event = new ChangeEvent(table, type, id);
+		
+		if (getStorageEngine().inTransaction()) {
+			pendingChanges.add(event);
+		} else {
+			ChangeBus.getInstance().post(event);
+		}
+	}
+	
+	/**
+	 * Marks a column as changed, so the next update writes it.
+	 * 
+	 * @param column
+	 *            The database column name.
+	 */
+	protected void markDirty(String column) {
+		dirtyColumns.add(column);
+	}
+	
+	/**
+	 * Marks a column as changed if its new value differs from the old one.
+	 * Setters call this so setting a field to the value it already has
+	 * doesn't cause a write.
+	 * 
+	 * @param column
+	 *            The database column name.
+	 * @param oldValue
+	 *            The field's current value, may be null.
+	 * @param newValue
+	 *            The field's new value, may be null.
+	 */
+	protected void markDirty(String column, Object oldValue, Object newValue) {
+		if (oldValue == null ? newValue != null : !oldValue.equals(newValue))
+			dirtyColumns.add(column);
+	}
+	
+	/**
+	 * Checks whether a column changed since the model was last loaded or
+	 * saved.
+	 * 
+	 * @param column
+	 *            The database column name.
+	 * @return True if the column changed, false otherwise.
+	 */
+	public boolean isDirty(String column) {
+		return dirtyColumns.contains(column);
+	}
+	
+	/**
+	 * Checks whether any column changed since the model was last loaded or
+	 * saved.
+	 * 
+	 * @return True if the model has unsaved changes, false otherwise.
+	 */
+	public boolean isDirty() {
+		return !dirtyColumns.isEmpty();
+	}
+	
+	/**
+	 * Forgets the changed columns. Models call this once they have been
+	 * loaded or saved.
+	 */
+	protected void clearDirty() {
+		dirtyColumns.clear();
+	}
+	
+	/**
+	 * Updates the changed columns of a row by its ID using a cached compiled
+	 * statement. Nothing is written if no column changed.
+	 * 
+	 * @param table
+	 *            The table to update.
+	 * @param columns
+	 *            All column names the model saves.
+	 * @param values
+	 *            The column values, in the same order as the column names.
+	 * @param id
+	 *            The row ID.
+	 * @return The number of rows affected.
+	 */
+	protected int updateDirtyColumns(String table, String[] columns,
+			Object[] values, long id) {
+		List<String> dirty = new ArrayList<String>(columns.length);
+		List<Object> dirtyValues = new ArrayList<Object>(columns.length);
+		
+		// Keep the column order, so the same changes reuse one statement
+		for (int i = 0; i < columns.length; i++) {
+			if (dirtyColumns.contains(columns[i])) {
+				dirty.add(columns[i]);
+				dirtyValues.add(values[i]);
+			}
+		}
+		
+		if (dirty.isEmpty())
+			return 0;
+		
+		return updateRow(table, dirty.toArray(new String[dirty.size()]),
+				dirtyValues.toArray(), id);
+	}
+	
+	/**
+	 * Gives a record this model's storage if it has none.
+	 * 
+	 * @param record
+	 *            The record.
+	 * @return The record.
+	 */
+	private ActiveRecord adopt(ActiveRecord record) {
+		if (record.db == null && record.storage == null) {
+			if (db != null) {
+				record.setSQLiteDatabase(db, readDb);
+			} else {
+				record.setStorageEngine(storage);
+			}
+		}
+		
+		return record;
+	}
+	
+	/**
+	 * Gets the number of records written per batch transaction.
+	 * 
+	 * @return The batch size.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	/**
+	 * Sets the number of records written per batch transaction. Larger
+	 * batches mean fewer commits, smaller ones hold the write lock for
+	 * shorter periods.
+	 * 
+	 * @param batchSize
+	 *            The batch size.
+	 * @throws InvalidParameterException
+	 *             If batchSize < 1.
+	 */
+	public void setBatchSize(int batchSize) throws InvalidParameterException {
+		if (batchSize < 1)
+			throw new InvalidParameterException();
+		
+		this.batchSize = batchSize;
+	}
+	
+	/**
+	 * Sets the database object for the model. The same object is used for
+	 * queries and writes.
 	 * 
 	 * @param db
 	 *            Database object.
 	 */
 	public void setSQLiteDatabase(SQLiteDatabase db) {
+		setSQLiteDatabase(db, db);
+	}
+	
+	/**
+	 * Sets separate database objects for writes and queries, so queries can
+	 * run on a read-only connection while another thread is writing.
+	 * 
+	 * @param db
+	 *            Database object used for writes.
+	 * @param readDb
+	 *            Database object used for queries.
+	 */
+	public void setSQLiteDatabase(SQLiteDatabase db, SQLiteDatabase readDb) {
 		this.db = db;
+		this.readDb = readDb;
+		this.storage = null;
+	}
+	
+	/**
+	 * Sets a storage engine for the model in place of a database, e.g. a
+	 * <tt>MemoryStorageEngine</tt>. Queries that need SQL are unavailable
+	 * unless the engine runs them.
+	 * 
+	 * @param storage
+	 *            The storage engine.
+	 */
+	public void setStorageEngine(StorageEngine storage) {
+		this.db = null;
+		this.readDb = null;
+		this.storage = storage;
+		
+		StorageTable table = getStorageTable();
+		if (table != null)
+			storage.register(table);
+	}
+	
+	/**
+	 * Gets the storage engine the model's rows are kept in. A model with a
+	 * database object gets a <tt>SQLiteStorageEngine</tt> on its database
+	 * objects and statement cache, recreated if either changed.
+	 * 
+	 * @return The storage engine.
+	 */
+	public StorageEngine getStorageEngine() {
+		if (db == null)
+			return storage;
+		
+		StatementCache cache = getStatementCache();
+		SQLiteStorageEngine sqlite = storage instanceof SQLiteStorageEngine
+				? (SQLiteStorageEngine) storage : null;
+		
+		if (sqlite == null || sqlite.getStatementCache() != cache
+				|| sqlite.getReadDatabase() != readDb) {
+			sqlite = new SQLiteStorageEngine(db, readDb, cache);
+			
+			StorageTable table = getStorageTable();
+			if (table != null)
+				sqlite.register(table);
+			storage = sqlite;
+		}
+		
+		return storage;
+	}
+	
+	/**
+	 * Describes the layout of the model's table to storage engines. Models
+	 * that don't override this use their table as is.
+	 * 
+	 * @return The table layout, or null.
+	 */
+	protected StorageTable getStorageTable() {
+		return null;
+	}
+	
+	/**
+	 * Gets the compiled statement cache shared by all instances of this
+	 * model. The cache is recreated if the model's database object changed.
+	 * 
+	 * @return The statement cache.
+	 */
+	public StatementCache getStatementCache() {
+		synchronized (statementCaches) {
+			StatementCache cache = statementCaches.get(getClass());
+			
+			if (cache == null || cache.getDatabase() != db) {
+				if (cache != null)
+					cache.close();
+				
+				cache = new StatementCache(db, StatementCache.DEFAULT_MAX_SIZE);
+				statementCaches.put(getClass(), cache);
+			}
+			
+			return cache;
+		}
+	}
+	
+	/**
+	 * Closes the compiled statement caches of all models. Must be called
+	 * before the database they were compiled against is closed.
+	 */
+	public static void releaseStatementCaches() {
+		synchronized (statementCaches) {
+			for (StatementCache cache : statementCaches.values()) {
+				cache.close();
+			}
+			statementCaches.clear();
+		}
+	}
+	
+	/**
+	 * Gets the identity map shared by all instances of this model. Only
+	 * models extending CachedActiveRecord put records into it, but every
+	 * model invalidates the rows it writes.
+	 * 
+	 * @return The identity map.
+	 */
+	public IdentityMap getIdentityMap() {
+		synchronized (identityMaps) {
+			IdentityMap map = identityMaps.get(getClass());
+			
+			if (map == null) {
+				map = new IdentityMap(IdentityMap.DEFAULT_MAX_BYTES);
+				identityMaps.put(getClass(), map);
+			}
+			
+			return map;
+		}
+	}
+	
+	/**
+	 * Empties the identity maps of all models.
+	 */
+	public static void clearIdentityMaps() {
+		synchronized (identityMaps) {
+			for (IdentityMap map : identityMaps.values()) {
+				map.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Runs a query on the model's storage engine.
+	 * 
+	 * @param query
+	 *            The query.
+	 * @return Result set of the query.
+	 * @throws UnsupportedOperationException
+	 *             If the storage engine doesn't run SQL.
+	 */
+	protected Cursor find(Query query) {
+		return getStorageEngine().query(query);
+	}
+	
+	/**
+	 * Counts the rows of a query on the model's storage engine. Only the
+	 * count is returned, no row is materialized.
+	 * 
+	 * @param query
+	 *            The query, without a select list.
+	 * @return The number of rows.
+	 */
+	protected long count(Query query) {
+		Cursor cursor = find(query.select("COUNT(*)"));
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Checks whether a query on the model's storage engine returns any row.
+	 * Stops at the first row found.
+	 * 
+	 * @param query
+	 *            The query, without a select list or limit.
+	 * @return True if the query returns a row.
+	 */
+	protected boolean exists(Query query) {
+		Cursor cursor = find(query.select("1").limit(1));
+		try {
+			return cursor.moveToFirst();
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	/**
+	 * Gets the plan SQLite would use to run a query on the model's storage
+	 * engine.
+	 * 
+	 * @param query
+	 *            The query.
+	 * @return One line per step of the plan.
+	 * @throws UnsupportedOperationException
+	 *             If the storage engine doesn't run SQL.
+	 */
+	public List<String> explain(Query query) {
+		return getStorageEngine().explain(query);
+	}
+	
+	/**
+	 * Inserts a row through the model's storage engine.
+	 * 
+	 * @param table
+	 *            The table to insert into.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The column values, in the same order as the column names.
+	 * @return The row ID of the newly inserted row or -1 if an error
+	 *         occurred.
+	 */
+	protected long insertRow(String table, String[] columns, Object[] values) {
+		return getStorageEngine().insert(table, columns, values);
+	}
+	
+	/**
+	 * Updates a row by its ID through the model's storage engine.
+	 * 
+	 * @param table
+	 *            The table to update.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The column values, in the same order as the column names.
+	 * @param id
+	 *            The row ID.
+	 * @return The number of rows affected.
+	 */
+	protected int updateRow(String table, String[] columns, Object[] values,
+			long id) {
+		return getStorageEngine().update(table, id, columns, values);
+	}
+	
+	/**
+	 * Deletes a row by its ID through the model's storage engine.
+	 * 
+	 * @param table
+	 *            The table to delete from.
+	 * @param id
+	 *            The row ID.
+	 * @return The number of rows affected.
+	 */
+	protected int deleteRow(String table, long id) {
+		return getStorageEngine().delete(table, id);
 	}
 	
 	/**
@@ -0,0 +1,131 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Result of a batch save or delete.
+ *
+ * Holds the row ID of every record in the batch, in the order the records
+ * were passed in, along with the errors of the records that failed.
+ *
+ * @author krdavis
+ */
+public class BatchResult {
+	/** Row ID reported for records that failed */
+	public static final long FAILED = -1;
+
+	// Member variables
+	private final long[] ids;
+	private final TreeMap<Integer, Map<String, String>> failures =
+			new TreeMap<Integer, Map<String, String>>();
+
+	/**
+	 * Constructs a new <tt>BatchResult</tt> object.
+	 *
+	 * @param size
+	 *            Number of records in the batch.
+	 */
+	public BatchResult(int size) {
+		ids = new long[size];
+		Arrays.fill(ids, FAILED);
+	}
+
+	/**
+	 * Records a successfully persisted record.
+	 *
+	 * @param index
+	 *            Position of the record in the batch.
+	 * @param id
+	 *            Row ID of the record.
+	 */
+	void setSucceeded(int index, long id) {
+		ids[index] = id;
+		failures.remove(index);
+	}
+
+	/**
+	 * Records a failed record.
+	 *
+	 * @param index
+	 *            Position of the record in the batch.
+	 * @param errors
+	 *            The record's validation errors, empty if the database
+	 *            rejected it.
+	 */
+	void setFailed(int index, Map<String, String> errors) {
+		ids[index] = FAILED;
+		failures.put(index, Collections.unmodifiableMap(
+				new HashMap<String, String>(errors)));
+	}
+
+	/**
+	 * Gets the row IDs of the records, in batch order. Inserted records
+	 * report their generated ID, failed records report FAILED.
+	 *
+	 * @return The row IDs.
+	 */
+	public long[] getIds() {
+		return ids.clone();
+	}
+
+	/**
+	 * Gets the errors of the failed records.
+	 *
+	 * The map key holds the position of the record in the batch and the
+	 * value holds its errors collection.
+	 *
+	 * @return The failures (read-only).
+	 */
+	public Map<Integer, Map<String, String>> getFailures() {
+		return Collections.unmodifiableMap(failures);
+	}
+
+	/**
+	 * Gets the number of records that were persisted.
+	 *
+	 * @return The success count.
+	 */
+	public int getSuccessCount() {
+		return ids.length - failures.size();
+	}
+
+	/**
+	 * Gets the number of records that failed.
+	 *
+	 * @return The failure count.
+	 */
+	public int getFailureCount() {
+		return failures.size();
+	}
+
+	/**
+	 * Checks whether any record in the batch failed.
+	 *
+	 * @return True if at least one record failed, false otherwise.
+	 */
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+}
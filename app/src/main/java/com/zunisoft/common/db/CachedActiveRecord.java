@@ -0,0 +1,100 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.content.res.Resources;
+
+/**
+ * Active record whose loaded rows are cached.
+ * 
+ * Models opt into the identity map by extending this class instead of
+ * ActiveRecord and implementing copy() and copyFrom(). A load first looks
+ * the row up with loadFromIdentityMap() and, after reading it from the
+ * database, caches a copy with putInIdentityMap().
+ * 
+ * @see com.zunisoft.common.db.IdentityMap
+ * 
+ * @author krdavis
+ */
+public abstract class CachedActiveRecord extends ActiveRecord {
+	/** Default estimated size of a record in an identity map, in bytes */
+	protected static final int DEFAULT_RECORD_SIZE = 512;
+	
+	/**
+	 * Constructs a new <tt>CachedActiveRecord</tt> object.
+	 * 
+	 * @param res
+	 *            Application resources object.
+	 */
+	public CachedActiveRecord(Resources res) {
+		super(res);
+	}
+	
+	/**
+	 * Creates a copy of the model to be kept in the identity map.
+	 * 
+	 * @return The copy.
+	 */
+	protected abstract CachedActiveRecord copy();
+	
+	/**
+	 * Sets the model's fields from a cached copy.
+	 * 
+	 * @param record
+	 *            The copy returned earlier by copy().
+	 */
+	protected abstract void copyFrom(CachedActiveRecord record);
+	
+	/**
+	 * Estimates the memory held by the model, used to bound the identity
+	 * map. Models holding large objects such as bitmaps should override it.
+	 * 
+	 * @return The size in bytes.
+	 */
+	protected int sizeOf() {
+		return DEFAULT_RECORD_SIZE;
+	}
+	
+	/**
+	 * Loads the model from the identity map.
+	 * 
+	 * @param id
+	 *            The row ID.
+	 * @return True if the model was found and loaded, false otherwise.
+	 */
+	protected boolean loadFromIdentityMap(long id) {
+		CachedActiveRecord cached = getIdentityMap().get(id);
+		if (cached == null)
+			return false;
+		
+		copyFrom(cached);
+		return true;
+	}
+	
+	/**
+	 * Puts a copy of the freshly loaded model into the identity map.
+	 * 
+	 * @param generation
+	 *            The identity map generation taken before the model was
+	 *            read from the database.
+	 */
+	protected void putInIdentityMap(long generation) {
+		getIdentityMap().put(getRowId(), copy(), generation);
+	}
+}
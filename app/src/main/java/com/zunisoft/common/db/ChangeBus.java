@@ -0,0 +1,126 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Change bus.
+ *
+ * Delivers the row changes made by models to the registered listeners, on
+ * the main thread. Changes made inside a batch transaction are only posted
+ * once it has committed, as a single list.
+ *
+ * @author krdavis
+ */
+public class ChangeBus {
+	// Tag used by logging APIs
+	private static final String TAG = "ChangeBus";
+
+	// Change bus instance
+	private static ChangeBus changeBus;
+
+	// Member variables
+	private final List<ChangeListener> listeners =
+			new CopyOnWriteArrayList<ChangeListener>();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Constructs a new <tt>ChangeBus</tt> object.
+	 */
+	private ChangeBus() {
+	}
+
+	/**
+	 * Gets an instance of the change bus.
+	 *
+	 * @return Change bus instance.
+	 */
+	public static synchronized ChangeBus getInstance() {
+		if (changeBus == null)
+			changeBus = new ChangeBus();
+
+		return changeBus;
+	}
+
+	/**
+	 * Registers a listener.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public void register(ChangeListener listener) {
+		Log.d(TAG, "register()");
+
+		if (!listeners.contains(listener))
+			listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener. It receives no further changes, including ones
+	 * already posted.
+	 *
+	 * @param listener
+	 *            The listener.
+	 */
+	public void unregister(ChangeListener listener) {
+		Log.d(TAG, "unregister()");
+
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Posts committed changes to the listeners. May be called from any
+	 * thread.
+	 *
+	 * @param events
+	 *            The changes.
+	 */
+	public void post(List<ChangeEvent> events) {
+		if (events.isEmpty() || listeners.isEmpty())
+			return;
+
+		final List<ChangeEvent> changes = Collections.unmodifiableList(events);
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				for (ChangeListener listener : listeners) {
+					listener.onChange(changes);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Posts a single committed change to the listeners. May be called from
+	 * any thread.
+	 *
+	 * @param event
+	 *            The change.
+	 */
+	public void post(ChangeEvent event) {
+		post(Collections.singletonList(event));
+	}
+}
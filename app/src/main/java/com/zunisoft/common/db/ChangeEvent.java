@@ -0,0 +1,96 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+/**
+ * Change event.
+ *
+ * Describes a committed insert, update or delete of a single row.
+ *
+ * @author krdavis
+ */
+public class ChangeEvent {
+	/** A row was inserted */
+	public static final int INSERT = 0;
+
+	/** A row was updated */
+	public static final int UPDATE = 1;
+
+	/** A row was deleted */
+	public static final int DELETE = 2;
+
+	// Member variables
+	private final String table;
+	private final int type;
+	private final long rowId;
+
+	/**
+	 * Constructs a new <tt>ChangeEvent</tt> object.
+	 *
+	 * @param table
+	 *            The table that changed.
+	 * @param type
+	 *            One of INSERT, UPDATE or DELETE.
+	 * @param rowId
+	 *            The row ID of the changed row.
+	 */
+	public ChangeEvent(String table, int type, long rowId) {
+		this.table = table;
+		this.type = type;
+		this.rowId = rowId;
+	}
+
+	/**
+	 * Gets the table that changed.
+	 *
+	 * @return The table name.
+	 */
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * Gets the kind of change.
+	 *
+	 * @return One of INSERT, UPDATE or DELETE.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * Gets the row ID of the changed row.
+	 *
+	 * @return The row ID.
+	 */
+	public long getRowId() {
+		return rowId;
+	}
+
+	/**
+	 * Returns a string representation of the event.
+	 *
+	 * @return The event.
+	 */
+	@Override
+	public String toString() {
+		return (type == INSERT ? "INSERT " : type == UPDATE ? "UPDATE "
+				: "DELETE ") + table + " " + rowId;
+	}
+}
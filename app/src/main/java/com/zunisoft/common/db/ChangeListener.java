@@ -0,0 +1,36 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import java.util.List;
+
+/**
+ * Change listener interface.
+ *
+ * @author krdavis
+ */
+public interface ChangeListener {
+	/**
+	 * Called on the main thread after changes have been committed.
+	 *
+	 * @param events
+	 *            The changes, in the order they were made.
+	 */
+	void onChange(List<ChangeEvent> events);
+}
@@ -19,6 +19,9 @@
 package com.zunisoft.common.db;
 
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.database.sqlite.SQLiteException;
@@ -26,10 +29,13 @@ import android.database.sqlite.SQLiteOpenHelper;
 import android.os.Environment;
 import android.util.Log;
 
+import com.zunisoft.common.concurrent.ProgressTaskListener;
+import com.zunisoft.common.photo.PhotoStore;
 import com.zunisoft.common.support.AndroidUtil;
 import com.zunisoft.wishlist.model.Item;
 
 import java.io.File;
+import java.io.IOException;
 
 /**
  * Database adapter.
@@ -37,6 +43,13 @@ import java.io.File;
  * This class manages the creation and versioning of the application's SQLite
  * database.
  * 
+ * The database runs in write-ahead logging mode, in which the framework
+ * keeps a pool of connections behind the single database object. Writes and
+ * transactions run on its primary connection, while queries from other
+ * threads run on the pooled read connections. Those see the last committed
+ * state and are never blocked by a writer, so list queries and saves can run
+ * in parallel.
+ * 
  * @author krdavis
  */
 public class DatabaseAdapter extends SQLiteOpenHelper {
@@ -53,12 +66,36 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 	private static final String DATABASE_DIR = "databases";
 	private static final String DATABASE_NAME = "wishlist.db";
 
+	// Query profiler summary filename
+	private static final String QUERY_PROFILE_NAME = "query_profile.txt";
+
+	// Photo store directory
+	private static final String PHOTO_DIR = "photos";
+
 	// Database version
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 9;
+
+	/** Checkpoint as much as possible without blocking readers or writers */
+	public static final String CHECKPOINT_PASSIVE = "PASSIVE";
+
+	/** Block new writers until the whole log has been checkpointed */
+	public static final String CHECKPOINT_FULL = "FULL";
+
+	/** Like FULL, then wait for readers so the log restarts from the top */
+	public static final String CHECKPOINT_RESTART = "RESTART";
 
 	// Member variables
 	private boolean isInitializing = false;
 	private String dbFilePath;
+	private PhotoStore photoStore;
+	private ProgressTaskListener upgradeListener;
+	private DatabaseMaintenance maintenance;
+	private DatabaseConfig config = DatabaseConfig.balanced();
+
+	// Checkpoint statistics
+	private int checkpointCount;
+	private long lastCheckpointTime;
+	private int[] lastCheckpoint = { 0, 0, 0 };
 	
 	/**
 	 * Constructs a new <tt>DatabaseAdapter</tt> object.
@@ -78,14 +115,22 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 		
 		Log.d(TAG, "DatabaseAdapter()");
 		
+		// Only debuggable builds pay for query profiling
+		QueryProfiler.getInstance().setEnabled((context.getApplicationInfo().flags
+				& ApplicationInfo.FLAG_DEBUGGABLE) != 0);
+		
 		// Build the database directory and file paths
-		File dbDir = new File(
+		File dataDir = new File(
 				Environment.getExternalStorageDirectory()
 				+ File.separator + AndroidUtil.SD_CARD_DATA_DIR
-				+ File.separator + context.getPackageName()
-				+ File.separator + DATABASE_DIR);
+				+ File.separator + context.getPackageName());
+		File dbDir = new File(dataDir + File.separator + DATABASE_DIR);
 		File dbFile = new File(dbDir + File.separator + DATABASE_NAME);
 
+		// Photos live next to the database
+		photoStore = new PhotoStore(new File(dataDir + File.separator
+				+ PHOTO_DIR));
+
 		// Save the path to the database file
 		dbFilePath = dbFile.getPath();
 
@@ -105,7 +150,46 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 	public void onCreate(SQLiteDatabase db) {
 		Log.d(TAG, "onCreate()");
 
+		createSchema(db);
+	}
+
+	/**
+	 * Creates the tables, indexes and views of the current schema version.
+	 * 
+	 * @param db
+	 *            The database.
+	 */
+	public static void createSchema(SQLiteDatabase db) {
+		for (String sql : Item.SQL_CREATE_LOOKUP_TABLES) {
+			db.execSQL(sql);
+		}
 		db.execSQL(Item.SQL_CREATE_TABLE);
+		for (String sql : Item.SQL_CREATE_INDEXES) {
+			db.execSQL(sql);
+		}
+		db.execSQL(Item.SQL_CREATE_VIEW);
+		for (String sql : Item.SQL_CREATE_SEARCH_INDEX) {
+			db.execSQL(sql);
+		}
+	}
+
+	/**
+	 * Called when the database has been opened. Switches read/write
+	 * databases to write-ahead logging and applies the performance profile.
+	 * 
+	 * @param db
+	 *            The database.
+	 */
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		Log.d(TAG, "onOpen()");
+
+		if (!db.isReadOnly() && !db.enableWriteAheadLogging()) {
+			Log.w(TAG, "Write-ahead logging not available for "
+					+ DATABASE_NAME);
+		}
+
+		config.apply(db);
 	}
 
 	/**
@@ -209,24 +293,30 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 		SQLiteDatabase tdb = null;
 		try {
 			isInitializing = true;
+			if (!new File(dbFilePath).exists())
+				createDatabase(dbFilePath, config);
 			tdb = SQLiteDatabase.openOrCreateDatabase(dbFilePath, null);
 			
 			int version = tdb.getVersion();
 			Log.d(TAG, "Database version = " + version);
 			
-			if (version != DATABASE_VERSION) {
+			if (version == 0) {
+				// A create that didn't finish, too late for the pragmas
 				tdb.beginTransaction();
 				try {
-					if (version == 0) {
-						onCreate(tdb);
-					} else {
-						onUpgrade(tdb, version, DATABASE_VERSION);
-					}
+					onCreate(tdb);
 					tdb.setVersion(DATABASE_VERSION);
 					tdb.setTransactionSuccessful();
 				} finally {
 					tdb.endTransaction();
 				}
+			} else if (version < DATABASE_VERSION) {
+				// Migration steps commit their own chunks
+				onUpgrade(tdb, version, DATABASE_VERSION);
+			} else if (version > DATABASE_VERSION) {
+				throw new SQLiteException("Can't downgrade database from "
+						+ "version " + version + " to " + DATABASE_VERSION
+						+ ": " + dbFilePath);
 			}
 
 			onOpen(tdb);
@@ -251,8 +341,46 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 	}
 
 	/**
-	 * Called when the database needs to be upgraded.
+	 * Creates a new database file with the current schema. The page size
+	 * and auto-vacuum mode only take effect before the first table is
+	 * created, and a normal open creates android_metadata straight away, so
+	 * the schema is created on a connection opened without localized
+	 * collators, which doesn't.
 	 * 
+	 * @param path
+	 *            Path of the database file, which must not exist yet.
+	 * @param config
+	 *            The profile giving the page size.
+	 */
+	public static void createDatabase(String path, DatabaseConfig config) {
+		Log.d(TAG, "createDatabase()");
+
+		SQLiteDatabase cdb = SQLiteDatabase.openDatabase(path, null,
+				SQLiteDatabase.CREATE_IF_NECESSARY
+						| SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+		try {
+			config.applyOnCreate(cdb);
+			cdb.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+
+			cdb.beginTransaction();
+			try {
+				createSchema(cdb);
+				cdb.setVersion(DATABASE_VERSION);
+				cdb.setTransactionSuccessful();
+			} finally {
+				cdb.endTransaction();
+			}
+		} finally {
+			cdb.close();
+		}
+	}
+
+	/**
+	 * Called when the database needs to be upgraded. Runs the migration
+	 * steps in DatabaseMigrations outside of any transaction; each step
+	 * commits in chunks and an interrupted upgrade resumes where it left
+	 * off the next time the database is opened.
+	 *
 	 * @param db
 	 *            The database.
 	 * @param oldVersion
@@ -264,13 +392,22 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
 		Log.i(TAG, "Upgrading database from version " + oldVersion + " to "
 				+ newVersion);
-		
-		// Apply upgrades
-		if (oldVersion == 1 && newVersion == 2) {
-			// Version 1 to 2 introduced some new feature
-			//String messageAlterSql = "alter table test add column new_column NULL";
-			//db.execSQL(messageAlterSql);
-		}
+
+		SchemaMigrator migrator = new SchemaMigrator(
+				DatabaseMigrations.getMigrations(photoStore));
+		migrator.setListener(upgradeListener);
+		migrator.migrate(db, oldVersion, newVersion);
+	}
+
+	/**
+	 * Gets the recorded elapsed time of every migration step that has run
+	 * against the database.
+	 *
+	 * @return The step timings in milliseconds, indexed by version, with -1
+	 *         for versions that were never migrated to.
+	 */
+	public long[] getMigrationTimings() {
+		return SchemaMigrator.getTimings(db, DATABASE_VERSION);
 	}
 
 	/**
@@ -278,28 +415,53 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 	 * 
 	 * @param context
 	 *            Application context.
+	 * @param listener
+	 *            Listener notified of upgrade progress, may be null.
 	 */
-	private static void initialize(Context context) {
+	private static synchronized void initialize(Context context,
+			ProgressTaskListener listener) {
 		Log.d(TAG, "initialize()");
-		
+
 		if (dbAdapter == null) {
-			dbAdapter = new DatabaseAdapter(context, DATABASE_NAME, null,
-					DATABASE_VERSION);
-			db = dbAdapter.getWritableDatabase();
+			DatabaseAdapter adapter = new DatabaseAdapter(context,
+					DATABASE_NAME, null, DATABASE_VERSION);
+			adapter.upgradeListener = listener;
+			try {
+				db = adapter.getWritableDatabase();
+			} finally {
+				adapter.upgradeListener = null;
+			}
+			dbAdapter = adapter;
 		}
 	}
 
 	/**
 	 * Gets an instance of the database adapter.
-	 * 
+	 *
 	 * @param context
 	 *            Application context.
 	 * @return Database adapter instance.
 	 */
 	public static final DatabaseAdapter getInstance(Context context) {
+		return getInstance(context, null);
+	}
+
+	/**
+	 * Gets an instance of the database adapter, reporting the progress of
+	 * any schema upgrade needed to open the database.
+	 *
+	 * @param context
+	 *            Application context.
+	 * @param listener
+	 *            Listener notified of upgrade progress from the calling
+	 *            thread, may be null.
+	 * @return Database adapter instance.
+	 */
+	public static final DatabaseAdapter getInstance(Context context,
+			ProgressTaskListener listener) {
 		Log.d(TAG, "getInstance()");
-		
-		initialize(context);
+
+		initialize(context, listener);
 		return dbAdapter;
 	}
 
@@ -314,6 +476,170 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 		return db;
 	}
 
+	/**
+	 * Gets the database object to run queries on. In write-ahead logging
+	 * mode this is the database object itself: queries made outside a
+	 * transaction already run on the framework's pooled read connections,
+	 * and those made inside one see its changes.
+	 * 
+	 * @return Database object.
+	 */
+	public SQLiteDatabase getReaderDatabase() {
+		return db;
+	}
+
+	/**
+	 * Runs a write-ahead log checkpoint, copying committed pages from the log
+	 * back into the database file.
+	 * 
+	 * @param mode
+	 *            One of CHECKPOINT_PASSIVE, CHECKPOINT_FULL or
+	 *            CHECKPOINT_RESTART.
+	 * @return True if the checkpoint completed, false if it was blocked by
+	 *         a reader or writer.
+	 */
+	public synchronized boolean checkpoint(String mode) {
+		Log.d(TAG, "checkpoint() -> " + mode);
+
+		if (!CHECKPOINT_PASSIVE.equals(mode) && !CHECKPOINT_FULL.equals(mode)
+				&& !CHECKPOINT_RESTART.equals(mode))
+			throw new IllegalArgumentException("Unknown checkpoint mode: "
+					+ mode);
+
+		Cursor cursor = db.rawQuery("PRAGMA wal_checkpoint(" + mode + ")",
+				null);
+		try {
+			if (cursor.moveToFirst()) {
+				lastCheckpoint = new int[] { cursor.getInt(0),
+						cursor.getInt(1), cursor.getInt(2) };
+			}
+		} finally {
+			cursor.close();
+		}
+
+		checkpointCount++;
+		lastCheckpointTime = System.currentTimeMillis();
+
+		Log.d(TAG, "Checkpointed " + lastCheckpoint[2] + " of "
+				+ lastCheckpoint[1] + " frames");
+
+		return lastCheckpoint[0] == 0;
+	}
+
+	/**
+	 * Sets the number of log pages after which SQLite checkpoints
+	 * automatically when a write transaction commits.
+	 * 
+	 * @param pages
+	 *            The threshold in pages, 0 or less to turn auto-checkpoints
+	 *            off and rely on checkpoint() alone.
+	 */
+	public void setAutoCheckpoint(int pages) {
+		Log.d(TAG, "setAutoCheckpoint() -> " + pages);
+
+		DatabaseUtils.longForQuery(db, "PRAGMA wal_autocheckpoint="
+				+ Math.max(pages, 0), null);
+	}
+
+	/**
+	 * Gets write-ahead log statistics.
+	 * 
+	 * @return The statistics.
+	 */
+	public synchronized WalStats getWalStats() {
+		Log.d(TAG, "getWalStats()");
+
+		String journalMode = DatabaseUtils.stringForQuery(db,
+				"PRAGMA journal_mode", null);
+		int autoCheckpoint = (int) DatabaseUtils.longForQuery(db,
+				"PRAGMA wal_autocheckpoint", null);
+
+		return new WalStats(journalMode, new File(dbFilePath + "-wal").length(),
+				autoCheckpoint, checkpointCount, lastCheckpointTime,
+				lastCheckpoint[1], lastCheckpoint[2], lastCheckpoint[0] != 0);
+	}
+
+	/**
+	 * Gets the performance profile applied to the database connections.
+	 * 
+	 * @return The profile.
+	 */
+	public synchronized DatabaseConfig getConfig() {
+		return config;
+	}
+
+	/**
+	 * Sets the performance profile and applies it to the open connections.
+	 * The page size of an existing database is not changed.
+	 * 
+	 * @param config
+	 *            The profile.
+	 */
+	public synchronized void setConfig(DatabaseConfig config) {
+		Log.d(TAG, "setConfig() -> " + config.getName());
+
+		this.config = config;
+
+		if (db != null && db.isOpen())
+			config.apply(db);
+	}
+
+	/**
+	 * Gets the database maintenance scheduler.
+	 * 
+	 * @return Database maintenance.
+	 */
+	public synchronized DatabaseMaintenance getMaintenance() {
+		if (maintenance == null)
+			maintenance = new DatabaseMaintenance(this);
+
+		return maintenance;
+	}
+
+	/**
+	 * Gets the database file.
+	 * 
+	 * @return Database file.
+	 */
+	public File getDatabaseFile() {
+		return new File(dbFilePath);
+	}
+
+	/**
+	 * Gets the profiler that times the statements run through the models.
+	 * 
+	 * @return Query profiler.
+	 */
+	public QueryProfiler getQueryProfiler() {
+		return QueryProfiler.getInstance();
+	}
+
+	/**
+	 * Writes the query profiler summary to a file next to the database.
+	 * 
+	 * @return The file written.
+	 * @throws IOException
+	 *             If the file can't be written.
+	 */
+	public File dumpQueryProfile() throws IOException {
+		File file = new File(new File(dbFilePath).getParentFile(),
+				QUERY_PROFILE_NAME);
+		QueryProfiler.getInstance().dump(file);
+
+		Log.i(TAG, "Query profile written to " + file);
+
+		return file;
+	}
+
+	/**
+	 * Gets the photo store.
+	 * 
+	 * @return Photo store.
+	 */
+	public PhotoStore getPhotoStore() {
+		return photoStore;
+	}
+
 	/**
 	 * Closes the database.
 	 */
@@ -322,6 +648,12 @@ public class DatabaseAdapter extends SQLiteOpenHelper {
 		Log.d(TAG, "close()");
 		
 		if (dbAdapter != null) {
+			if (maintenance != null)
+				maintenance.cancel();
+
+			ActiveRecord.releaseStatementCaches();
+			ActiveRecord.clearIdentityMaps();
+
 			db.close();
 			dbAdapter = null;
 		}
@@ -0,0 +1,51 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+/**
+ * Database callback interface.
+ *
+ * Receives the outcome of a database operation run on the
+ * <tt>DatabaseExecutor</tt>. Exactly one of the methods is called, on the
+ * main thread, unless the operation was cancelled first.
+ *
+ * @param <T>
+ *            The result type.
+ *
+ * @author krdavis
+ */
+public interface DatabaseCallback<T> {
+	/**
+	 * Called on the main thread once the operation has completed.
+	 *
+	 * @param result
+	 *            The operation's result.
+	 */
+	void onResult(T result);
+
+	/**
+	 * Called on the main thread if the operation threw an exception.
+	 *
+	 * @param e
+	 *            The exception, e.g. a RecordNotFoundException or an
+	 *            SQLException.
+	 */
+	void onError(Exception e);
+}
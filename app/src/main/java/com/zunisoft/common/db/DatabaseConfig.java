@@ -0,0 +1,396 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+/**
+ * Database performance profile.
+ *
+ * Holds the connection settings <tt>DatabaseAdapter</tt> applies when it
+ * opens a database: page size, page cache size, memory-mapped I/O size,
+ * synchronous level and temporary storage. Settings left at their unset
+ * value keep the SQLite defaults.
+ *
+ * The page size only takes effect when a database is created, since a
+ * database in write-ahead logging mode can't change it afterwards.
+ * Memory-mapped I/O needs SQLite 3.7.17 and is skipped on older versions.
+ *
+ * In write-ahead logging mode the framework keeps a pool of connections and
+ * runs pragmas on whichever one is free. The connection settings are
+ * therefore pinned to the primary connection, which runs every write and
+ * transaction, and the pooled read connections keep the SQLite defaults.
+ * The framework sets the synchronous level of every pooled connection
+ * itself, so the profile's level only applies outside write-ahead logging.
+ *
+ * @author krdavis
+ */
+public class DatabaseConfig {
+	// Tag used by logging APIs
+	private static final String TAG = "DatabaseConfig";
+
+	/** Leave a setting at its SQLite default */
+	public static final int UNSET = -1;
+
+	/** Don't sync at all, a power loss may corrupt the database */
+	public static final int SYNCHRONOUS_OFF = 0;
+
+	/** Sync at checkpoints, a power loss may lose the last commits */
+	public static final int SYNCHRONOUS_NORMAL = 1;
+
+	/** Sync at every commit */
+	public static final int SYNCHRONOUS_FULL = 2;
+
+	/** Keep temporary tables and indexes where SQLite was built to */
+	public static final int TEMP_STORE_DEFAULT = 0;
+
+	/** Keep temporary tables and indexes in files */
+	public static final int TEMP_STORE_FILE = 1;
+
+	/** Keep temporary tables and indexes in memory */
+	public static final int TEMP_STORE_MEMORY = 2;
+
+	/** Profile name of the SQLite defaults */
+	public static final String PROFILE_DEFAULT = "default";
+
+	/** Profile name of the low memory profile */
+	public static final String PROFILE_LOW_MEMORY = "low-memory";
+
+	/** Profile name of the balanced profile */
+	public static final String PROFILE_BALANCED = "balanced";
+
+	/** Profile name of the throughput profile */
+	public static final String PROFILE_THROUGHPUT = "throughput";
+
+	// Member variables
+	private final String name;
+	private int pageSize = UNSET;
+	private int cacheSizeKb = UNSET;
+	private long mmapSize = UNSET;
+	private int synchronous = UNSET;
+	private int tempStore = UNSET;
+
+	/**
+	 * Constructs a new <tt>DatabaseConfig</tt> object with every setting
+	 * unset.
+	 *
+	 * @param name
+	 *            The profile name, used in logs and benchmarks.
+	 */
+	public DatabaseConfig(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Creates a profile that keeps the SQLite defaults.
+	 *
+	 * @return The profile.
+	 */
+	public static DatabaseConfig defaults() {
+		return new DatabaseConfig(PROFILE_DEFAULT);
+	}
+
+	/**
+	 * Creates a profile for devices short on memory: a small page cache, no
+	 * memory-mapped I/O and temporary storage in files.
+	 *
+	 * @return The profile.
+	 */
+	public static DatabaseConfig lowMemory() {
+		DatabaseConfig config = new DatabaseConfig(PROFILE_LOW_MEMORY);
+		config.setPageSize(4096);
+		config.setCacheSizeKb(256);
+		config.setMmapSize(0);
+		config.setSynchronous(SYNCHRONOUS_NORMAL);
+		config.setTempStore(TEMP_STORE_FILE);
+		return config;
+	}
+
+	/**
+	 * Creates the profile the app uses by default: a moderate page cache and
+	 * write-ahead log syncs at checkpoints only.
+	 *
+	 * @return The profile.
+	 */
+	public static DatabaseConfig balanced() {
+		DatabaseConfig config = new DatabaseConfig(PROFILE_BALANCED);
+		config.setPageSize(4096);
+		config.setCacheSizeKb(1024);
+		config.setSynchronous(SYNCHRONOUS_NORMAL);
+		config.setTempStore(TEMP_STORE_DEFAULT);
+		return config;
+	}
+
+	/**
+	 * Creates a profile that trades memory for speed: a large page cache,
+	 * memory-mapped reads and temporary storage in memory.
+	 *
+	 * @return The profile.
+	 */
+	public static DatabaseConfig throughput() {
+		DatabaseConfig config = new DatabaseConfig(PROFILE_THROUGHPUT);
+		config.setPageSize(4096);
+		config.setCacheSizeKb(8192);
+		config.setMmapSize(64L * 1024 * 1024);
+		config.setSynchronous(SYNCHRONOUS_NORMAL);
+		config.setTempStore(TEMP_STORE_MEMORY);
+		return config;
+	}
+
+	/**
+	 * Gets a named profile.
+	 *
+	 * @param name
+	 *            One of the PROFILE_ names.
+	 * @return The profile.
+	 * @throws IllegalArgumentException
+	 *             If there is no profile with that name.
+	 */
+	public static DatabaseConfig forName(String name) {
+		if (PROFILE_DEFAULT.equals(name))
+			return defaults();
+		if (PROFILE_LOW_MEMORY.equals(name))
+			return lowMemory();
+		if (PROFILE_BALANCED.equals(name))
+			return balanced();
+		if (PROFILE_THROUGHPUT.equals(name))
+			return throughput();
+
+		throw new IllegalArgumentException("Unknown database profile: " + name);
+	}
+
+	/**
+	 * Applies the settings that must be in place before the first table is
+	 * created. Must be called on an empty database, outside a transaction,
+	 * before anything creates android_metadata; see
+	 * <tt>DatabaseAdapter.createDatabase()</tt>.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	public void applyOnCreate(SQLiteDatabase db) {
+		if (pageSize != UNSET)
+			db.execSQL("PRAGMA page_size = " + pageSize);
+	}
+
+	/**
+	 * Applies the per-connection settings. Read-only connections only get
+	 * the settings that affect reads. In write-ahead logging mode only the
+	 * primary connection gets them.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	public void apply(SQLiteDatabase db) {
+		Log.d(TAG, "apply() -> " + this);
+
+		boolean wal = db.isWriteAheadLoggingEnabled();
+
+		// Can't be changed inside a transaction, so not pinned
+		if (synchronous != UNSET && !db.isReadOnly() && !wal)
+			db.execSQL("PRAGMA synchronous = " + synchronous);
+
+		// A transaction holds the primary connection
+		if (wal)
+			db.beginTransaction();
+		try {
+			// A negative cache size is in kibibytes rather than pages
+			if (cacheSizeKb != UNSET)
+				db.execSQL("PRAGMA cache_size = -" + cacheSizeKb);
+
+			if (tempStore != UNSET) {
+				try {
+					db.execSQL("PRAGMA temp_store = " + tempStore);
+				} catch (SQLiteException e) {
+					// Refused while temporary tables are in use
+					Log.w(TAG, "Temporary storage not changed", e);
+				}
+			}
+
+			if (mmapSize != UNSET) {
+				try {
+					// Reports the size in effect, no row if not supported
+					DatabaseUtils.longForQuery(db, "PRAGMA mmap_size = "
+							+ mmapSize, null);
+				} catch (SQLiteException e) {
+					Log.w(TAG, "Memory-mapped I/O not available");
+				}
+			}
+
+			if (wal)
+				db.setTransactionSuccessful();
+		} finally {
+			if (wal)
+				db.endTransaction();
+		}
+	}
+
+	/**
+	 * Gets the profile name.
+	 *
+	 * @return The profile name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the page size used for new databases.
+	 *
+	 * @return The page size in bytes, or UNSET.
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Sets the page size used for new databases.
+	 *
+	 * @param pageSize
+	 *            A power of two between 512 and 65536, or UNSET.
+	 * @throws IllegalArgumentException
+	 *             If the page size is invalid.
+	 */
+	public void setPageSize(int pageSize) {
+		if (pageSize != UNSET && (pageSize < 512 || pageSize > 65536
+				|| (pageSize & (pageSize - 1)) != 0))
+			throw new IllegalArgumentException("Invalid page size: " + pageSize);
+
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Gets the page cache size of each connection.
+	 *
+	 * @return The cache size in kibibytes, or UNSET.
+	 */
+	public int getCacheSizeKb() {
+		return cacheSizeKb;
+	}
+
+	/**
+	 * Sets the page cache size of each connection.
+	 *
+	 * @param cacheSizeKb
+	 *            The cache size in kibibytes, or UNSET.
+	 * @throws IllegalArgumentException
+	 *             If the cache size is negative.
+	 */
+	public void setCacheSizeKb(int cacheSizeKb) {
+		if (cacheSizeKb != UNSET && cacheSizeKb < 0)
+			throw new IllegalArgumentException("Invalid cache size: " + cacheSizeKb);
+
+		this.cacheSizeKb = cacheSizeKb;
+	}
+
+	/**
+	 * Gets the memory-mapped I/O size of each connection.
+	 *
+	 * @return The size in bytes, 0 if off, or UNSET.
+	 */
+	public long getMmapSize() {
+		return mmapSize;
+	}
+
+	/**
+	 * Sets the memory-mapped I/O size of each connection.
+	 *
+	 * @param mmapSize
+	 *            The size in bytes, 0 to turn it off, or UNSET.
+	 * @throws IllegalArgumentException
+	 *             If the size is negative.
+	 */
+	public void setMmapSize(long mmapSize) {
+		if (mmapSize != UNSET && mmapSize < 0)
+			throw new IllegalArgumentException("Invalid mmap size: " + mmapSize);
+
+		this.mmapSize = mmapSize;
+	}
+
+	/**
+	 * Gets the synchronous level.
+	 *
+	 * @return One of the SYNCHRONOUS_ levels, or UNSET.
+	 */
+	public int getSynchronous() {
+		return synchronous;
+	}
+
+	/**
+	 * Sets the synchronous level.
+	 *
+	 * @param synchronous
+	 *            One of the SYNCHRONOUS_ levels, or UNSET.
+	 * @throws IllegalArgumentException
+	 *             If the level is unknown.
+	 */
+	public void setSynchronous(int synchronous) {
+		if (synchronous != UNSET && (synchronous < SYNCHRONOUS_OFF
+				|| synchronous > SYNCHRONOUS_FULL))
+			throw new IllegalArgumentException("Invalid synchronous level: "
+					+ synchronous);
+
+		this.synchronous = synchronous;
+	}
+
+	/**
+	 * Gets where temporary tables and indexes are kept.
+	 *
+	 * @return One of the TEMP_STORE_ values, or UNSET.
+	 */
+	public int getTempStore() {
+		return tempStore;
+	}
+
+	/**
+	 * Sets where temporary tables and indexes are kept.
+	 *
+	 * @param tempStore
+	 *            One of the TEMP_STORE_ values, or UNSET.
+	 * @throws IllegalArgumentException
+	 *             If the value is unknown.
+	 */
+	public void setTempStore(int tempStore) {
+		if (tempStore != UNSET && (tempStore < TEMP_STORE_DEFAULT
+				|| tempStore > TEMP_STORE_MEMORY))
+			throw new IllegalArgumentException("Invalid temp store: " + tempStore);
+
+		this.tempStore = tempStore;
+	}
+
+	/**
+	 * Returns a string representation of the profile.
+	 *
+	 * @return The profile.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(name);
+		sb.append(" pageSize=").append(pageSize);
+		sb.append(" cacheKb=").append(cacheSizeKb);
+		sb.append(" mmap=").append(mmapSize);
+		sb.append(" synchronous=").append(synchronous);
+		sb.append(" tempStore=").append(tempStore);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Database executor.
+ *
+ * Runs database operations on a small pool of background threads, so
+ * queries run in parallel on the pooled read connections while SQLite
+ * serializes the writes. Results are returned as futures and, if a callback is given,
+ * delivered to it on the main thread.
+ *
+ * Cancelling an operation suppresses its callback, even if it has already
+ * completed; a cursor it returned, or the cursors of a collection or map it
+ * returned, are closed instead of being delivered.
+ * Idle threads exit, so the executor costs nothing while the app doesn't
+ * use the database.
+ *
+ * @author krdavis
+ */
+public class DatabaseExecutor {
+	// Tag used by logging APIs
+	private static final String TAG = "DatabaseExecutor";
+
+	/** Default number of threads */
+	public static final int DEFAULT_THREADS = 3;
+
+	// Seconds an idle thread is kept
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	// Singleton instance
+	private static DatabaseExecutor instance;
+
+	// Member variables
+	private final ThreadPoolExecutor executor;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	/**
+	 * Constructs a new <tt>DatabaseExecutor</tt> object.
+	 *
+	 * @param threads
+	 *            Maximum number of operations run at the same time.
+	 */
+	public DatabaseExecutor(int threads) {
+		Log.d(TAG, "DatabaseExecutor()");
+
+		executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(final Runnable r) {
+						return new Thread(new Runnable() {
+							@Override
+							public void run() {
+								Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+								r.run();
+							}
+						}, "db-" + count.incrementAndGet());
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Gets the executor shared by the app.
+	 *
+	 * @return The executor.
+	 */
+	public static synchronized DatabaseExecutor getInstance() {
+		if (instance == null)
+			instance = new DatabaseExecutor(DEFAULT_THREADS);
+
+		return instance;
+	}
+
+	/**
+	 * Runs an operation in the background.
+	 *
+	 * @param operation
+	 *            The operation.
+	 * @param callback
+	 *            Callback receiving the outcome on the main thread, may be
+	 *            null.
+	 * @return The future of the operation's result.
+	 */
+	public <T> Future<T> submit(Callable<T> operation, DatabaseCallback<T> callback) {
+		Operation<T> future = new Operation<T>(operation, callback);
+		executor.execute(future);
+
+		return future;
+	}
+
+	/**
+	 * Checks whether the calling thread is the main thread.
+	 *
+	 * @return True on the main thread.
+	 */
+	public static boolean isMainThread() {
+		return Looper.myLooper() == Looper.getMainLooper();
+	}
+
+	/**
+	 * Closes a result that holds resources, when nobody will receive it.
+	 * Cursors held in a collection or in the values of a map are closed too.
+	 *
+	 * @param result
+	 *            The result, may be null.
+	 */
+	private static void release(Object result) {
+		if (result instanceof Cursor) {
+			((Cursor) result).close();
+		} else if (result instanceof Collection) {
+			for (Object element : (Collection<?>) result) {
+				release(element);
+			}
+		} else if (result instanceof Map) {
+			release(((Map<?, ?>) result).values());
+		}
+	}
+
+	/**
+	 * A submitted operation, which posts its outcome to the callback.
+	 */
+	private class Operation<T> extends FutureTask<T> {
+		private final DatabaseCallback<T> callback;
+		private volatile boolean cancelled;
+
+		Operation(Callable<T> operation, DatabaseCallback<T> callback) {
+			super(operation);
+			this.callback = callback;
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			cancelled = true;
+			return super.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		protected void set(T result) {
+			super.set(result);
+
+			// Completed, but cancelled before anyone could take the result
+			if (cancelled)
+				release(result);
+		}
+
+		@Override
+		protected void done() {
+			if (callback == null || isCancelled())
+				return;
+
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			});
+		}
+
+		private void deliver() {
+			T result;
+			try {
+				result = get();
+			} catch (ExecutionException e) {
+				if (cancelled)
+					return;
+
+				Throwable cause = e.getCause();
+				if (cause instanceof Error)
+					throw (Error) cause;
+
+				callback.onError(cause instanceof Exception ? (Exception) cause
+						: new RuntimeException(cause));
+				return;
+			} catch (CancellationException e) {
+				return;
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (cancelled) {
+				release(result);
+				return;
+			}
+
+			callback.onResult(result);
+		}
+	}
+}
@@ -0,0 +1,411 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database maintenance.
+ *
+ * Keeps the database file compact and its query planner statistics fresh.
+ * Once scheduled, maintenance starts after the main thread has been idle for
+ * a while and runs on a low priority background thread:
+ *
+ * - If the share of free pages passes a threshold, free pages are returned
+ * to the file system a few at a time with incremental vacuum. New databases
+ * are created with incremental auto-vacuum; a legacy database without it is
+ * only converted, with a full VACUUM, once a larger share of it is free.
+ * - If the row counts of the analyzed tables drifted from the stored
+ * statistics, or there are none, ANALYZE is run.
+ * - A passive checkpoint then moves the work into the database file.
+ *
+ * All maintenance runs on the read/write connection in short steps. Queries
+ * on the pooled read connections are never blocked by it, and saves only
+ * wait for the step in progress. Only the one-off conversion of a legacy
+ * database is a long step.
+ *
+ * @author krdavis
+ */
+public class DatabaseMaintenance {
+	// Tag used by logging APIs
+	private static final String TAG = "DatabaseMaintenance";
+
+	/** Default share of free pages that triggers a vacuum */
+	public static final float DEFAULT_FREE_RATIO_THRESHOLD = 0.1f;
+
+	/** Default share of free pages that justifies converting a legacy database */
+	public static final float DEFAULT_CONVERT_FREE_RATIO_THRESHOLD = 0.25f;
+
+	/** Default row count drift that triggers an ANALYZE */
+	public static final float DEFAULT_ANALYZE_DRIFT = 0.1f;
+
+	/** Default time the main thread must be idle before maintenance starts */
+	public static final long DEFAULT_IDLE_DELAY = 10 * 1000;
+
+	/** Incremental auto-vacuum mode */
+	public static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+	// Pages freed per vacuum step and the pause between steps
+	private static final int VACUUM_STEP_PAGES = 64;
+	private static final long VACUUM_STEP_PAUSE = 50;
+
+	// Member variables
+	private final DatabaseAdapter dbAdapter;
+	private final Handler mainHandler = new Handler(Looper.getMainLooper());
+	private final Object lock = new Object();
+	private float freeRatioThreshold = DEFAULT_FREE_RATIO_THRESHOLD;
+	private float convertFreeRatioThreshold = DEFAULT_CONVERT_FREE_RATIO_THRESHOLD;
+	private float analyzeDrift = DEFAULT_ANALYZE_DRIFT;
+	private long idleDelay = DEFAULT_IDLE_DELAY;
+	private boolean scheduled;
+	private volatile boolean cancelled;
+
+	// Restarts the idle timer every time the main thread goes idle
+	private final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+		@Override
+		public boolean queueIdle() {
+			if (!scheduled)
+				return false;
+
+			mainHandler.removeCallbacks(startWorker);
+			mainHandler.postDelayed(startWorker, idleDelay);
+			return true;
+		}
+	};
+
+	// Starts maintenance once the idle timer runs out
+	private final Runnable startWorker = new Runnable() {
+		@Override
+		public void run() {
+			scheduled = false;
+			Looper.myQueue().removeIdleHandler(idleHandler);
+
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+					try {
+						maintain();
+					} catch (RuntimeException e) {
+						// The database may have been closed under us
+						Log.e(TAG, "Database maintenance failed", e);
+					}
+				}
+			}, TAG).start();
+		}
+	};
+
+	/**
+	 * Constructs a new <tt>DatabaseMaintenance</tt> object.
+	 *
+	 * @param dbAdapter
+	 *            The database adapter.
+	 */
+	public DatabaseMaintenance(DatabaseAdapter dbAdapter) {
+		Log.d(TAG, "DatabaseMaintenance()");
+
+		this.dbAdapter = dbAdapter;
+	}
+
+	/**
+	 * Schedules maintenance to run once the main thread has been idle for
+	 * getIdleDelay() milliseconds. Does nothing if maintenance is already
+	 * scheduled.
+	 *
+	 * @throws IllegalStateException
+	 *             If not called on the main thread.
+	 */
+	public void schedule() {
+		Log.d(TAG, "schedule()");
+
+		if (Looper.myLooper() != Looper.getMainLooper())
+			throw new IllegalStateException(
+					"schedule() must be called on the main thread");
+
+		cancelled = false;
+		if (scheduled)
+			return;
+
+		scheduled = true;
+		Looper.myQueue().addIdleHandler(idleHandler);
+	}
+
+	/**
+	 * Cancels scheduled maintenance and stops a running one after its
+	 * current step. Doesn't wait for that step, so it is safe to call on
+	 * the main thread before the database is closed: the step keeps its
+	 * reference to the database until it ends, and the worker skips the
+	 * remaining steps.
+	 */
+	public void cancel() {
+		Log.d(TAG, "cancel()");
+
+		scheduled = false;
+		cancelled = true;
+		mainHandler.removeCallbacks(startWorker);
+	}
+
+	/**
+	 * Runs maintenance on the calling thread, logging the database metrics
+	 * before and after. Must not be called on the main thread.
+	 *
+	 * @return The metrics after maintenance, or null if the database is
+	 *         closed or maintenance was cancelled.
+	 */
+	public MaintenanceStats maintain() {
+		Log.d(TAG, "maintain()");
+
+		long start = SystemClock.elapsedRealtime();
+
+		MaintenanceStats before = getStats();
+		if (before == null)
+			return null;
+		Log.i(TAG, "Before maintenance: " + before);
+
+		if (before.getAutoVacuum() == AUTO_VACUUM_INCREMENTAL) {
+			if (before.getFreeRatio() >= freeRatioThreshold)
+				vacuum(before.getFreePageCount());
+		} else if (before.getFreeRatio() >= convertFreeRatioThreshold) {
+			enableIncrementalVacuum();
+		}
+
+		if (isStatisticsStale())
+			analyze();
+
+		if (cancelled)
+			return null;
+		dbAdapter.checkpoint(DatabaseAdapter.CHECKPOINT_PASSIVE);
+
+		MaintenanceStats after = getStats();
+		Log.i(TAG, "After maintenance (" + (SystemClock.elapsedRealtime() - start)
+				+ " ms): " + after);
+
+		return after;
+	}
+
+	/**
+	 * Gets the current size and free space of the database.
+	 *
+	 * @return The statistics, or null if the database is closed.
+	 */
+	public MaintenanceStats getStats() {
+		synchronized (lock) {
+			SQLiteDatabase db = getDatabase();
+			if (db == null)
+				return null;
+
+			File file = dbAdapter.getDatabaseFile();
+
+			return new MaintenanceStats(
+					DatabaseUtils.longForQuery(db, "PRAGMA page_size", null),
+					DatabaseUtils.longForQuery(db, "PRAGMA page_count", null),
+					DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null),
+					(int) DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null),
+					file.length(), new File(file.getPath() + "-wal").length());
+		}
+	}
+
+	/**
+	 * Switches a legacy database to incremental auto-vacuum. Takes a full
+	 * VACUUM, which rewrites the database once and holds the read/write
+	 * connection while it runs.
+	 */
+	private void enableIncrementalVacuum() {
+		synchronized (lock) {
+			SQLiteDatabase db = getDatabase();
+			if (db == null)
+				return;
+
+			Log.i(TAG, "Switching to incremental auto-vacuum");
+
+			db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			db.execSQL("VACUUM");
+		}
+	}
+
+	/**
+	 * Returns free pages to the file system a few at a time, pausing between
+	 * steps so saves don't wait long for the connection.
+	 *
+	 * @param pages
+	 *            Number of free pages to release.
+	 */
+	private void vacuum(long pages) {
+		Log.d(TAG, "vacuum() -> " + pages + " pages");
+
+		while (pages > 0) {
+			synchronized (lock) {
+				SQLiteDatabase db = getDatabase();
+				if (db == null)
+					return;
+
+				// The pragma frees its pages while its rows are stepped
+				Cursor cursor = db.rawQuery("PRAGMA incremental_vacuum("
+						+ VACUUM_STEP_PAGES + ")", null);
+				try {
+					cursor.getCount();
+				} finally {
+					cursor.close();
+				}
+			}
+
+			pages -= VACUUM_STEP_PAGES;
+			SystemClock.sleep(VACUUM_STEP_PAUSE);
+		}
+	}
+
+	/**
+	 * Checks whether the query planner statistics are missing, or the row
+	 * count of an analyzed table drifted from the one they were gathered
+	 * with.
+	 *
+	 * @return True if ANALYZE should be run, false otherwise.
+	 */
+	private boolean isStatisticsStale() {
+		synchronized (lock) {
+			SQLiteDatabase db = getDatabase();
+			if (db == null)
+				return false;
+
+			if (DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM sqlite_master"
+					+ " WHERE name = 'sqlite_stat1'", null) == 0)
+				return true;
+
+			// The first number of a table's stat is its row count
+			List<String> tables = new ArrayList<String>();
+			List<Long> counts = new ArrayList<Long>();
+			Cursor cursor = db.rawQuery("SELECT tbl, MAX(CAST(stat AS INTEGER))"
+					+ " FROM sqlite_stat1 GROUP BY tbl", null);
+			try {
+				if (cursor.getCount() == 0)
+					return true;
+
+				while (cursor.moveToNext()) {
+					tables.add(cursor.getString(0));
+					counts.add(cursor.getLong(1));
+				}
+			} finally {
+				cursor.close();
+			}
+
+			for (int i = 0; i < tables.size(); i++) {
+				long analyzed = counts.get(i);
+				long current = DatabaseUtils.longForQuery(db, "SELECT COUNT(*) FROM \""
+						+ tables.get(i).replace("\"", "\"\"") + "\"", null);
+
+				if (Math.abs(current - analyzed) > Math.max(analyzed * analyzeDrift, 1))
+					return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Gathers query planner statistics.
+	 */
+	private void analyze() {
+		synchronized (lock) {
+			SQLiteDatabase db = getDatabase();
+			if (db == null)
+				return;
+
+			Log.i(TAG, "Analyzing the database");
+
+			db.execSQL("ANALYZE");
+		}
+	}
+
+	/**
+	 * Gets the read/write database object, unless maintenance was cancelled.
+	 *
+	 * @return The database object, or null if maintenance was cancelled or
+	 *         the database is closed.
+	 */
+	private SQLiteDatabase getDatabase() {
+		if (cancelled)
+			return null;
+
+		SQLiteDatabase db = dbAdapter.getDatabase();
+		return db != null && db.isOpen() && !db.isReadOnly() ? db : null;
+	}
+
+	/**
+	 * Sets the share of free pages that triggers a vacuum.
+	 *
+	 * @param freeRatioThreshold
+	 *            The threshold between 0 and 1.
+	 */
+	public void setFreeRatioThreshold(float freeRatioThreshold) {
+		this.freeRatioThreshold = freeRatioThreshold;
+	}
+
+	/**
+	 * Sets the share of free pages that justifies converting a legacy
+	 * database to incremental auto-vacuum with a full VACUUM.
+	 *
+	 * @param convertFreeRatioThreshold
+	 *            The threshold between 0 and 1.
+	 */
+	public void setConvertFreeRatioThreshold(float convertFreeRatioThreshold) {
+		this.convertFreeRatioThreshold = convertFreeRatioThreshold;
+	}
+
+	/**
+	 * Sets the row count drift that triggers an ANALYZE.
+	 *
+	 * @param analyzeDrift
+	 *            The drift as a share of the analyzed row count.
+	 */
+	public void setAnalyzeDrift(float analyzeDrift) {
+		this.analyzeDrift = analyzeDrift;
+	}
+
+	/**
+	 * Gets the time the main thread must be idle before maintenance starts.
+	 *
+	 * @return The delay in milliseconds.
+	 */
+	public long getIdleDelay() {
+		return idleDelay;
+	}
+
+	/**
+	 * Sets the time the main thread must be idle before maintenance starts.
+	 *
+	 * @param idleDelay
+	 *            The delay in milliseconds.
+	 */
+	public void setIdleDelay(long idleDelay) {
+		this.idleDelay = idleDelay;
+	}
+}
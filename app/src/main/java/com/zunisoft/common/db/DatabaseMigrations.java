@@ -0,0 +1,778 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import com.zunisoft.common.photo.PhotoStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Database migrations.
+ *
+ * Holds the migration steps of the application database, one per version.
+ * Each step carries a literal copy of the schema of its version rather than
+ * the model's current constants, so old steps keep working as the model
+ * evolves.
+ *
+ * @author krdavis
+ */
+final class DatabaseMigrations {
+	// Tag used by logging APIs
+	private static final String TAG = "DatabaseMigrations";
+
+	/**
+	 * Constructs a new <tt>DatabaseMigrations</tt> object.
+	 */
+	private DatabaseMigrations() {
+	}
+
+	/**
+	 * Gets the migration steps.
+	 *
+	 * @param photoStore
+	 *            Photo store the version 1 photos are moved into.
+	 * @return The steps, in version order.
+	 */
+	static List<Migration> getMigrations(PhotoStore photoStore) {
+		List<Migration> migrations = new ArrayList<Migration>();
+
+		migrations.add(new PhotoStoreMigration(photoStore));
+		migrations.add(new SearchIndexMigration());
+		migrations.add(new EpochDateMigration());
+		migrations.add(new DescriptionIndexMigration());
+		migrations.add(new LookupTableMigration());
+		migrations.add(new SortIndexMigration());
+		migrations.add(new BarcodeIndexMigration(photoStore));
+		migrations.add(new CoveringIndexMigration());
+
+		return migrations;
+	}
+
+	/**
+	 * Installs the version 3 triggers that keep the full-text search index
+	 * in sync with the item table.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	private static void createSearchTriggersVersion3(SQLiteDatabase db) {
+		db.execSQL("CREATE TRIGGER item_fts_insert AFTER INSERT ON item "
+				+ "BEGIN INSERT INTO item_fts (docid, description, category, "
+				+ "location, notes, barcode) VALUES (new._id, "
+				+ "new.description, new.category, new.location, new.notes, "
+				+ "new.barcode); END;");
+		db.execSQL("CREATE TRIGGER item_fts_update AFTER UPDATE OF "
+				+ "description, category, location, notes, barcode ON item "
+				+ "BEGIN UPDATE item_fts SET description = new.description, "
+				+ "category = new.category, location = new.location, "
+				+ "notes = new.notes, barcode = new.barcode "
+				+ "WHERE docid = old._id; END;");
+		db.execSQL("CREATE TRIGGER item_fts_delete AFTER DELETE ON item "
+				+ "BEGIN DELETE FROM item_fts WHERE docid = old._id; END;");
+	}
+
+	/**
+	 * Installs the version 6 triggers, which look the category and location
+	 * names up for the full-text search index.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	private static void createSearchTriggersVersion6(SQLiteDatabase db) {
+		db.execSQL("CREATE TRIGGER item_fts_insert AFTER INSERT ON item "
+				+ "BEGIN INSERT INTO item_fts (docid, description, category, "
+				+ "location, notes, barcode) VALUES (new._id, "
+				+ "new.description, "
+				+ "(SELECT name FROM category WHERE _id = new.category_id), "
+				+ "(SELECT name FROM location WHERE _id = new.location_id), "
+				+ "new.notes, new.barcode); END;");
+		db.execSQL("CREATE TRIGGER item_fts_update AFTER UPDATE OF "
+				+ "description, category_id, location_id, notes, barcode ON item "
+				+ "BEGIN UPDATE item_fts SET description = new.description, "
+				+ "category = (SELECT name FROM category "
+				+ "WHERE _id = new.category_id), "
+				+ "location = (SELECT name FROM location "
+				+ "WHERE _id = new.location_id), "
+				+ "notes = new.notes, barcode = new.barcode "
+				+ "WHERE docid = old._id; END;");
+		db.execSQL("CREATE TRIGGER item_fts_delete AFTER DELETE ON item "
+				+ "BEGIN DELETE FROM item_fts WHERE docid = old._id; END;");
+	}
+
+	/**
+	 * Version 2: moves the item photo blobs out of the item table and into
+	 * the photo store, leaving a reference and the photo dimensions in each
+	 * row.
+	 *
+	 * The item table is rebuilt without the blob columns. Blobs are read one
+	 * row and one column at a time so a large photo never has to share a
+	 * cursor window with other rows. A chunk whose transaction rolls back
+	 * may leave unreferenced files in the store; they are harmless and the
+	 * chunk stores the same content under the same reference when it is
+	 * retried.
+	 */
+	private static class PhotoStoreMigration extends Migration {
+		// Member variables
+		private final PhotoStore photoStore;
+
+		/**
+		 * Constructs a new <tt>PhotoStoreMigration</tt> object.
+		 *
+		 * @param photoStore
+		 *            Photo store the photos are moved into.
+		 */
+		PhotoStoreMigration(PhotoStore photoStore) {
+			super(2, "Moving photos");
+
+			this.photoStore = photoStore;
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "PhotoStoreMigration.begin()");
+
+			// Version 2 item table, without the photo blobs
+			db.execSQL("CREATE TABLE item_v2 ("
+					+ "_id integer primary key autoincrement, "
+					+ "photo_thumbnail_ref text null, "
+					+ "photo_thumbnail_width integer not null default 0, "
+					+ "photo_thumbnail_height integer not null default 0, "
+					+ "photo_large_ref text null, "
+					+ "photo_large_width integer not null default 0, "
+					+ "photo_large_height integer not null default 0, "
+					+ "location text not null, "
+					+ "description text not null, "
+					+ "date_captured text not null, "
+					+ "date_purchased text null, "
+					+ "category text not null, "
+					+ "desirability integer not null default 0, "
+					+ "barcode text null, "
+					+ "notes text null"
+					+ ");");
+		}
+
+		@Override
+		public long estimateWork(SQLiteDatabase db) {
+			return countRows(db, "item");
+		}
+
+		@Override
+		public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+			long end = nextChunkEnd(db, "item", position, chunkSize);
+			if (end == DONE)
+				return DONE;
+
+			String[] range = new String[] { String.valueOf(position),
+					String.valueOf(end) };
+
+			// Copy the text columns
+			db.execSQL("INSERT INTO item_v2 (_id, location, description, "
+					+ "date_captured, date_purchased, category, desirability, "
+					+ "barcode, notes) SELECT _id, location, description, "
+					+ "date_captured, date_purchased, category, desirability, "
+					+ "barcode, notes FROM item WHERE _id > ? AND _id <= ?",
+					range);
+
+			// Move the photos
+			Cursor ids = db.rawQuery("SELECT _id FROM item WHERE _id > ? "
+					+ "AND _id <= ? AND (photo_thumbnail IS NOT NULL "
+					+ "OR photo_large IS NOT NULL)", range);
+			try {
+				while (ids.moveToNext()) {
+					long id = ids.getLong(0);
+
+					movePhotoBlob(db, id, "photo_thumbnail");
+					movePhotoBlob(db, id, "photo_large");
+				}
+			} finally {
+				ids.close();
+			}
+
+			return end;
+		}
+
+		@Override
+		public void finish(SQLiteDatabase db) {
+			Log.d(TAG, "PhotoStoreMigration.finish()");
+
+			// Swap the tables
+			db.execSQL("DROP TABLE item");
+			db.execSQL("ALTER TABLE item_v2 RENAME TO item");
+			db.execSQL("CREATE INDEX item_photo_thumbnail_ref_idx "
+					+ "ON item (photo_thumbnail_ref);");
+			db.execSQL("CREATE INDEX item_photo_large_ref_idx "
+					+ "ON item (photo_large_ref);");
+		}
+
+		/**
+		 * Moves a single version 1 photo blob into the photo store and
+		 * records its reference in the version 2 item table.
+		 *
+		 * @param db
+		 *            The database.
+		 * @param id
+		 *            The item row ID.
+		 * @param column
+		 *            The version 1 blob column, the version 2 columns are
+		 *            named after it.
+		 */
+		private void movePhotoBlob(SQLiteDatabase db, long id, String column) {
+			byte[] blob = null;
+
+			Cursor cursor = db.rawQuery("SELECT " + column + " FROM item "
+					+ "WHERE _id = ?", new String[] { String.valueOf(id) });
+			try {
+				if (cursor.moveToFirst())
+					blob = cursor.getBlob(0);
+			} finally {
+				cursor.close();
+			}
+
+			if (blob == null)
+				return;
+
+			int[] size = PhotoStore.decodeDimensions(blob);
+			String ref = photoStore.put(blob);
+			if (ref == null) {
+				throw new SQLiteException("Couldn't move " + column
+						+ " of item " + id + " into the photo store");
+			}
+
+			db.execSQL("UPDATE item_v2 SET " + column + "_ref = ?, " + column
+					+ "_width = ?, " + column + "_height = ? WHERE _id = ?",
+					new Object[] { ref, size != null ? size[0] : 0,
+							size != null ? size[1] : 0, id });
+		}
+	}
+
+	/**
+	 * Version 3: builds the full-text search index over the existing items
+	 * and installs the triggers that keep it in sync.
+	 */
+	private static class SearchIndexMigration extends Migration {
+		/**
+		 * Constructs a new <tt>SearchIndexMigration</tt> object.
+		 */
+		SearchIndexMigration() {
+			super(3, "Building search index");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "SearchIndexMigration.begin()");
+
+			db.execSQL("CREATE VIRTUAL TABLE item_fts USING fts4("
+					+ "description, category, location, notes, barcode);");
+		}
+
+		@Override
+		public long estimateWork(SQLiteDatabase db) {
+			return countRows(db, "item");
+		}
+
+		@Override
+		public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+			long end = nextChunkEnd(db, "item", position, chunkSize);
+			if (end == DONE)
+				return DONE;
+
+			db.execSQL("INSERT INTO item_fts (docid, description, category, "
+					+ "location, notes, barcode) SELECT _id, description, "
+					+ "category, location, notes, barcode FROM item "
+					+ "WHERE _id > ? AND _id <= ?", new Object[] { position,
+					end });
+
+			return end;
+		}
+
+		@Override
+		public void finish(SQLiteDatabase db) {
+			Log.d(TAG, "SearchIndexMigration.finish()");
+
+			createSearchTriggersVersion3(db);
+		}
+	}
+
+	/**
+	 * Version 4: converts the item dates from yyyy-MM-dd text to epoch
+	 * milliseconds and indexes them.
+	 *
+	 * Column types can't be altered in place, so the item table is rebuilt.
+	 * The text dates were written in local time, which strftime() converts
+	 * with the 'utc' modifier.
+	 */
+	private static class EpochDateMigration extends Migration {
+		/**
+		 * Constructs a new <tt>EpochDateMigration</tt> object.
+		 */
+		EpochDateMigration() {
+			super(4, "Converting dates");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "EpochDateMigration.begin()");
+
+			// Version 4 item table, with integer dates
+			db.execSQL("CREATE TABLE item_v4 ("
+					+ "_id integer primary key autoincrement, "
+					+ "photo_thumbnail_ref text null, "
+					+ "photo_thumbnail_width integer not null default 0, "
+					+ "photo_thumbnail_height integer not null default 0, "
+					+ "photo_large_ref text null, "
+					+ "photo_large_width integer not null default 0, "
+					+ "photo_large_height integer not null default 0, "
+					+ "location text not null, "
+					+ "description text not null, "
+					+ "date_captured integer not null, "
+					+ "date_purchased integer null, "
+					+ "category text not null, "
+					+ "desirability integer not null default 0, "
+					+ "barcode text null, "
+					+ "notes text null"
+					+ ");");
+		}
+
+		@Override
+		public long estimateWork(SQLiteDatabase db) {
+			return countRows(db, "item");
+		}
+
+		@Override
+		public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+			long end = nextChunkEnd(db, "item", position, chunkSize);
+			if (end == DONE)
+				return DONE;
+
+			db.execSQL("INSERT INTO item_v4 SELECT _id, photo_thumbnail_ref, "
+					+ "photo_thumbnail_width, photo_thumbnail_height, "
+					+ "photo_large_ref, photo_large_width, photo_large_height, "
+					+ "location, description, "
+					+ "COALESCE(CAST(strftime('%s', date_captured, 'utc') "
+					+ "AS INTEGER), 0) * 1000, "
+					+ "CAST(strftime('%s', date_purchased, 'utc') AS INTEGER) "
+					+ "* 1000, "
+					+ "category, desirability, barcode, notes FROM item "
+					+ "WHERE _id > ? AND _id <= ?", new Object[] { position,
+					end });
+
+			return end;
+		}
+
+		@Override
+		public void finish(SQLiteDatabase db) {
+			Log.d(TAG, "EpochDateMigration.finish()");
+
+			// Swap the tables, this drops the old indexes and triggers
+			db.execSQL("DROP TABLE item");
+			db.execSQL("ALTER TABLE item_v4 RENAME TO item");
+
+			db.execSQL("CREATE INDEX item_photo_thumbnail_ref_idx "
+					+ "ON item (photo_thumbnail_ref);");
+			db.execSQL("CREATE INDEX item_photo_large_ref_idx "
+					+ "ON item (photo_large_ref);");
+			db.execSQL("CREATE INDEX item_date_captured_idx "
+					+ "ON item (date_captured);");
+			db.execSQL("CREATE INDEX item_date_purchased_idx "
+					+ "ON item (date_purchased);");
+			createSearchTriggersVersion3(db);
+		}
+	}
+
+	/**
+	 * Version 5: indexes the item description so the item list can be paged
+	 * by description and row ID.
+	 */
+	private static class DescriptionIndexMigration extends Migration {
+		/**
+		 * Constructs a new <tt>DescriptionIndexMigration</tt> object.
+		 */
+		DescriptionIndexMigration() {
+			super(5, "Indexing descriptions");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "DescriptionIndexMigration.begin()");
+
+			db.execSQL("CREATE INDEX item_description_idx "
+					+ "ON item (description);");
+		}
+	}
+
+	/**
+	 * Version 6: moves the category and location names into lookup tables
+	 * and refers to them from the item table by ID. The item_view view joins
+	 * the names back in for queries.
+	 *
+	 * Each chunk adds the names its rows use before copying the rows, so the
+	 * ID lookups always succeed. The full-text search index already holds
+	 * the names and is left as is.
+	 */
+	private static class LookupTableMigration extends Migration {
+		/**
+		 * Constructs a new <tt>LookupTableMigration</tt> object.
+		 */
+		LookupTableMigration() {
+			super(6, "Normalizing categories and locations");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "LookupTableMigration.begin()");
+
+			db.execSQL("CREATE TABLE category ("
+					+ "_id integer primary key autoincrement, "
+					+ "name text not null unique"
+					+ ");");
+			db.execSQL("CREATE TABLE location ("
+					+ "_id integer primary key autoincrement, "
+					+ "name text not null unique"
+					+ ");");
+
+			// Version 6 item table, with lookup IDs
+			db.execSQL("CREATE TABLE item_v6 ("
+					+ "_id integer primary key autoincrement, "
+					+ "photo_thumbnail_ref text null, "
+					+ "photo_thumbnail_width integer not null default 0, "
+					+ "photo_thumbnail_height integer not null default 0, "
+					+ "photo_large_ref text null, "
+					+ "photo_large_width integer not null default 0, "
+					+ "photo_large_height integer not null default 0, "
+					+ "location_id integer not null references location, "
+					+ "description text not null, "
+					+ "date_captured integer not null, "
+					+ "date_purchased integer null, "
+					+ "category_id integer not null references category, "
+					+ "desirability integer not null default 0, "
+					+ "barcode text null, "
+					+ "notes text null"
+					+ ");");
+		}
+
+		@Override
+		public long estimateWork(SQLiteDatabase db) {
+			return countRows(db, "item");
+		}
+
+		@Override
+		public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+			long end = nextChunkEnd(db, "item", position, chunkSize);
+			if (end == DONE)
+				return DONE;
+
+			Object[] range = new Object[] { position, end };
+			db.execSQL("INSERT OR IGNORE INTO category (name) "
+					+ "SELECT DISTINCT category FROM item "
+					+ "WHERE _id > ? AND _id <= ?", range);
+			db.execSQL("INSERT OR IGNORE INTO location (name) "
+					+ "SELECT DISTINCT location FROM item "
+					+ "WHERE _id > ? AND _id <= ?", range);
+			db.execSQL("INSERT INTO item_v6 SELECT _id, photo_thumbnail_ref, "
+					+ "photo_thumbnail_width, photo_thumbnail_height, "
+					+ "photo_large_ref, photo_large_width, photo_large_height, "
+					+ "(SELECT _id FROM location WHERE name = item.location), "
+					+ "description, date_captured, date_purchased, "
+					+ "(SELECT _id FROM category WHERE name = item.category), "
+					+ "desirability, barcode, notes FROM item "
+					+ "WHERE _id > ? AND _id <= ?", range);
+
+			return end;
+		}
+
+		@Override
+		public void finish(SQLiteDatabase db) {
+			Log.d(TAG, "LookupTableMigration.finish()");
+
+			// Swap the tables, this drops the old indexes and triggers
+			db.execSQL("DROP TABLE item");
+			db.execSQL("ALTER TABLE item_v6 RENAME TO item");
+
+			db.execSQL("CREATE INDEX item_photo_thumbnail_ref_idx "
+					+ "ON item (photo_thumbnail_ref);");
+			db.execSQL("CREATE INDEX item_photo_large_ref_idx "
+					+ "ON item (photo_large_ref);");
+			db.execSQL("CREATE INDEX item_date_captured_idx "
+					+ "ON item (date_captured);");
+			db.execSQL("CREATE INDEX item_date_purchased_idx "
+					+ "ON item (date_purchased);");
+			db.execSQL("CREATE INDEX item_description_idx "
+					+ "ON item (description);");
+			db.execSQL("CREATE INDEX item_category_id_idx "
+					+ "ON item (category_id);");
+			db.execSQL("CREATE INDEX item_location_id_idx "
+					+ "ON item (location_id);");
+			db.execSQL("CREATE VIEW item_view AS SELECT item.*, "
+					+ "c.name AS category, l.name AS location FROM item "
+					+ "JOIN category c ON c._id = item.category_id "
+					+ "JOIN location l ON l._id = item.location_id;");
+			createSearchTriggersVersion6(db);
+		}
+	}
+
+	/**
+	 * Version 7: indexes the desirability and purchase sort orders of the
+	 * item list. The date of purchase index is replaced by one that also
+	 * holds the description, which serves date range queries just as well.
+	 */
+	private static class SortIndexMigration extends Migration {
+		/**
+		 * Constructs a new <tt>SortIndexMigration</tt> object.
+		 */
+		SortIndexMigration() {
+			super(7, "Indexing sort orders");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "SortIndexMigration.begin()");
+
+			db.execSQL("DROP INDEX IF EXISTS item_date_purchased_idx;");
+			db.execSQL("CREATE INDEX item_date_purchased_description_idx "
+					+ "ON item (date_purchased, description);");
+			db.execSQL("CREATE INDEX item_desirability_description_idx "
+					+ "ON item (desirability DESC, description);");
+		}
+	}
+
+	/**
+	 * Version 8: makes barcodes unique, so saving a scanned product again
+	 * can find and update the item it was first saved as.
+	 *
+	 * Blank barcodes become NULL, which the unique index allows any number
+	 * of times. Items sharing a barcode are merged into the first one saved,
+	 * the way saving a scan again updates it: each later scan's fields and
+	 * photos replace the earlier ones, its date of purchase only if it has
+	 * one, and its notes are added to the earlier notes. Rows are walked in
+	 * row ID order, so every chunk's older rows have already been normalized
+	 * and merged into.
+	 *
+	 * The photo references of merged rows are noted in a scratch table and
+	 * the photos no item refers to anymore are removed from the store when
+	 * the step finishes.
+	 */
+	private static class BarcodeIndexMigration extends Migration {
+		// Member variables
+		private final PhotoStore photoStore;
+
+		/**
+		 * Constructs a new <tt>BarcodeIndexMigration</tt> object.
+		 *
+		 * @param photoStore
+		 *            Photo store the merged rows' photos are removed from.
+		 */
+		BarcodeIndexMigration(PhotoStore photoStore) {
+			super(8, "Merging duplicate barcodes");
+
+			this.photoStore = photoStore;
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "BarcodeIndexMigration.begin()");
+
+			// Serves the duplicate lookups until the unique index replaces it
+			db.execSQL("CREATE INDEX item_barcode_dedup_idx "
+					+ "ON item (barcode);");
+			db.execSQL("CREATE TABLE item_merged_photo (ref text not null);");
+		}
+
+		@Override
+		public long estimateWork(SQLiteDatabase db) {
+			return countRows(db, "item");
+		}
+
+		@Override
+		public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+			long end = nextChunkEnd(db, "item", position, chunkSize);
+			if (end == DONE)
+				return DONE;
+
+			Object[] range = new Object[] { position, end };
+			db.execSQL("UPDATE item SET barcode = NULLIF(TRIM(barcode), '') "
+					+ "WHERE barcode IS NOT NULL AND _id > ? AND _id <= ?",
+					range);
+
+			// The chunk's duplicates and the first item saved with each
+			List<long[]> duplicates = new ArrayList<long[]>();
+			Cursor cursor = db.rawQuery("SELECT _id, (SELECT MIN(older._id) "
+					+ "FROM item AS older WHERE older.barcode = item.barcode) "
+					+ "FROM item WHERE _id > ? AND _id <= ? "
+					+ "AND barcode IS NOT NULL AND EXISTS (SELECT 1 FROM item "
+					+ "AS older WHERE older.barcode = item.barcode "
+					+ "AND older._id < item._id) ORDER BY _id",
+					new String[] { String.valueOf(position),
+							String.valueOf(end) });
+			try {
+				while (cursor.moveToNext()) {
+					duplicates.add(new long[] { cursor.getLong(0),
+							cursor.getLong(1) });
+				}
+			} finally {
+				cursor.close();
+			}
+
+			for (long[] duplicate : duplicates) {
+				merge(db, duplicate[0], duplicate[1]);
+			}
+
+			return end;
+		}
+
+		@Override
+		public void finish(SQLiteDatabase db) {
+			Log.d(TAG, "BarcodeIndexMigration.finish()");
+
+			db.execSQL("DROP INDEX item_barcode_dedup_idx;");
+			db.execSQL("CREATE UNIQUE INDEX item_barcode_idx "
+					+ "ON item (barcode);");
+
+			// Remove the merged photos no item refers to anymore. Should the
+			// step roll back, the photos removed were unreferenced already
+			Cursor cursor = db.rawQuery("SELECT DISTINCT ref "
+					+ "FROM item_merged_photo WHERE NOT EXISTS (SELECT 1 "
+					+ "FROM item WHERE photo_thumbnail_ref = ref "
+					+ "OR photo_large_ref = ref)", null);
+			try {
+				while (cursor.moveToNext()) {
+					photoStore.delete(cursor.getString(0));
+				}
+			} finally {
+				cursor.close();
+			}
+			db.execSQL("DROP TABLE item_merged_photo;");
+		}
+
+		/**
+		 * Merges a later scan into the first item saved with its barcode
+		 * and deletes it.
+		 *
+		 * @param db
+		 *            The database.
+		 * @param id
+		 *            Row ID of the later scan.
+		 * @param targetId
+		 *            Row ID of the first item saved with the barcode.
+		 */
+		private void merge(SQLiteDatabase db, long id, long targetId) {
+			// Both rows' photos, checked once every duplicate is merged
+			db.execSQL("INSERT INTO item_merged_photo (ref) "
+					+ "SELECT photo_thumbnail_ref FROM item WHERE _id IN (?, ?) "
+					+ "AND photo_thumbnail_ref IS NOT NULL UNION ALL "
+					+ "SELECT photo_large_ref FROM item WHERE _id IN (?, ?) "
+					+ "AND photo_large_ref IS NOT NULL",
+					new Object[] { id, targetId, id, targetId });
+
+			// The later scan's values win, the ones it lacks are kept
+			ContentValues values = new ContentValues();
+			String notes = null;
+			Cursor cursor = db.rawQuery("SELECT photo_thumbnail_ref, "
+					+ "photo_thumbnail_width, photo_thumbnail_height, "
+					+ "photo_large_ref, photo_large_width, photo_large_height, "
+					+ "location_id, description, date_captured, date_purchased, "
+					+ "category_id, desirability, notes FROM item WHERE _id = ?",
+					new String[] { String.valueOf(id) });
+			try {
+				if (!cursor.moveToFirst())
+					return;
+
+				if (!cursor.isNull(0)) {
+					values.put("photo_thumbnail_ref", cursor.getString(0));
+					values.put("photo_thumbnail_width", cursor.getInt(1));
+					values.put("photo_thumbnail_height", cursor.getInt(2));
+				}
+				if (!cursor.isNull(3)) {
+					values.put("photo_large_ref", cursor.getString(3));
+					values.put("photo_large_width", cursor.getInt(4));
+					values.put("photo_large_height", cursor.getInt(5));
+				}
+				values.put("location_id", cursor.getLong(6));
+				values.put("description", cursor.getString(7));
+				values.put("date_captured", cursor.getLong(8));
+				if (!cursor.isNull(9))
+					values.put("date_purchased", cursor.getLong(9));
+				values.put("category_id", cursor.getLong(10));
+				values.put("desirability", cursor.getInt(11));
+				notes = cursor.getString(12);
+			} finally {
+				cursor.close();
+			}
+
+			String[] targetArgs = new String[] { String.valueOf(targetId) };
+			db.update("item", values, "_id = ?", targetArgs);
+			if (notes != null && notes.length() > 0) {
+				db.execSQL("UPDATE item SET notes = CASE "
+						+ "WHEN NULLIF(notes, '') IS NULL THEN ?1 "
+						+ "WHEN notes = ?1 THEN notes "
+						+ "ELSE notes || '\n' || ?1 END WHERE _id = ?2",
+						new Object[] { notes, targetId });
+			}
+
+			db.execSQL("DELETE FROM item WHERE _id = ?", new Object[] { id });
+		}
+	}
+
+	/**
+	 * Version 9: rebuilds the sort indexes of the item list as covering
+	 * indexes. Each lists the row ID right after its sort columns, keeping
+	 * the index order, and then carries the other item list columns, so a
+	 * page is read without looking up the item rows.
+	 */
+	private static class CoveringIndexMigration extends Migration {
+		/**
+		 * Constructs a new <tt>CoveringIndexMigration</tt> object.
+		 */
+		CoveringIndexMigration() {
+			super(9, "Indexing the item list");
+		}
+
+		@Override
+		public void begin(SQLiteDatabase db) {
+			Log.d(TAG, "CoveringIndexMigration.begin()");
+
+			db.execSQL("DROP INDEX item_description_idx;");
+			db.execSQL("CREATE INDEX item_description_idx ON item "
+					+ "(description, _id, photo_thumbnail_ref, location_id, "
+					+ "category_id, date_captured, date_purchased, "
+					+ "desirability);");
+			db.execSQL("DROP INDEX item_date_captured_idx;");
+			db.execSQL("CREATE INDEX item_date_captured_idx ON item "
+					+ "(date_captured, _id, description, photo_thumbnail_ref, "
+					+ "location_id, category_id, date_purchased, "
+					+ "desirability);");
+			db.execSQL("DROP INDEX item_desirability_description_idx;");
+			db.execSQL("CREATE INDEX item_desirability_description_idx ON item "
+					+ "(desirability DESC, description, _id, "
+					+ "photo_thumbnail_ref, location_id, category_id, "
+					+ "date_captured, date_purchased);");
+			db.execSQL("DROP INDEX item_date_purchased_description_idx;");
+			db.execSQL("CREATE INDEX item_date_purchased_description_idx "
+					+ "ON item (date_purchased, description, _id, "
+					+ "photo_thumbnail_ref, location_id, category_id, "
+					+ "date_captured, desirability);");
+		}
+	}
+}
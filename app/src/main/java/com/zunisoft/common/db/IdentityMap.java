@@ -0,0 +1,177 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.util.Log;
+import android.util.LruCache;
+
+/**
+ * Identity map.
+ *
+ * Caches loaded records by row ID so loading a record that was loaded a
+ * moment ago doesn't have to query the database again. The map holds
+ * private copies of the records and is bounded by the records' estimated
+ * size in bytes, evicting the least recently used record when full.
+ *
+ * Every invalidation bumps a generation counter. Loads take the generation
+ * before they query and only cache their result if it is unchanged, so a
+ * load that raced with a write can't put stale data back into the map.
+ *
+ * @author krdavis
+ */
+public class IdentityMap {
+	// Tag used by logging APIs
+	private static final String TAG = "IdentityMap";
+
+	/** Default maximum size of the cached records, in bytes */
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	// Member variables
+	private final LruCache<Long, CachedActiveRecord> records;
+	private long generation;
+
+	/**
+	 * Constructs a new <tt>IdentityMap</tt> object.
+	 *
+	 * @param maxBytes
+	 *            Maximum size of the cached records, in bytes.
+	 */
+	public IdentityMap(int maxBytes) {
+		Log.d(TAG, "IdentityMap()");
+
+		records = new LruCache<Long, CachedActiveRecord>(maxBytes) {
+			@Override
+			protected int sizeOf(Long key, CachedActiveRecord value) {
+				return Math.max(value.sizeOf(), 1);
+			}
+		};
+	}
+
+	/**
+	 * Gets a cached record.
+	 *
+	 * @param id
+	 *            The row ID.
+	 * @return The cached copy, which must not be modified, or null on a
+	 *         miss.
+	 */
+	public CachedActiveRecord get(long id) {
+		return records.get(id);
+	}
+
+	/**
+	 * Caches a record, unless the map has been invalidated since the given
+	 * generation was taken.
+	 *
+	 * @param id
+	 *            The row ID.
+	 * @param record
+	 *            A copy of the record, owned by the map from now on.
+	 * @param generation
+	 *            The generation taken before the record was read.
+	 * @return True if the record was cached, false otherwise.
+	 */
+	public synchronized boolean put(long id, CachedActiveRecord record,
+			long generation) {
+		if (generation != this.generation)
+			return false;
+
+		records.put(id, record);
+		return true;
+	}
+
+	/**
+	 * Removes a record from the map.
+	 *
+	 * @param id
+	 *            The row ID.
+	 */
+	public synchronized void invalidate(long id) {
+		generation++;
+		records.remove(id);
+	}
+
+	/**
+	 * Removes all records from the map.
+	 */
+	public synchronized void clear() {
+		generation++;
+		records.evictAll();
+	}
+
+	/**
+	 * Gets the current generation, to be passed to put().
+	 *
+	 * @return The generation.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * Gets the number of lookups that found a record.
+	 *
+	 * @return The hit count.
+	 */
+	public int getHitCount() {
+		return records.hitCount();
+	}
+
+	/**
+	 * Gets the number of lookups that didn't find a record.
+	 *
+	 * @return The miss count.
+	 */
+	public int getMissCount() {
+		return records.missCount();
+	}
+
+	/**
+	 * Gets the share of lookups that found a record.
+	 *
+	 * @return The hit ratio between 0 and 1, 0 if there were no lookups.
+	 */
+	public float getHitRatio() {
+		int hits = records.hitCount();
+		int lookups = hits + records.missCount();
+
+		return lookups > 0 ? (float) hits / lookups : 0;
+	}
+
+	/**
+	 * Gets the estimated size of the cached records.
+	 *
+	 * @return The size in bytes.
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * Returns a string representation of the map statistics.
+	 *
+	 * @return The statistics.
+	 */
+	@Override
+	public String toString() {
+		return "bytes=" + records.size() + "/" + records.maxSize() + " hits="
+				+ records.hitCount() + " misses=" + records.missCount()
+				+ " evictions=" + records.evictionCount();
+	}
+}
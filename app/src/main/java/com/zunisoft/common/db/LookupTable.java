@@ -0,0 +1,126 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+
+/**
+ * Lookup table.
+ *
+ * Dictionary of distinct text values, such as category names, each stored
+ * once under an integer ID. Tables refer to the values by ID, so rows stay
+ * small and filtering on a value is an integer index seek. Names are looked
+ * up through the unique index on the name column.
+ *
+ * Values are added on first use and never removed, so an ID stays valid
+ * for the life of the database.
+ *
+ * @author krdavis
+ */
+public class LookupTable {
+	/** Row ID column */
+	public static final String COL_ROW_ID = "_id";
+
+	/** Value column */
+	public static final String COL_NAME = "name";
+
+	/** Returned by findId() for a value that isn't in the table */
+	public static final long NOT_FOUND = -1;
+
+	// Member variables
+	private final String table;
+	private final String sqlFindId;
+	private final String sqlInsert;
+
+	/**
+	 * Constructs a new <tt>LookupTable</tt> object.
+	 *
+	 * @param table
+	 *            The table name.
+	 */
+	public LookupTable(String table) {
+		this.table = table;
+		this.sqlFindId = "SELECT " + COL_ROW_ID + " FROM " + table + " WHERE "
+				+ COL_NAME + " = ?";
+		this.sqlInsert = "INSERT INTO " + table + " (" + COL_NAME
+				+ ") VALUES (?)";
+	}
+
+	/**
+	 * Gets the table name.
+	 *
+	 * @return The table name.
+	 */
+	public String getTableName() {
+		return table;
+	}
+
+	/**
+	 * Gets the DDL create statement of the table.
+	 *
+	 * @return The create statement.
+	 */
+	public String getCreateSql() {
+		return "CREATE TABLE " + table + " ("
+				+ COL_ROW_ID + " integer primary key autoincrement, "
+				+ COL_NAME + " text not null unique"
+				+ ");";
+	}
+
+	/**
+	 * Gets the ID of a value, adding the value if it isn't in the table yet.
+	 * Runs on the cache's read/write database object, so it takes part in
+	 * the caller's transaction.
+	 *
+	 * @param cache
+	 *            Statement cache of the read/write database object.
+	 * @param name
+	 *            The value.
+	 * @return The value's ID, or -1 if it could not be added.
+	 */
+	public long getId(StatementCache cache, String name) {
+		try {
+			return cache.simpleQueryForLong(sqlFindId, new Object[] { name });
+		} catch (SQLiteDoneException e) {
+			return cache.executeInsert(sqlInsert, new Object[] { name });
+		}
+	}
+
+	/**
+	 * Finds the ID of a value without adding it.
+	 *
+	 * @param db
+	 *            The database object.
+	 * @param name
+	 *            The value.
+	 * @return The value's ID, or NOT_FOUND.
+	 */
+	public long findId(SQLiteDatabase db, String name) {
+		try {
+			return Query.from(table)
+					.select(COL_ROW_ID)
+					.where(COL_NAME + " = ?", name)
+					.longForQuery(db);
+		} catch (SQLiteDoneException e) {
+			return NOT_FOUND;
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+/**
+ * Database maintenance statistics.
+ *
+ * Snapshot of the database file's size and free space, as reported by
+ * <tt>DatabaseMaintenance.getStats()</tt>.
+ *
+ * @author krdavis
+ */
+public class MaintenanceStats {
+	// Page state
+	private long pageSize;
+	private long pageCount;
+	private long freePageCount;
+	private int autoVacuum;
+
+	// File state
+	private long fileSize;
+	private long walFileSize;
+
+	/**
+	 * Constructs a new <tt>MaintenanceStats</tt> object.
+	 *
+	 * @param pageSize
+	 *            The page size in bytes.
+	 * @param pageCount
+	 *            Number of pages in the database.
+	 * @param freePageCount
+	 *            Number of unused pages in the database.
+	 * @param autoVacuum
+	 *            The auto-vacuum mode, 0 for none, 1 for full and 2 for
+	 *            incremental.
+	 * @param fileSize
+	 *            Size of the database file in bytes.
+	 * @param walFileSize
+	 *            Size of the write-ahead log file in bytes.
+	 */
+	public MaintenanceStats(long pageSize, long pageCount, long freePageCount,
+			int autoVacuum, long fileSize, long walFileSize) {
+		this.pageSize = pageSize;
+		this.pageCount = pageCount;
+		this.freePageCount = freePageCount;
+		this.autoVacuum = autoVacuum;
+		this.fileSize = fileSize;
+		this.walFileSize = walFileSize;
+	}
+
+	/**
+	 * Gets the page size.
+	 *
+	 * @return The page size in bytes.
+	 */
+	public long getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Gets the number of pages in the database.
+	 *
+	 * @return The page count.
+	 */
+	public long getPageCount() {
+		return pageCount;
+	}
+
+	/**
+	 * Gets the number of unused pages in the database.
+	 *
+	 * @return The free page count.
+	 */
+	public long getFreePageCount() {
+		return freePageCount;
+	}
+
+	/**
+	 * Gets the share of the database's pages that are unused.
+	 *
+	 * @return The free page ratio between 0 and 1.
+	 */
+	public float getFreeRatio() {
+		return pageCount > 0 ? (float) freePageCount / pageCount : 0;
+	}
+
+	/**
+	 * Gets the auto-vacuum mode.
+	 *
+	 * @return 0 for none, 1 for full and 2 for incremental.
+	 */
+	public int getAutoVacuum() {
+		return autoVacuum;
+	}
+
+	/**
+	 * Gets the size of the database file.
+	 *
+	 * @return The file size in bytes.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Gets the size of the write-ahead log file.
+	 *
+	 * @return The log file size in bytes.
+	 */
+	public long getWalFileSize() {
+		return walFileSize;
+	}
+
+	/**
+	 * Returns a string representation of the statistics.
+	 *
+	 * @return The statistics.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("fileBytes=").append(fileSize);
+		sb.append(" walBytes=").append(walFileSize);
+		sb.append(" pages=").append(pageCount);
+		sb.append(" freePages=").append(freePageCount);
+		sb.append(" freeRatio=").append(Math.round(getFreeRatio() * 100))
+				.append("%");
+		sb.append(" autoVacuum=").append(autoVacuum);
+		return sb.toString();
+	}
+}
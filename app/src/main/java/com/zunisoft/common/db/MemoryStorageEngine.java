@@ -0,0 +1,593 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory storage engine.
+ *
+ * Keeps every table in memory, with no database behind it, so models can be
+ * exercised and benchmarked without SQLite. Rows are kept by row ID and
+ * unique columns are indexed by value; sorting and searching scan the
+ * table. Lookup columns are stored as plain values and views don't apply.
+ *
+ * Row IDs are never reused, like those of an autoincrement key. A
+ * transaction holds the engine's lock until it ends, so other threads wait
+ * for it like they would for a database write lock, and is rolled back by
+ * restoring a copy of the tables taken when it began. Nothing is kept once
+ * the engine is discarded.
+ *
+ * @author krdavis
+ */
+public class MemoryStorageEngine implements StorageEngine {
+	// Member variables
+	private final ReentrantLock lock = new ReentrantLock();
+	private Map<String, Table> tables = new HashMap<String, Table>();
+	private final Map<String, StorageTable> layouts = new HashMap<String, StorageTable>();
+	private Map<String, Table> snapshot;
+	private int transactionDepth;
+	private boolean transactionFailed;
+	private boolean levelSuccessful;
+
+	/**
+	 * Constructs a new <tt>MemoryStorageEngine</tt> object.
+	 */
+	public MemoryStorageEngine() {
+	}
+
+	@Override
+	public void register(StorageTable table) {
+		lock.lock();
+		try {
+			if (layouts.containsKey(table.getName()))
+				return;
+
+			layouts.put(table.getName(), table);
+			tables.put(table.getName(), new Table(table.getUniqueColumns()));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long insert(String table, String[] columns, Object[] values) {
+		lock.lock();
+		try {
+			Table t = table(table);
+			long id = t.nextId;
+
+			HashMap<String, Object> row = new HashMap<String, Object>();
+			for (int i = 0; i < columns.length; i++) {
+				row.put(columns[i], normalize(values[i]));
+			}
+			row.put(COL_ROW_ID, id);
+
+			t.checkUnique(row, id);
+			t.rows.put(id, row);
+			t.index(row, id);
+			t.nextId++;
+
+			return id;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int update(String table, long id, String[] columns, Object[] values) {
+		lock.lock();
+		try {
+			Table t = table(table);
+			HashMap<String, Object> row = t.rows.get(id);
+			if (row == null)
+				return 0;
+
+			HashMap<String, Object> updated = new HashMap<String, Object>(row);
+			for (int i = 0; i < columns.length; i++) {
+				updated.put(columns[i], normalize(values[i]));
+			}
+
+			t.checkUnique(updated, id);
+			t.unindex(row);
+			t.rows.put(id, updated);
+			t.index(updated, id);
+
+			return 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int delete(String table, long id) {
+		lock.lock();
+		try {
+			Table t = table(table);
+			HashMap<String, Object> row = t.rows.remove(id);
+			if (row == null)
+				return 0;
+
+			t.unindex(row);
+			return 1;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Cursor load(String table, long id, String[] columns) {
+		lock.lock();
+		try {
+			MatrixCursor cursor = new MatrixCursor(columns, 1);
+
+			HashMap<String, Object> row = table(table).rows.get(id);
+			if (row != null)
+				cursor.addRow(project(row, columns));
+
+			return cursor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Cursor findPage(String table, String[] columns, SortOrder order,
+			Object[] afterKey, Object[] lastKey, int limit) {
+		lock.lock();
+		try {
+			afterKey = normalize(afterKey);
+			lastKey = normalize(lastKey);
+
+			String[] keyColumns = order.getKeyColumns();
+			List<Keyed> keyed = new ArrayList<Keyed>();
+
+			for (HashMap<String, Object> row : table(table).rows.values()) {
+				Object[] key = project(row, keyColumns);
+
+				if (afterKey != null && order.compare(key, afterKey) <= 0)
+					continue;
+				if (lastKey != null && order.compare(key, lastKey) > 0)
+					continue;
+
+				keyed.add(new Keyed(key, 0, row));
+			}
+
+			Collections.sort(keyed, comparator(order));
+
+			int count = limit > 0 ? Math.min(limit, keyed.size()) : keyed.size();
+			MatrixCursor cursor = new MatrixCursor(columns, count);
+			for (int i = 0; i < count; i++) {
+				cursor.addRow(project(keyed.get(i).row, columns));
+			}
+
+			return cursor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Searches the table's search columns. Column values are split into
+	 * words the way search text is, and a search word matches any word it
+	 * is a prefix of.
+	 */
+	@Override
+	public Cursor search(String table, String[] columns, String searchText,
+			SortOrder order) {
+		lock.lock();
+		try {
+			StorageTable layout = layouts.get(table);
+			List<String> terms = StorageTable.searchTerms(searchText);
+
+			String[] select = new String[columns.length + 1];
+			System.arraycopy(columns, 0, select, 0, columns.length);
+			select[columns.length] = COL_RANK;
+
+			MatrixCursor cursor = new MatrixCursor(select);
+			if (layout == null || terms.isEmpty())
+				return cursor;
+
+			String[] keyColumns = order.getKeyColumns();
+			List<Keyed> keyed = new ArrayList<Keyed>();
+
+			for (HashMap<String, Object> row : table(table).rows.values()) {
+				int rank = rank(layout, row, terms);
+				if (rank >= 0)
+					keyed.add(new Keyed(project(row, keyColumns), rank, row));
+			}
+
+			Collections.sort(keyed, comparator(order));
+
+			for (Keyed k : keyed) {
+				Object[] values = new Object[select.length];
+				System.arraycopy(project(k.row, columns), 0, values, 0, columns.length);
+				values[columns.length] = (long) k.rank;
+				cursor.addRow(values);
+			}
+
+			return cursor;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long count(String table) {
+		lock.lock();
+		try {
+			return table(table).rows.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long countMatching(String table, String[] columns, Object value) {
+		lock.lock();
+		try {
+			value = normalize(value);
+			long count = 0;
+
+			for (HashMap<String, Object> row : table(table).rows.values()) {
+				for (String column : columns) {
+					if (value.equals(row.get(column))) {
+						count++;
+						break;
+					}
+				}
+			}
+
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long findId(String table, String column, Object value) {
+		lock.lock();
+		try {
+			Table t = table(table);
+			value = normalize(value);
+
+			// A seek on unique columns, a scan on the others
+			HashMap<Object, Long> index = t.uniqueIndexes.get(column);
+			if (index != null) {
+				Long id = index.get(value);
+				return id != null ? id : NOT_FOUND;
+			}
+
+			for (HashMap<String, Object> row : t.rows.values()) {
+				if (value.equals(row.get(column)))
+					return (Long) row.get(COL_ROW_ID);
+			}
+
+			return NOT_FOUND;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Cursor query(Query query) {
+		throw new UnsupportedOperationException("SQL queries need a database: "
+				+ query);
+	}
+
+	@Override
+	public List<String> explain(Query query) {
+		throw new UnsupportedOperationException("Query plans need a database: "
+				+ query);
+	}
+
+	@Override
+	public void beginTransaction() {
+		lock.lock();
+
+		if (transactionDepth == 0) {
+			snapshot = new HashMap<String, Table>();
+			for (Map.Entry<String, Table> entry : tables.entrySet()) {
+				snapshot.put(entry.getKey(), entry.getValue().copy());
+			}
+			transactionFailed = false;
+		}
+
+		transactionDepth++;
+		levelSuccessful = false;
+	}
+
+	@Override
+	public void setTransactionSuccessful() {
+		if (!inTransaction())
+			throw new IllegalStateException("No transaction in progress");
+
+		levelSuccessful = true;
+	}
+
+	@Override
+	public void endTransaction() {
+		if (!inTransaction())
+			throw new IllegalStateException("No transaction in progress");
+
+		try {
+			// Like SQLite, one failed level rolls back the whole transaction
+			if (!levelSuccessful)
+				transactionFailed = true;
+			levelSuccessful = false;
+
+			if (--transactionDepth == 0) {
+				if (transactionFailed)
+					tables = snapshot;
+				snapshot = null;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean inTransaction() {
+		return lock.isHeldByCurrentThread() && transactionDepth > 0;
+	}
+
+	/**
+	 * Gets a registered table.
+	 *
+	 * @param name
+	 *            The table name.
+	 * @return The table.
+	 * @throws IllegalArgumentException
+	 *             If the table wasn't registered.
+	 */
+	private Table table(String name) {
+		Table table = tables.get(name);
+		if (table == null)
+			throw new IllegalArgumentException("Unknown table: " + name);
+
+		return table;
+	}
+
+	/**
+	 * Ranks a row against search words.
+	 *
+	 * @param layout
+	 *            The table layout.
+	 * @param row
+	 *            The row.
+	 * @param terms
+	 *            The search words.
+	 * @return The index of the first ranked column matching every word, the
+	 *         number of ranked columns if the words match across the search
+	 *         columns, or -1 if the row doesn't match.
+	 */
+	private static int rank(StorageTable layout, HashMap<String, Object> row,
+			List<String> terms) {
+		String[] searchColumns = layout.getSearchColumns();
+		List<List<String>> words = new ArrayList<List<String>>(searchColumns.length);
+		for (String column : searchColumns) {
+			Object value = row.get(column);
+			words.add(StorageTable.searchTerms(value != null ? value.toString() : null));
+		}
+
+		for (int i = 0; i < layout.getRankedColumns(); i++) {
+			if (matchesAll(terms, words.subList(i, i + 1)))
+				return i;
+		}
+
+		return matchesAll(terms, words) ? layout.getRankedColumns() : -1;
+	}
+
+	/**
+	 * Checks whether every search word is a prefix of some column word.
+	 *
+	 * @param terms
+	 *            The search words.
+	 * @param words
+	 *            The words of each column.
+	 * @return True if all search words match.
+	 */
+	private static boolean matchesAll(List<String> terms, List<List<String>> words) {
+		for (String term : terms) {
+			boolean found = false;
+
+			for (int i = 0; i < words.size() && !found; i++) {
+				for (String word : words.get(i)) {
+					if (word.startsWith(term)) {
+						found = true;
+						break;
+					}
+				}
+			}
+
+			if (!found)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets a comparator ordering rows by rank, then by their key.
+	 *
+	 * @param order
+	 *            The sort order of the keys.
+	 * @return The comparator.
+	 */
+	private static Comparator<Keyed> comparator(final SortOrder order) {
+		return new Comparator<Keyed>() {
+			@Override
+			public int compare(Keyed a, Keyed b) {
+				if (a.rank != b.rank)
+					return a.rank < b.rank ? -1 : 1;
+
+				return order.compare(a.key, b.key);
+			}
+		};
+	}
+
+	/**
+	 * Reads some columns of a row.
+	 *
+	 * @param row
+	 *            The row.
+	 * @param columns
+	 *            The column names.
+	 * @return The values, null for columns the row doesn't have.
+	 */
+	private static Object[] project(HashMap<String, Object> row, String[] columns) {
+		Object[] values = new Object[columns.length];
+		for (int i = 0; i < columns.length; i++) {
+			values[i] = row.get(columns[i]);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Normalizes the values of a key.
+	 *
+	 * @param key
+	 *            The key, may be null.
+	 * @return The normalized key.
+	 */
+	private static Object[] normalize(Object[] key) {
+		if (key == null)
+			return null;
+
+		Object[] values = new Object[key.length];
+		for (int i = 0; i < key.length; i++) {
+			values[i] = normalize(key[i]);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Converts a value to the type SQLite would return it as, so values
+	 * compare the same way whatever type they were written with.
+	 *
+	 * @param value
+	 *            The value, may be null.
+	 * @return Long for integral numbers and booleans, Double for other
+	 *         numbers, the value itself otherwise.
+	 */
+	private static Object normalize(Object value) {
+		if (value instanceof Double || value instanceof Float)
+			return ((Number) value).doubleValue();
+		if (value instanceof Number)
+			return ((Number) value).longValue();
+		if (value instanceof Boolean)
+			return (Boolean) value ? 1L : 0L;
+
+		return value;
+	}
+
+	/**
+	 * A row with its sort key and search rank.
+	 */
+	private static class Keyed {
+		final Object[] key;
+		final int rank;
+		final HashMap<String, Object> row;
+
+		Keyed(Object[] key, int rank, HashMap<String, Object> row) {
+			this.key = key;
+			this.rank = rank;
+			this.row = row;
+		}
+	}
+
+	/**
+	 * The rows of a table and the indexes of its unique columns. Rows are
+	 * never modified in place, so a copy can share them.
+	 */
+	private static class Table {
+		final TreeMap<Long, HashMap<String, Object>> rows;
+		final HashMap<String, HashMap<Object, Long>> uniqueIndexes;
+		long nextId = 1;
+
+		Table(List<String> uniqueColumns) {
+			rows = new TreeMap<Long, HashMap<String, Object>>();
+			uniqueIndexes = new HashMap<String, HashMap<Object, Long>>();
+			for (String column : uniqueColumns) {
+				uniqueIndexes.put(column, new HashMap<Object, Long>());
+			}
+		}
+
+		Table(Table table) {
+			rows = new TreeMap<Long, HashMap<String, Object>>(table.rows);
+			uniqueIndexes = new HashMap<String, HashMap<Object, Long>>();
+			for (Map.Entry<String, HashMap<Object, Long>> entry
+					: table.uniqueIndexes.entrySet()) {
+				uniqueIndexes.put(entry.getKey(),
+						new HashMap<Object, Long>(entry.getValue()));
+			}
+			nextId = table.nextId;
+		}
+
+		Table copy() {
+			return new Table(this);
+		}
+
+		void checkUnique(HashMap<String, Object> row, long id) {
+			for (Map.Entry<String, HashMap<Object, Long>> entry
+					: uniqueIndexes.entrySet()) {
+				Object value = row.get(entry.getKey());
+				if (value == null)
+					continue;
+
+				Long existing = entry.getValue().get(value);
+				if (existing != null && existing != id)
+					throw new SQLiteConstraintException("UNIQUE constraint failed: "
+							+ entry.getKey());
+			}
+		}
+
+		void index(HashMap<String, Object> row, long id) {
+			for (Map.Entry<String, HashMap<Object, Long>> entry
+					: uniqueIndexes.entrySet()) {
+				Object value = row.get(entry.getKey());
+				if (value != null)
+					entry.getValue().put(value, id);
+			}
+		}
+
+		void unindex(HashMap<String, Object> row) {
+			for (Map.Entry<String, HashMap<Object, Long>> entry
+					: uniqueIndexes.entrySet()) {
+				Object value = row.get(entry.getKey());
+				if (value != null)
+					entry.getValue().remove(value);
+			}
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Schema migration step.
+ *
+ * A step upgrades the database to its version in three phases, run by the
+ * <tt>SchemaMigrator</tt>: begin() once, migrate() repeatedly for one chunk
+ * of data at a time, then finish() once. Every call runs in its own
+ * transaction together with the bookkeeping that records the step's
+ * position, so a step that is interrupted resumes from its last committed
+ * chunk. Steps that only change the schema can leave migrate() alone.
+ *
+ * @author krdavis
+ */
+public abstract class Migration {
+	/** Position returned by migrate() once all data has been migrated */
+	public static final long DONE = -1;
+
+	// Member variables
+	private final int version;
+	private final String name;
+
+	/**
+	 * Constructs a new <tt>Migration</tt> object.
+	 *
+	 * @param version
+	 *            The database version the step upgrades to.
+	 * @param name
+	 *            Short description of the step, used in logs and progress
+	 *            messages.
+	 */
+	protected Migration(int version, String name) {
+		this.version = version;
+		this.name = name;
+	}
+
+	/**
+	 * Prepares the step, e.g. by creating new tables. Called once before the
+	 * first chunk.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	public void begin(SQLiteDatabase db) {
+	}
+
+	/**
+	 * Estimates the amount of work the step has to do, in the same units as
+	 * the chunk size. Called once, right after begin().
+	 *
+	 * @param db
+	 *            The database.
+	 * @return The estimated number of units, e.g. rows to migrate.
+	 */
+	public long estimateWork(SQLiteDatabase db) {
+		return 0;
+	}
+
+	/**
+	 * Migrates the next chunk of data.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param position
+	 *            Position returned by the previous call, 0 on the first call.
+	 * @param chunkSize
+	 *            Maximum number of units to migrate.
+	 * @return The position to resume from, or DONE once all data has been
+	 *         migrated.
+	 */
+	public long migrate(SQLiteDatabase db, long position, int chunkSize) {
+		return DONE;
+	}
+
+	/**
+	 * Completes the step, e.g. by swapping tables and creating indexes.
+	 * Called once after the last chunk.
+	 *
+	 * @param db
+	 *            The database.
+	 */
+	public void finish(SQLiteDatabase db) {
+	}
+
+	/**
+	 * Gets the database version the step upgrades to.
+	 *
+	 * @return The version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the step's description.
+	 *
+	 * @return The description.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Finds the end of the next chunk of rows in a table, for steps that
+	 * walk a table in row ID order.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param table
+	 *            The table being walked.
+	 * @param position
+	 *            The last row ID already migrated.
+	 * @param chunkSize
+	 *            Maximum number of rows in the chunk.
+	 * @return The highest row ID in the chunk, or DONE if no rows are left.
+	 */
+	protected static long nextChunkEnd(SQLiteDatabase db, String table,
+			long position, int chunkSize) {
+		Cursor cursor = db.rawQuery("SELECT MAX(_id) FROM (SELECT _id FROM "
+				+ table + " WHERE _id > ? ORDER BY _id LIMIT ?)",
+				new String[] { String.valueOf(position),
+						String.valueOf(chunkSize) });
+		try {
+			if (cursor.moveToFirst() && !cursor.isNull(0))
+				return cursor.getLong(0);
+
+			return DONE;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Counts the rows of a table, for use in estimateWork().
+	 *
+	 * @param db
+	 *            The database.
+	 * @param table
+	 *            The table.
+	 * @return The row count.
+	 */
+	protected static long countRows(SQLiteDatabase db, String table) {
+		Cursor cursor = db.rawQuery("SELECT COUNT(*) FROM " + table, null);
+		try {
+			return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+		} finally {
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+/**
+ * Observable query.
+ *
+ * Keeps the result of a query up to date. While subscribed, the query runs
+ * on the database executor whenever rows of the tables it reads change, and
+ * each new result is passed to the callback on the main thread. Changes to
+ * other tables are ignored.
+ *
+ * Re-runs are debounced: a burst of writes, such as an import saving items
+ * one by one, leads to a single run once the writes pause. During a long
+ * burst the query still runs at least every maximum delay. Changes arriving
+ * while the query runs cause one more run after it, never a parallel one.
+ *
+ * Cursor results are owned by the query. The previous cursor is closed once
+ * the next one has been delivered, and the last one when unsubscribing, so
+ * a subscriber may swap them into an adapter without closing them.
+ *
+ * All methods must be called on the main thread.
+ *
+ * @author krdavis
+ */
+public class ObservableQuery<T> implements ChangeListener {
+	// Tag used by logging APIs
+	private static final String TAG = "ObservableQuery";
+
+	/** Default quiet time after a change before the query runs, in ms */
+	public static final long DEFAULT_DEBOUNCE_MS = 250;
+
+	/** Default longest time a change waits for the query to run, in ms */
+	public static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+	// Member variables
+	private final Callable<T> query;
+	private final Set<String> tables;
+	private final Handler handler = new Handler(Looper.getMainLooper());
+	private final Runnable rerun = new Runnable() {
+		@Override
+		public void run() {
+			firstChangeTime = 0;
+			execute();
+		}
+	};
+	private long debounceMs = DEFAULT_DEBOUNCE_MS;
+	private long maxDelayMs = DEFAULT_MAX_DELAY_MS;
+	private DatabaseCallback<T> callback;
+	private Future<T> task;
+	private boolean stale;
+	private long firstChangeTime;
+	private T result;
+
+	/**
+	 * Constructs a new <tt>ObservableQuery</tt> object.
+	 *
+	 * @param query
+	 *            The query, run on the database executor.
+	 * @param tables
+	 *            The tables the query reads.
+	 */
+	public ObservableQuery(Callable<T> query, String... tables) {
+		this.query = query;
+		this.tables = new HashSet<String>(Arrays.asList(tables));
+	}
+
+	/**
+	 * Sets how long the tables must be quiet after a change before the
+	 * query runs again.
+	 *
+	 * @param debounceMs
+	 *            The quiet time in ms, 0 to run on every change.
+	 * @param maxDelayMs
+	 *            The longest time a change waits for the query to run, in ms.
+	 */
+	public void setDebounce(long debounceMs, long maxDelayMs) {
+		this.debounceMs = debounceMs;
+		this.maxDelayMs = maxDelayMs;
+	}
+
+	/**
+	 * Starts observing the query. It runs straight away, then after every
+	 * change to its tables until unsubscribe() is called.
+	 *
+	 * @param callback
+	 *            Callback receiving each result on the main thread.
+	 */
+	public void subscribe(DatabaseCallback<T> callback) {
+		Log.d(TAG, "subscribe()");
+
+		if (this.callback != null)
+			throw new IllegalStateException("Query is already subscribed");
+
+		this.callback = callback;
+		ChangeBus.getInstance().register(this);
+
+		execute();
+	}
+
+	/**
+	 * Stops observing the query. A run under way is cancelled and no
+	 * further results are delivered.
+	 */
+	public void unsubscribe() {
+		Log.d(TAG, "unsubscribe()");
+
+		ChangeBus.getInstance().unregister(this);
+		handler.removeCallbacks(rerun);
+
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+		}
+
+		callback = null;
+		stale = false;
+		firstChangeTime = 0;
+
+		release(result);
+		result = null;
+	}
+
+	/**
+	 * Checks whether the query is being observed.
+	 *
+	 * @return True between subscribe() and unsubscribe().
+	 */
+	public boolean isSubscribed() {
+		return callback != null;
+	}
+
+	/**
+	 * Gets the latest result delivered.
+	 *
+	 * @return The result, null before the first one.
+	 */
+	public T getResult() {
+		return result;
+	}
+
+	/**
+	 * Schedules a run when one of the changes touches the query's tables.
+	 *
+	 * @param events
+	 *            The changes.
+	 */
+	@Override
+	public void onChange(List<ChangeEvent> events) {
+		if (callback == null || !touches(events))
+			return;
+
+		long now = SystemClock.uptimeMillis();
+		if (firstChangeTime == 0)
+			firstChangeTime = now;
+
+		// Wait for a pause in the changes, but no longer than the maximum
+		long delay = Math.min(debounceMs, firstChangeTime + maxDelayMs - now);
+
+		handler.removeCallbacks(rerun);
+		handler.postDelayed(rerun, Math.max(delay, 0));
+	}
+
+	/**
+	 * Checks whether any of the changes were made to the query's tables.
+	 *
+	 * @param events
+	 *            The changes.
+	 * @return True if the query has to run again.
+	 */
+	private boolean touches(List<ChangeEvent> events) {
+		for (ChangeEvent event : events) {
+			if (tables.contains(event.getTable()))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Runs the query, or marks the result stale if it is already running.
+	 */
+	private void execute() {
+		if (task != null) {
+			stale = true;
+			return;
+		}
+
+		stale = false;
+		task = DatabaseExecutor.getInstance().submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				T value = query.call();
+
+				// Fill the cursor window here rather than on the main thread
+				if (value instanceof Cursor)
+					((Cursor) value).getCount();
+
+				return value;
+			}
+		}, new DatabaseCallback<T>() {
+			@Override
+			public void onResult(T value) {
+				task = null;
+
+				T previous = result;
+				result = value;
+				callback.onResult(value);
+
+				if (previous != value)
+					release(previous);
+
+				if (stale)
+					execute();
+			}
+
+			@Override
+			public void onError(Exception e) {
+				task = null;
+				Log.e(TAG, "Query failed", e);
+
+				callback.onError(e);
+
+				if (stale)
+					execute();
+			}
+		});
+	}
+
+	/**
+	 * Closes a result that holds resources.
+	 *
+	 * @param value
+	 *            The result, may be null.
+	 */
+	private static void release(Object value) {
+		if (value instanceof Cursor)
+			((Cursor) value).close();
+	}
+}
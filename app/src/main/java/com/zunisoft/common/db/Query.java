@@ -0,0 +1,348 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Parameterized query builder.
+ *
+ * Builds a SELECT statement from a table, projection, conditions, ordering
+ * and limit. Values are always passed as bind arguments, never inlined, so
+ * the SQL text only depends on the shape of the query. The connection's
+ * prepared statement cache can then reuse the compiled statement for every
+ * query of the same shape, including the limit, which is bound as well.
+ *
+ * <pre>
+ * Cursor cursor = Query.from("item")
+ *         .select("_id", "description")
+ *         .where("category = ?", category)
+ *         .orderBy("description ASC")
+ *         .limit(50)
+ *         .run(db);
+ * </pre>
+ *
+ * @author krdavis
+ */
+public class Query {
+	// Tag used by logging APIs
+	private static final String TAG = "Query";
+
+	// Member variables
+	private final String table;
+	private String[] columns;
+	private final StringBuilder joins = new StringBuilder();
+	private final List<String> joinArgs = new ArrayList<String>();
+	private final StringBuilder selection = new StringBuilder();
+	private final List<String> selectionArgs = new ArrayList<String>();
+	private String groupBy;
+	private String orderBy;
+	private int limit = -1;
+
+	/**
+	 * Constructs a new <tt>Query</tt> object.
+	 *
+	 * @param table
+	 *            The table to select from.
+	 */
+	public Query(String table) {
+		this.table = table;
+	}
+
+	/**
+	 * Starts a query on a table.
+	 *
+	 * @param table
+	 *            The table to select from.
+	 * @return The query.
+	 */
+	public static Query from(String table) {
+		return new Query(table);
+	}
+
+	/**
+	 * Sets the columns to select. All columns are selected if none are set.
+	 *
+	 * @param columns
+	 *            The column names or expressions.
+	 * @return This query.
+	 */
+	public Query select(String... columns) {
+		this.columns = columns;
+		return this;
+	}
+
+	/**
+	 * Adds a join clause.
+	 *
+	 * @param join
+	 *            The join clause, e.g. "JOIN other ON other.id = item_id",
+	 *            with ? placeholders for its values.
+	 * @param args
+	 *            The values bound to the placeholders.
+	 * @return This query.
+	 */
+	public Query join(String join, Object... args) {
+		joins.append(' ').append(join);
+		addArgs(joinArgs, args);
+		return this;
+	}
+
+	/**
+	 * Adds a condition. Conditions are combined with AND.
+	 *
+	 * @param condition
+	 *            The condition, with ? placeholders for its values.
+	 * @param args
+	 *            The values bound to the placeholders.
+	 * @return This query.
+	 */
+	public Query where(String condition, Object... args) {
+		if (selection.length() > 0)
+			selection.append(" AND ");
+		selection.append('(').append(condition).append(')');
+		addArgs(selectionArgs, args);
+		return this;
+	}
+
+	/**
+	 * Adds a condition that a column's value is in the result of another
+	 * query. Conditions are combined with AND.
+	 *
+	 * @param column
+	 *            The column name.
+	 * @param subquery
+	 *            The query selecting the allowed values.
+	 * @return This query.
+	 */
+	public Query whereIn(String column, Query subquery) {
+		return where(column + " IN (" + subquery.toSql() + ")",
+				(Object[]) subquery.getArgs());
+	}
+
+	/**
+	 * Sets the grouping.
+	 *
+	 * @param groupBy
+	 *            The GROUP BY clause, without the keywords.
+	 * @return This query.
+	 */
+	public Query groupBy(String groupBy) {
+		this.groupBy = groupBy;
+		return this;
+	}
+
+	/**
+	 * Sets the ordering.
+	 *
+	 * @param orderBy
+	 *            The ORDER BY clause, without the keywords.
+	 * @return This query.
+	 */
+	public Query orderBy(String orderBy) {
+		this.orderBy = orderBy;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of rows returned.
+	 *
+	 * @param limit
+	 *            The row limit, or a negative number for no limit.
+	 * @return This query.
+	 */
+	public Query limit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+
+	/**
+	 * Builds the SQL text of the query.
+	 *
+	 * @return The SQL text.
+	 */
+	public String toSql() {
+		StringBuilder sql = new StringBuilder("SELECT ");
+		if (columns == null || columns.length == 0) {
+			sql.append('*');
+		} else {
+			for (int i = 0; i < columns.length; i++) {
+				if (i > 0)
+					sql.append(", ");
+				sql.append(columns[i]);
+			}
+		}
+		sql.append(" FROM ").append(table).append(joins);
+
+		if (selection.length() > 0)
+			sql.append(" WHERE ").append(selection);
+		if (groupBy != null)
+			sql.append(" GROUP BY ").append(groupBy);
+		if (orderBy != null)
+			sql.append(" ORDER BY ").append(orderBy);
+		if (limit >= 0)
+			sql.append(" LIMIT ?");
+
+		return sql.toString();
+	}
+
+	/**
+	 * Gets the bind arguments, in the order of their placeholders in
+	 * toSql().
+	 *
+	 * @return The bind arguments.
+	 */
+	public String[] getArgs() {
+		List<String> args = new ArrayList<String>(joinArgs);
+		args.addAll(selectionArgs);
+		if (limit >= 0)
+			args.add(String.valueOf(limit));
+
+		return args.toArray(new String[args.size()]);
+	}
+
+	/**
+	 * Runs the query.
+	 *
+	 * @param db
+	 *            The database.
+	 * @return Result set of the query.
+	 */
+	public Cursor run(SQLiteDatabase db) {
+		String sql = toSql();
+		QueryProfiler profiler = QueryProfiler.getInstance();
+
+		long start = profiler.start();
+		Cursor cursor = db.rawQuery(sql, getArgs());
+
+		// Timed when the caller fills the cursor
+		return profiler.profile(db, sql, cursor, start);
+	}
+
+	/**
+	 * Runs a query that returns a single number, such as a count.
+	 *
+	 * @param db
+	 *            The database.
+	 * @return The value of the first column of the first row.
+	 * @throws android.database.sqlite.SQLiteDoneException
+	 *             If the query returns no rows.
+	 */
+	public long longForQuery(SQLiteDatabase db) {
+		String sql = toSql();
+		QueryProfiler profiler = QueryProfiler.getInstance();
+
+		long start = profiler.start();
+		try {
+			return DatabaseUtils.longForQuery(db, sql, getArgs());
+		} finally {
+			profiler.record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Runs a query that returns a single text value.
+	 *
+	 * @param db
+	 *            The database.
+	 * @return The value of the first column of the first row.
+	 * @throws android.database.sqlite.SQLiteDoneException
+	 *             If the query returns no rows.
+	 */
+	public String stringForQuery(SQLiteDatabase db) {
+		String sql = toSql();
+		QueryProfiler profiler = QueryProfiler.getInstance();
+
+		long start = profiler.start();
+		try {
+			return DatabaseUtils.stringForQuery(db, sql, getArgs());
+		} finally {
+			profiler.record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Gets the plan SQLite would use to run the query.
+	 *
+	 * @param db
+	 *            The database.
+	 * @return One line per step of the plan, e.g. "SEARCH TABLE item USING
+	 *         INDEX item_description_idx (description>?)".
+	 */
+	public List<String> explain(SQLiteDatabase db) {
+		List<String> plan = new ArrayList<String>();
+
+		Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + toSql(), getArgs());
+		try {
+			int detail = cursor.getColumnIndexOrThrow("detail");
+			while (cursor.moveToNext()) {
+				plan.add(cursor.getString(detail));
+			}
+		} finally {
+			cursor.close();
+		}
+
+		Log.d(TAG, "Plan of " + toSql() + ": " + plan);
+
+		return plan;
+	}
+
+	/**
+	 * Adds values to a bind argument list.
+	 *
+	 * @param list
+	 *            The bind argument list.
+	 * @param args
+	 *            The values; dates are bound as milliseconds since the
+	 *            epoch and booleans as 0 or 1.
+	 */
+	private static void addArgs(List<String> list, Object[] args) {
+		for (Object arg : args) {
+			if (arg == null)
+				throw new IllegalArgumentException(
+						"Null bind argument, use IS NULL instead");
+
+			if (arg instanceof Date) {
+				list.add(String.valueOf(((Date) arg).getTime()));
+			} else if (arg instanceof Boolean) {
+				list.add((Boolean) arg ? "1" : "0");
+			} else {
+				list.add(arg.toString());
+			}
+		}
+	}
+
+	/**
+	 * Returns the SQL text of the query.
+	 *
+	 * @return The SQL text.
+	 */
+	@Override
+	public String toString() {
+		return toSql();
+	}
+}
@@ -0,0 +1,427 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Query profiler.
+ *
+ * Times the queries and writes issued through <tt>Query</tt> and
+ * <tt>StatementCache</tt>, which covers everything the models run. Timings
+ * are summarized per SQL text: execution count, total and maximum time, and
+ * the 50th and 99th percentiles of the most recent executions.
+ *
+ * A statement slower than the threshold is logged together with its query
+ * plan. Plans are captured once per SQL text, and plans that scan a whole
+ * table are flagged in the log and the summary.
+ *
+ * Profiling is off unless turned on, which <tt>DatabaseAdapter</tt> does
+ * for debuggable builds. Query cursors are timed when the caller first
+ * fills them, so profiling doesn't change when rows are read.
+ *
+ * @author krdavis
+ */
+public class QueryProfiler {
+	// Tag used by logging APIs
+	private static final String TAG = "QueryProfiler";
+
+	/** Default time above which a statement is logged as slow */
+	public static final long DEFAULT_SLOW_THRESHOLD_MS = 50;
+
+	// Number of recent executions kept per statement for the percentiles
+	private static final int SAMPLE_SIZE = 128;
+
+	// Plan step of a full table scan; virtual and index scans don't match
+	private static final Pattern FULL_SCAN = Pattern
+			.compile("^SCAN (TABLE )?\\S+( AS \\S+)?( \\(~\\d+ rows\\))?$");
+
+	// Profiler instance
+	private static final QueryProfiler instance = new QueryProfiler();
+
+	// Member variables
+	private final HashMap<String, Stats> stats = new HashMap<String, Stats>();
+	private volatile boolean enabled;
+	private volatile long slowThresholdNanos = DEFAULT_SLOW_THRESHOLD_MS * 1000000;
+
+	/**
+	 * Timings of one SQL text.
+	 */
+	private static class Stats {
+		final String sql;
+		final long[] samples = new long[SAMPLE_SIZE];
+		long count;
+		long totalNanos;
+		long maxNanos;
+		long slowCount;
+		List<String> plan;
+		boolean fullScan;
+
+		Stats(String sql) {
+			this.sql = sql;
+		}
+
+		void add(long nanos) {
+			samples[(int) (count % SAMPLE_SIZE)] = nanos;
+			count++;
+			totalNanos += nanos;
+			maxNanos = Math.max(maxNanos, nanos);
+		}
+
+		long percentile(int percent) {
+			int size = (int) Math.min(count, SAMPLE_SIZE);
+			if (size == 0)
+				return 0;
+
+			long[] sorted = Arrays.copyOf(samples, size);
+			Arrays.sort(sorted);
+			return sorted[Math.min(size - 1, (size * percent) / 100)];
+		}
+	}
+
+	/**
+	 * Query cursor that records its query when it is first filled.
+	 */
+	private class ProfiledCursor extends CursorWrapper {
+		private final SQLiteDatabase db;
+		private final String sql;
+		private final long prepareNanos;
+		private boolean filled;
+
+		ProfiledCursor(SQLiteDatabase db, String sql, Cursor cursor,
+				long prepareNanos) {
+			super(cursor);
+			this.db = db;
+			this.sql = sql;
+			this.prepareNanos = prepareNanos;
+		}
+
+		private void fill() {
+			if (filled)
+				return;
+			filled = true;
+
+			long start = System.nanoTime();
+			super.getCount();
+			recordTime(db, sql, prepareNanos + System.nanoTime() - start);
+		}
+
+		@Override
+		public int getCount() {
+			fill();
+			return super.getCount();
+		}
+
+		@Override
+		public boolean move(int offset) {
+			fill();
+			return super.move(offset);
+		}
+
+		@Override
+		public boolean moveToPosition(int position) {
+			fill();
+			return super.moveToPosition(position);
+		}
+
+		@Override
+		public boolean moveToFirst() {
+			fill();
+			return super.moveToFirst();
+		}
+
+		@Override
+		public boolean moveToLast() {
+			fill();
+			return super.moveToLast();
+		}
+
+		@Override
+		public boolean moveToNext() {
+			fill();
+			return super.moveToNext();
+		}
+
+		@Override
+		public boolean moveToPrevious() {
+			fill();
+			return super.moveToPrevious();
+		}
+	}
+
+	/**
+	 * Constructs a new <tt>QueryProfiler</tt> object.
+	 */
+	private QueryProfiler() {
+	}
+
+	/**
+	 * Gets the profiler instance.
+	 *
+	 * @return Profiler instance.
+	 */
+	public static QueryProfiler getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts timing a statement.
+	 *
+	 * @return The start time to pass to record(), or 0 if profiling is off.
+	 */
+	public long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time a statement took. Slow statements are logged with
+	 * their query plan, which is captured on the same database object.
+	 *
+	 * @param db
+	 *            The database object the statement ran on.
+	 * @param sql
+	 *            The statement SQL.
+	 * @param start
+	 *            The time returned by start().
+	 */
+	public void record(SQLiteDatabase db, String sql, long start) {
+		if (start == 0)
+			return;
+
+		recordTime(db, sql, System.nanoTime() - start);
+	}
+
+	/**
+	 * Times a query cursor. SQLite only runs a query once its cursor is
+	 * filled, so the query is recorded when the caller first fills the
+	 * cursor, as the time taken to prepare it plus the time of the fill.
+	 *
+	 * @param db
+	 *            The database object the query ran on.
+	 * @param sql
+	 *            The query SQL.
+	 * @param cursor
+	 *            The cursor, not yet filled.
+	 * @param start
+	 *            The time returned by start(), taken before the query.
+	 * @return The cursor to hand to the caller.
+	 */
+	public Cursor profile(SQLiteDatabase db, String sql, Cursor cursor,
+			long start) {
+		if (start == 0)
+			return cursor;
+
+		return new ProfiledCursor(db, sql, cursor, System.nanoTime() - start);
+	}
+
+	/**
+	 * Records the time a statement took.
+	 *
+	 * @param db
+	 *            The database object the statement ran on.
+	 * @param sql
+	 *            The statement SQL.
+	 * @param nanos
+	 *            The time taken.
+	 */
+	private void recordTime(SQLiteDatabase db, String sql, long nanos) {
+		boolean slow = nanos >= slowThresholdNanos;
+		boolean capturePlan;
+		Stats entry;
+
+		synchronized (stats) {
+			entry = stats.get(sql);
+			if (entry == null) {
+				entry = new Stats(sql);
+				stats.put(sql, entry);
+			}
+			entry.add(nanos);
+			if (slow)
+				entry.slowCount++;
+			capturePlan = slow && entry.plan == null;
+		}
+
+		if (!slow)
+			return;
+
+		// Capture the plan outside the lock, it runs another statement
+		if (capturePlan) {
+			List<String> plan = explain(db, sql);
+			boolean fullScan = false;
+			for (String step : plan) {
+				fullScan |= FULL_SCAN.matcher(step).matches();
+			}
+
+			synchronized (stats) {
+				entry.plan = plan;
+				entry.fullScan = fullScan;
+			}
+		}
+
+		Log.w(TAG, "Slow statement (" + (nanos / 1000000) + " ms"
+				+ (entry.fullScan ? ", FULL TABLE SCAN" : "") + "): " + sql
+				+ " plan=" + entry.plan);
+	}
+
+	/**
+	 * Gets the query plan of a statement, without binding its arguments.
+	 *
+	 * @param db
+	 *            The database object.
+	 * @param sql
+	 *            The statement SQL.
+	 * @return One line per step of the plan, empty if it can't be explained.
+	 */
+	private static List<String> explain(SQLiteDatabase db, String sql) {
+		List<String> plan = new ArrayList<String>();
+
+		try {
+			Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+			try {
+				int detail = cursor.getColumnIndexOrThrow("detail");
+				while (cursor.moveToNext()) {
+					plan.add(cursor.getString(detail));
+				}
+			} finally {
+				cursor.close();
+			}
+		} catch (SQLiteException e) {
+			Log.w(TAG, "Couldn't explain " + sql, e);
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Writes the summary, most expensive statements first, one statement
+	 * per line: count, slow count, p50, p99 and maximum in microseconds,
+	 * total in milliseconds, a full scan flag and the SQL text.
+	 *
+	 * @param writer
+	 *            The writer.
+	 */
+	public void dump(Writer writer) {
+		List<Stats> entries;
+		synchronized (stats) {
+			entries = new ArrayList<Stats>(stats.values());
+		}
+
+		Collections.sort(entries, new Comparator<Stats>() {
+			@Override
+			public int compare(Stats lhs, Stats rhs) {
+				return lhs.totalNanos > rhs.totalNanos ? -1
+						: (lhs.totalNanos == rhs.totalNanos ? 0 : 1);
+			}
+		});
+
+		PrintWriter out = new PrintWriter(writer);
+		out.println("count\tslow\tp50_us\tp99_us\tmax_us\ttotal_ms\tscan\tsql");
+		for (Stats entry : entries) {
+			synchronized (stats) {
+				out.println(entry.count + "\t" + entry.slowCount + "\t"
+						+ (entry.percentile(50) / 1000) + "\t"
+						+ (entry.percentile(99) / 1000) + "\t"
+						+ (entry.maxNanos / 1000) + "\t"
+						+ (entry.totalNanos / 1000000) + "\t"
+						+ (entry.fullScan ? "FULL" : "-") + "\t" + entry.sql);
+				if (entry.plan != null) {
+					for (String step : entry.plan) {
+						out.println("\t\t\t\t\t\t\t  " + step);
+					}
+				}
+			}
+		}
+		out.flush();
+	}
+
+	/**
+	 * Writes the summary to a file, replacing it.
+	 *
+	 * @param file
+	 *            The file.
+	 * @throws IOException
+	 *             If the file can't be written.
+	 */
+	public void dump(File file) throws IOException {
+		Log.d(TAG, "dump() -> " + file);
+
+		FileWriter writer = new FileWriter(file);
+		try {
+			dump(writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Discards the collected timings and plans.
+	 */
+	public void reset() {
+		synchronized (stats) {
+			stats.clear();
+		}
+	}
+
+	/**
+	 * Checks whether statements are being timed.
+	 *
+	 * @return True if profiling is on, false otherwise.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Turns profiling on or off.
+	 *
+	 * @param enabled
+	 *            True to time statements, false otherwise.
+	 */
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Sets the time above which a statement is logged as slow.
+	 *
+	 * @param thresholdMs
+	 *            The threshold in milliseconds.
+	 */
+	public void setSlowThreshold(long thresholdMs) {
+		this.slowThresholdNanos = thresholdMs * 1000000;
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+
+/**
+ * Row mapper.
+ *
+ * Maps cursor rows into objects. Column indexes are looked up by name once
+ * per cursor, in resolveColumns(), instead of once per field per row, and
+ * rows are mapped into objects supplied by the caller so a list can reuse
+ * one object for every row it binds.
+ *
+ * A mapper remembers the last cursor it resolved columns for and is not
+ * safe for concurrent use; give each thread its own mapper.
+ *
+ * @param <T>
+ *            The type rows are mapped into.
+ *
+ * @author krdavis
+ */
+public abstract class RowMapper<T> {
+	/** Column index of a column the cursor doesn't have */
+	public static final int NO_COLUMN = -1;
+
+	// Cursor the column indexes were resolved for
+	private Cursor resolvedCursor;
+
+	/**
+	 * Looks up the indexes of the mapped columns in a cursor. Called once
+	 * per cursor, before its first row is mapped.
+	 *
+	 * @param cursor
+	 *            The cursor.
+	 */
+	protected abstract void resolveColumns(Cursor cursor);
+
+	/**
+	 * Maps the current row of the cursor into an object.
+	 *
+	 * @param cursor
+	 *            The cursor, moved to the row.
+	 * @param target
+	 *            The object to map the row into.
+	 */
+	protected abstract void mapRow(Cursor cursor, T target);
+
+	/**
+	 * Maps the current row of a cursor into an object, resolving the column
+	 * indexes first if the cursor is new to the mapper.
+	 *
+	 * @param cursor
+	 *            The cursor, moved to the row.
+	 * @param target
+	 *            The object to map the row into.
+	 * @return The target object.
+	 */
+	public T map(Cursor cursor, T target) {
+		if (cursor != resolvedCursor) {
+			resolveColumns(cursor);
+			resolvedCursor = cursor;
+		}
+
+		mapRow(cursor, target);
+		return target;
+	}
+
+	/**
+	 * Forgets the last cursor, so the next map() resolves the column indexes
+	 * again. Call this after requery() or when the cursor is closed, so it
+	 * can be garbage collected.
+	 */
+	public void reset() {
+		resolvedCursor = null;
+	}
+
+	/**
+	 * Gets a column index for use in resolveColumns().
+	 *
+	 * @param cursor
+	 *            The cursor.
+	 * @param column
+	 *            The column name.
+	 * @return The column index or NO_COLUMN if the cursor doesn't have the
+	 *         column.
+	 */
+	protected static int indexOf(Cursor cursor, String column) {
+		return cursor.getColumnIndex(column);
+	}
+}
@@ -0,0 +1,480 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SQLite storage engine.
+ *
+ * Stores tables in a SQLite database. Writes run on the read/write
+ * database object through a compiled statement cache; reads run on the
+ * query database object, from the table's view if it has one, except
+ * inside a transaction, where they must see its uncommitted writes. Lookup
+ * column values are resolved to their IDs on write, adding new values to
+ * the lookup table, and search runs against the table's FTS4 index.
+ *
+ * @author krdavis
+ */
+public class SQLiteStorageEngine implements StorageEngine {
+	// Row ID condition
+	private static final String ID_SELECTION = COL_ROW_ID + " = ?";
+
+	// Member variables
+	private final SQLiteDatabase db;
+	private final SQLiteDatabase readDb;
+	private final StatementCache cache;
+	private final Map<String, StorageTable> tables = new HashMap<String, StorageTable>();
+
+	/**
+	 * Constructs a new <tt>SQLiteStorageEngine</tt> object.
+	 *
+	 * @param db
+	 *            Database object used for writes.
+	 * @param readDb
+	 *            Database object used for queries.
+	 * @param cache
+	 *            Compiled statement cache of the read/write database object.
+	 */
+	public SQLiteStorageEngine(SQLiteDatabase db, SQLiteDatabase readDb,
+			StatementCache cache) {
+		this.db = db;
+		this.readDb = readDb;
+		this.cache = cache;
+	}
+
+	/**
+	 * Gets the database object used for writes.
+	 *
+	 * @return The database object.
+	 */
+	public SQLiteDatabase getDatabase() {
+		return db;
+	}
+
+	/**
+	 * Gets the database object used for queries.
+	 *
+	 * @return The database object.
+	 */
+	public SQLiteDatabase getReadDatabase() {
+		return readDb;
+	}
+
+	/**
+	 * Gets the compiled statement cache writes run through.
+	 *
+	 * @return The statement cache.
+	 */
+	public StatementCache getStatementCache() {
+		return cache;
+	}
+
+	@Override
+	public void register(StorageTable table) {
+		tables.put(table.getName(), table);
+	}
+
+	@Override
+	public long insert(String table, String[] columns, Object[] values) {
+		StorageTable def = tables.get(table);
+		boolean own = beginLookupTransaction(def, columns);
+		try {
+			long id = insertRow(def, table, columns, values);
+			if (own && id != -1)
+				db.setTransactionSuccessful();
+			return id;
+		} finally {
+			if (own)
+				db.endTransaction();
+		}
+	}
+
+	/**
+	 * Inserts a row, resolving its lookup values to IDs first.
+	 *
+	 * @param def
+	 *            The table definition, may be null.
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The values, in column order.
+	 * @return The row ID or -1 if an error occurred.
+	 */
+	private long insertRow(StorageTable def, String table, String[] columns,
+			Object[] values) {
+		values = storedValues(def, columns, values);
+		columns = storedColumns(def, columns);
+		if (values == null)
+			return -1;
+
+		StringBuilder sql = new StringBuilder("INSERT INTO ");
+		sql.append(table).append(" (");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(columns[i]);
+		}
+		sql.append(") VALUES (");
+		for (int i = 0; i < columns.length; i++) {
+			sql.append(i > 0 ? ", ?" : "?");
+		}
+		sql.append(")");
+
+		return cache.executeInsert(sql.toString(), values);
+	}
+
+	@Override
+	public int update(String table, long id, String[] columns, Object[] values) {
+		StorageTable def = tables.get(table);
+		boolean own = beginLookupTransaction(def, columns);
+		try {
+			int count = updateRow(def, table, id, columns, values);
+			if (own)
+				db.setTransactionSuccessful();
+			return count;
+		} finally {
+			if (own)
+				db.endTransaction();
+		}
+	}
+
+	/**
+	 * Updates a row, resolving its lookup values to IDs first.
+	 *
+	 * @param def
+	 *            The table definition, may be null.
+	 * @param table
+	 *            The table name.
+	 * @param id
+	 *            The row ID.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The values, in column order.
+	 * @return The number of rows updated.
+	 */
+	private int updateRow(StorageTable def, String table, long id,
+			String[] columns, Object[] values) {
+		values = storedValues(def, columns, values);
+		String[] stored = storedColumns(def, columns);
+		if (values == null)
+			return 0;
+
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		sql.append(table).append(" SET ");
+		for (int i = 0; i < stored.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(stored[i]).append(" = ?");
+		}
+		sql.append(" WHERE ").append(ID_SELECTION);
+
+		Object[] args = Arrays.copyOf(values, values.length + 1);
+		args[values.length] = id;
+
+		return cache.executeUpdateDelete(sql.toString(), args);
+	}
+
+	@Override
+	public int delete(String table, long id) {
+		return cache.executeUpdateDelete("DELETE FROM " + table + " WHERE "
+				+ ID_SELECTION, new Object[] { id });
+	}
+
+	@Override
+	public Cursor load(String table, long id, String[] columns) {
+		return Query.from(readName(table))
+				.select(columns)
+				.where(ID_SELECTION, id)
+				.run(reader());
+	}
+
+	@Override
+	public Cursor findPage(String table, String[] columns, SortOrder order,
+			Object[] afterKey, Object[] lastKey, int limit) {
+		Query query = Query.from(readName(table))
+				.select(columns)
+				.orderBy(order.getOrderBy());
+		if (limit > 0)
+			query.limit(limit);
+
+		order.after(query, afterKey);
+		order.through(query, lastKey);
+
+		return query.run(reader());
+	}
+
+	/**
+	 * Searches the table's full-text index. Each ranked column and the whole
+	 * index are matched separately, and a row takes the best rank it
+	 * matched with.
+	 */
+	@Override
+	public Cursor search(String table, String[] columns, String searchText,
+			SortOrder order) {
+		StorageTable def = tables.get(table);
+		if (def == null || def.getSearchIndex() == null)
+			throw new UnsupportedOperationException("No search index on " + table);
+
+		String index = def.getSearchIndex();
+		String match = buildMatchQuery(searchText);
+
+		// Rank i for a match in ranked column i, one past the last for a
+		// match anywhere
+		int ranked = def.getRankedColumns();
+		StringBuilder join = new StringBuilder("JOIN (SELECT docid, MIN(")
+				.append(COL_RANK).append(") AS ").append(COL_RANK).append(" FROM (");
+		for (int i = 0; i < ranked; i++) {
+			join.append("SELECT docid, ").append(i).append(" AS ").append(COL_RANK)
+					.append(" FROM ").append(index).append(" WHERE ")
+					.append(def.getSearchColumns()[i]).append(" MATCH ? UNION ALL ");
+		}
+		join.append("SELECT docid, ").append(ranked).append(" AS ").append(COL_RANK)
+				.append(" FROM ").append(index).append(" WHERE ").append(index)
+				.append(" MATCH ?) GROUP BY docid) ON ").append(COL_ROW_ID)
+				.append(" = docid");
+
+		Object[] args = new Object[ranked + 1];
+		Arrays.fill(args, match);
+
+		String[] select = Arrays.copyOf(columns, columns.length + 1);
+		select[columns.length] = COL_RANK;
+
+		return Query.from(readName(table))
+				.select(select)
+				.join(join.toString(), args)
+				.orderBy(COL_RANK + ", " + order.getOrderBy())
+				.run(reader());
+	}
+
+	@Override
+	public long count(String table) {
+		return Query.from(table).select("COUNT(*)").longForQuery(reader());
+	}
+
+	@Override
+	public long countMatching(String table, String[] columns, Object value) {
+		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM ");
+		sql.append(table).append(" WHERE ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				sql.append(" OR ");
+			sql.append(columns[i]).append(" = ?");
+		}
+
+		Object[] args = new Object[columns.length];
+		Arrays.fill(args, value);
+
+		return cache.simpleQueryForLong(sql.toString(), args);
+	}
+
+	@Override
+	public long findId(String table, String column, Object value) {
+		StorageTable def = tables.get(table);
+		String idColumn = def != null ? def.getLookupIdColumn(column) : null;
+
+		String condition;
+		if (idColumn != null) {
+			LookupTable lookup = def.getLookupTable(column);
+			condition = idColumn + " = (SELECT " + LookupTable.COL_ROW_ID
+					+ " FROM " + lookup.getTableName() + " WHERE "
+					+ LookupTable.COL_NAME + " = ?)";
+		} else {
+			condition = column + " = ?";
+		}
+
+		try {
+			return cache.simpleQueryForLong("SELECT " + COL_ROW_ID + " FROM "
+					+ table + " WHERE " + condition + " LIMIT 1",
+					new Object[] { value });
+		} catch (SQLiteDoneException e) {
+			return NOT_FOUND;
+		}
+	}
+
+	@Override
+	public Cursor query(Query query) {
+		return query.run(reader());
+	}
+
+	@Override
+	public List<String> explain(Query query) {
+		return query.explain(reader());
+	}
+
+	@Override
+	public void beginTransaction() {
+		db.beginTransaction();
+	}
+
+	@Override
+	public void setTransactionSuccessful() {
+		db.setTransactionSuccessful();
+	}
+
+	@Override
+	public void endTransaction() {
+		db.endTransaction();
+	}
+
+	@Override
+	public boolean inTransaction() {
+		return db.inTransaction();
+	}
+
+	/**
+	 * Builds a full-text match expression from user supplied search text.
+	 * Every word becomes a prefix term, all of which must match. Characters
+	 * with a special meaning in match expressions are dropped.
+	 *
+	 * @param searchText
+	 *            The search text.
+	 * @return The match expression, empty if the text holds no words.
+	 */
+	public static String buildMatchQuery(String searchText) {
+		StringBuilder match = new StringBuilder();
+
+		for (String term : StorageTable.searchTerms(searchText)) {
+			if (match.length() > 0)
+				match.append(' ');
+			match.append(term).append('*');
+		}
+
+		return match.toString();
+	}
+
+	/**
+	 * Gets the database object reads run on. The calling thread's open
+	 * transaction is only visible on the read/write database object.
+	 *
+	 * @return The database object.
+	 */
+	private SQLiteDatabase reader() {
+		return db.inTransaction() ? db : readDb;
+	}
+
+	/**
+	 * Gets the name a table's rows are read from.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @return The view or table name.
+	 */
+	private String readName(String table) {
+		StorageTable def = tables.get(table);
+		return def != null ? def.getReadName() : table;
+	}
+
+	/**
+	 * Replaces lookup columns by their ID columns.
+	 *
+	 * @param def
+	 *            The table, may be null.
+	 * @param columns
+	 *            The logical column names.
+	 * @return The stored column names.
+	 */
+	private static String[] storedColumns(StorageTable def, String[] columns) {
+		if (def == null)
+			return columns;
+
+		String[] stored = columns.clone();
+		for (int i = 0; i < stored.length; i++) {
+			String idColumn = def.getLookupIdColumn(columns[i]);
+			if (idColumn != null)
+				stored[i] = idColumn;
+		}
+
+		return stored;
+	}
+
+	/**
+	 * Begins a transaction around a write that resolves lookup values, so
+	 * the lookup rows it adds go away with a failed write and concurrent
+	 * writers can't race on the same value. Writes inside a transaction
+	 * already have one, and a failed inner level would roll back the whole
+	 * of it.
+	 *
+	 * @param def
+	 *            The table definition, may be null.
+	 * @param columns
+	 *            The written columns.
+	 * @return True if a transaction was begun, which the caller must end.
+	 */
+	private boolean beginLookupTransaction(StorageTable def, String[] columns) {
+		if (def == null || db.inTransaction())
+			return false;
+
+		for (String column : columns) {
+			if (def.getLookupTable(column) != null) {
+				db.beginTransaction();
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Replaces lookup values by their IDs, adding new values to the lookup
+	 * tables. Runs on the read/write database object, so new values are
+	 * part of the caller's transaction.
+	 *
+	 * @param def
+	 *            The table, may be null.
+	 * @param columns
+	 *            The logical column names.
+	 * @param values
+	 *            The logical values.
+	 * @return The stored values, or null if a value could not be added.
+	 */
+	private Object[] storedValues(StorageTable def, String[] columns,
+			Object[] values) {
+		if (def == null)
+			return values;
+
+		Object[] result = values;
+		for (int i = 0; i < columns.length; i++) {
+			LookupTable lookup = def.getLookupTable(columns[i]);
+			if (lookup == null || values[i] == null)
+				continue;
+
+			long id = lookup.getId(cache, values[i].toString());
+			if (id == -1)
+				return null;
+
+			if (result == values)
+				result = values.clone();
+			result[i] = id;
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.zunisoft.common.concurrent.ProgressTaskListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Schema migrator.
+ *
+ * Runs the ordered <tt>Migration</tt> steps needed to bring a database up to
+ * date. Each step records its state, resume position, amount of work done
+ * and elapsed time in the schema_migration table, in the same transaction
+ * as the chunk it just ran. The database version is bumped in the
+ * transaction that finishes the step. If the process is killed part way
+ * through, the next run picks the step up at its last committed chunk.
+ *
+ * @author krdavis
+ */
+public class SchemaMigrator {
+	// Tag used by logging APIs
+	private static final String TAG = "SchemaMigrator";
+
+	/** Default number of units migrated per transaction */
+	public static final int DEFAULT_CHUNK_SIZE = 50;
+
+	// Progress table
+	private static final String TABLE_NAME = "schema_migration";
+	private static final String COL_VERSION = "version";
+	private static final String COL_NAME = "name";
+	private static final String COL_STATE = "state";
+	private static final String COL_POSITION = "position";
+	private static final String COL_PROGRESS = "progress";
+	private static final String COL_TOTAL = "total";
+	private static final String COL_ELAPSED = "elapsed_ms";
+	private static final String COL_COMPLETED = "completed_at";
+
+	private static final String SQL_CREATE_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ TABLE_NAME + " ("
+			+ COL_VERSION + " integer primary key, "
+			+ COL_NAME + " text not null, "
+			+ COL_STATE + " integer not null, "
+			+ COL_POSITION + " integer not null default 0, "
+			+ COL_PROGRESS + " integer not null default 0, "
+			+ COL_TOTAL + " integer not null default 0, "
+			+ COL_ELAPSED + " integer not null default 0, "
+			+ COL_COMPLETED + " integer null"
+			+ ");";
+
+	// Step states
+	private static final int STATE_RUNNING = 0;
+	private static final int STATE_COMPLETED = 1;
+
+	// Member variables
+	private final List<Migration> migrations;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private ProgressTaskListener listener;
+
+	/**
+	 * Constructs a new <tt>SchemaMigrator</tt> object.
+	 *
+	 * @param migrations
+	 *            The migration steps, in any order. Versions must be unique.
+	 */
+	public SchemaMigrator(List<? extends Migration> migrations) {
+		Log.d(TAG, "SchemaMigrator()");
+
+		this.migrations = new ArrayList<Migration>(migrations);
+		Collections.sort(this.migrations, new Comparator<Migration>() {
+			@Override
+			public int compare(Migration lhs, Migration rhs) {
+				return lhs.getVersion() < rhs.getVersion() ? -1 : (lhs
+						.getVersion() == rhs.getVersion() ? 0 : 1);
+			}
+		});
+	}
+
+	/**
+	 * Runs the steps that upgrade the database from one version to another.
+	 * Must not be called inside a transaction.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param oldVersion
+	 *            The current database version.
+	 * @param newVersion
+	 *            The target database version.
+	 * @throws SQLiteException
+	 *             If no step upgrades to the target version.
+	 */
+	public void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+		Log.d(TAG, "migrate() -> " + oldVersion + " to " + newVersion);
+
+		db.execSQL(SQL_CREATE_TABLE);
+
+		int version = oldVersion;
+		for (Migration migration : migrations) {
+			if (migration.getVersion() <= version
+					|| migration.getVersion() > newVersion)
+				continue;
+
+			run(db, migration);
+			version = migration.getVersion();
+		}
+
+		if (version != newVersion) {
+			throw new SQLiteException("No migration path from version "
+					+ oldVersion + " to " + newVersion);
+		}
+	}
+
+	/**
+	 * Runs a single step, resuming it if a previous run was interrupted.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param migration
+	 *            The step.
+	 */
+	private void run(SQLiteDatabase db, Migration migration) {
+		int version = migration.getVersion();
+		long position = 0;
+		long progress = 0;
+		long total = 0;
+		long elapsed = 0;
+
+		Cursor cursor = db.query(TABLE_NAME, new String[] { COL_STATE,
+				COL_POSITION, COL_PROGRESS, COL_TOTAL, COL_ELAPSED },
+				COL_VERSION + " = ?", new String[] { String.valueOf(version) },
+				null, null, null);
+		boolean started;
+		try {
+			started = cursor.moveToFirst();
+			if (started) {
+				if (cursor.getInt(0) == STATE_COMPLETED) {
+					// The version bump commits with the completed state
+					Log.w(TAG, "Migration " + version + " already completed");
+					return;
+				}
+				position = cursor.getLong(1);
+				progress = cursor.getLong(2);
+				total = cursor.getLong(3);
+				elapsed = cursor.getLong(4);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		Log.i(TAG, (started ? "Resuming" : "Starting") + " migration "
+				+ version + " (" + migration.getName() + ") at position "
+				+ position);
+
+		// Prepare the step
+		if (!started) {
+			long start = SystemClock.elapsedRealtime();
+			db.beginTransaction();
+			try {
+				migration.begin(db);
+				total = migration.estimateWork(db);
+				elapsed = SystemClock.elapsedRealtime() - start;
+
+				ContentValues values = new ContentValues();
+				values.put(COL_VERSION, version);
+				values.put(COL_NAME, migration.getName());
+				values.put(COL_STATE, STATE_RUNNING);
+				values.put(COL_TOTAL, total);
+				values.put(COL_ELAPSED, elapsed);
+				db.insertOrThrow(TABLE_NAME, null, values);
+
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+		reportProgress(migration, progress, total);
+
+		// Migrate the data a chunk at a time, then finish the step
+		boolean done = false;
+		while (!done) {
+			long start = SystemClock.elapsedRealtime();
+			db.beginTransaction();
+			try {
+				long next = migration.migrate(db, position, chunkSize);
+				ContentValues values = new ContentValues();
+
+				if (next == Migration.DONE) {
+					migration.finish(db);
+					db.setVersion(version);
+
+					progress = total;
+					values.put(COL_STATE, STATE_COMPLETED);
+					values.put(COL_COMPLETED, System.currentTimeMillis());
+					done = true;
+				} else {
+					position = next;
+					progress = Math.min(progress + chunkSize, total);
+					values.put(COL_POSITION, position);
+				}
+
+				elapsed += SystemClock.elapsedRealtime() - start;
+				values.put(COL_PROGRESS, progress);
+				values.put(COL_ELAPSED, elapsed);
+				db.update(TABLE_NAME, values, COL_VERSION + " = ?",
+						new String[] { String.valueOf(version) });
+
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+			reportProgress(migration, progress, total);
+		}
+
+		Log.i(TAG, "Migration " + version + " (" + migration.getName()
+				+ ") completed in " + elapsed + " ms");
+	}
+
+	/**
+	 * Passes a step's progress on to the listener, if there is one.
+	 *
+	 * @param migration
+	 *            The step.
+	 * @param progress
+	 *            Units of work done.
+	 * @param total
+	 *            Estimated units of work.
+	 */
+	private void reportProgress(Migration migration, long progress, long total) {
+		if (listener != null)
+			listener.onTaskProgress(migration.getName(), progress, total);
+	}
+
+	/**
+	 * Gets the recorded elapsed time of every step that has run against a
+	 * database, indexed by version.
+	 *
+	 * @param db
+	 *            The database.
+	 * @param maxVersion
+	 *            The highest version to report.
+	 * @return The step timings, in milliseconds, with -1 for versions that
+	 *         have no record.
+	 */
+	public static long[] getTimings(SQLiteDatabase db, int maxVersion) {
+		long[] timings = new long[maxVersion + 1];
+		for (int i = 0; i < timings.length; i++) {
+			timings[i] = -1;
+		}
+
+		Cursor cursor;
+		try {
+			cursor = db.query(TABLE_NAME, new String[] { COL_VERSION,
+					COL_ELAPSED }, null, null, null, null, null);
+		} catch (SQLiteException e) {
+			// No migration has ever run against this database
+			return timings;
+		}
+		try {
+			while (cursor.moveToNext()) {
+				int version = cursor.getInt(0);
+				if (version >= 0 && version < timings.length)
+					timings[version] = cursor.getLong(1);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		return timings;
+	}
+
+	/**
+	 * Gets the number of units migrated per transaction.
+	 *
+	 * @return The chunk size.
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * Sets the number of units migrated per transaction.
+	 *
+	 * @param chunkSize
+	 *            The chunk size.
+	 * @throws IllegalArgumentException
+	 *             If the chunk size is less than 1.
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("Chunk size must be at least 1");
+
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Sets the listener notified as steps make progress.
+	 *
+	 * @param listener
+	 *            The listener, may be null.
+	 */
+	public void setListener(ProgressTaskListener listener) {
+		this.listener = listener;
+	}
+}
@@ -0,0 +1,324 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keyset sort order.
+ *
+ * An ordering over one or more columns, with the row ID breaking ties in
+ * the direction of the last column, so every row has a unique position and
+ * a single index on the columns, which ends with the implicit row ID, can
+ * serve the whole order without a sort step.
+ *
+ * Pages are keyed by the sort column values and row ID of a row rather than
+ * by an offset. The conditions built by after() and through() bound the
+ * leading column where they can, so the index seeks straight to the key.
+ * NULL sorts before every other value, as it does in SQLite; columns that
+ * may hold NULL must be declared nullable.
+ *
+ * <pre>
+ * SortOrder order = new SortOrder("_id").desc("desirability").asc("description");
+ *
+ * Query query = Query.from("item").orderBy(order.getOrderBy()).limit(50);
+ * order.after(query, lastKey);
+ * </pre>
+ *
+ * @author krdavis
+ */
+public class SortOrder {
+	// Member variables
+	private final String rowIdColumn;
+	private final List<String> columns = new ArrayList<String>();
+	private final List<Boolean> descending = new ArrayList<Boolean>();
+	private final List<Boolean> nullable = new ArrayList<Boolean>();
+
+	/**
+	 * Constructs a new <tt>SortOrder</tt> object.
+	 *
+	 * @param rowIdColumn
+	 *            The row ID column that breaks ties.
+	 */
+	public SortOrder(String rowIdColumn) {
+		this.rowIdColumn = rowIdColumn;
+	}
+
+	/**
+	 * Adds an ascending column that never holds NULL.
+	 *
+	 * @param column
+	 *            The column name.
+	 * @return This order.
+	 */
+	public SortOrder asc(String column) {
+		return add(column, false, false);
+	}
+
+	/**
+	 * Adds a descending column that never holds NULL.
+	 *
+	 * @param column
+	 *            The column name.
+	 * @return This order.
+	 */
+	public SortOrder desc(String column) {
+		return add(column, true, false);
+	}
+
+	/**
+	 * Adds a column.
+	 *
+	 * @param column
+	 *            The column name.
+	 * @param descending
+	 *            True to sort the column in descending order.
+	 * @param nullable
+	 *            True if the column may hold NULL.
+	 * @return This order.
+	 */
+	public SortOrder add(String column, boolean descending, boolean nullable) {
+		this.columns.add(column);
+		this.descending.add(descending);
+		this.nullable.add(nullable);
+		return this;
+	}
+
+	/**
+	 * Gets the sort columns, followed by the row ID column. These are the
+	 * columns a key is read from.
+	 *
+	 * @return The column names.
+	 */
+	public String[] getKeyColumns() {
+		String[] keyColumns = columns.toArray(new String[columns.size() + 1]);
+		keyColumns[columns.size()] = rowIdColumn;
+		return keyColumns;
+	}
+
+	/**
+	 * Gets the ORDER BY clause, without the keywords.
+	 *
+	 * @return The clause.
+	 */
+	public String getOrderBy() {
+		StringBuilder sb = new StringBuilder();
+
+		for (int i = 0; i < columns.size(); i++) {
+			sb.append(columns.get(i))
+					.append(descending.get(i) ? " DESC, " : " ASC, ");
+		}
+		sb.append(rowIdColumn).append(isRowIdDescending() ? " DESC" : " ASC");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Restricts a query to the rows after a key.
+	 *
+	 * @param query
+	 *            The query.
+	 * @param key
+	 *            The key, as returned by readKey(), null for no restriction.
+	 * @return The query.
+	 */
+	public Query after(Query query, Object[] key) {
+		if (key == null)
+			return query;
+
+		// Seek on the leading column. A NULL key value is the smallest, and
+		// nullable rows after a descending key can't be bounded
+		Object first = key[0];
+		if (first != null) {
+			if (!descending.get(0)) {
+				query.where(columns.get(0) + " >= ?", first);
+			} else if (!nullable.get(0)) {
+				query.where(columns.get(0) + " <= ?", first);
+			}
+		}
+
+		List<Object> args = new ArrayList<Object>();
+		query.where(afterCondition(key, 0, args), args.toArray());
+
+		return query;
+	}
+
+	/**
+	 * Restricts a query to the rows up to and including a key.
+	 *
+	 * @param query
+	 *            The query.
+	 * @param key
+	 *            The key, as returned by readKey(), null for no restriction.
+	 * @return The query.
+	 */
+	public Query through(Query query, Object[] key) {
+		if (key == null)
+			return query;
+
+		// Seek on the leading column, as in after()
+		Object first = key[0];
+		if (first != null) {
+			if (descending.get(0)) {
+				query.where(columns.get(0) + " >= ?", first);
+			} else if (!nullable.get(0)) {
+				query.where(columns.get(0) + " <= ?", first);
+			}
+		}
+
+		// The conditions never evaluate to NULL, so NOT is exact
+		List<Object> args = new ArrayList<Object>();
+		query.where("NOT (" + afterCondition(key, 0, args) + ")", args.toArray());
+
+		return query;
+	}
+
+	/**
+	 * Builds the condition that a row comes after a key, from a column on.
+	 *
+	 * @param key
+	 *            The key.
+	 * @param index
+	 *            Index of the first column to compare.
+	 * @param args
+	 *            Receives the bind arguments, in placeholder order.
+	 * @return The condition.
+	 */
+	private String afterCondition(Object[] key, int index, List<Object> args) {
+		if (index == columns.size()) {
+			args.add(key[index]);
+			return rowIdColumn + (isRowIdDescending() ? " < ?" : " > ?");
+		}
+
+		String column = columns.get(index);
+		Object value = key[index];
+		boolean nulls = nullable.get(index);
+
+		// Rows with the same value, compared on the remaining columns
+		String equal;
+		if (value == null) {
+			equal = column + " IS NULL";
+		} else {
+			args.add(value);
+			equal = nulls ? "(" + column + " IS NOT NULL AND " + column + " = ?)"
+					: column + " = ?";
+		}
+		String rest = equal + " AND (" + afterCondition(key, index + 1, args) + ")";
+
+		// Rows with a value that sorts later. Nothing sorts after NULL in
+		// descending order
+		String later;
+		if (!descending.get(index)) {
+			if (value == null) {
+				later = column + " IS NOT NULL";
+			} else {
+				args.add(value);
+				later = nulls ? "(" + column + " IS NOT NULL AND " + column + " > ?)"
+						: column + " > ?";
+			}
+		} else {
+			if (value == null)
+				return rest;
+
+			args.add(value);
+			later = nulls ? "(" + column + " IS NULL OR " + column + " < ?)"
+					: column + " < ?";
+		}
+
+		return "(" + rest + ") OR " + later;
+	}
+
+	/**
+	 * Reads the key of the row a cursor is on. The cursor must hold the key
+	 * columns.
+	 *
+	 * @param cursor
+	 *            The cursor, moved to the row.
+	 * @return The key: the sort column values, followed by the row ID.
+	 */
+	public Object[] readKey(Cursor cursor) {
+		Object[] key = new Object[columns.size() + 1];
+
+		for (int i = 0; i < columns.size(); i++) {
+			int index = cursor.getColumnIndexOrThrow(columns.get(i));
+
+			switch (cursor.getType(index)) {
+			case Cursor.FIELD_TYPE_NULL:
+				key[i] = null;
+				break;
+			case Cursor.FIELD_TYPE_INTEGER:
+				key[i] = cursor.getLong(index);
+				break;
+			case Cursor.FIELD_TYPE_FLOAT:
+				key[i] = cursor.getDouble(index);
+				break;
+			default:
+				key[i] = cursor.getString(index);
+				break;
+			}
+		}
+		key[columns.size()] = cursor.getLong(cursor
+				.getColumnIndexOrThrow(rowIdColumn));
+
+		return key;
+	}
+
+	/**
+	 * Compares two keys in this order.
+	 *
+	 * @param a
+	 *            The first key.
+	 * @param b
+	 *            The second key.
+	 * @return A negative number, zero or a positive number as the first key
+	 *         sorts before, with or after the second.
+	 */
+	@SuppressWarnings("unchecked")
+	public int compare(Object[] a, Object[] b) {
+		for (int i = 0; i < columns.size(); i++) {
+			int cmp;
+			if (a[i] == null || b[i] == null) {
+				cmp = a[i] == null ? (b[i] == null ? 0 : -1) : 1;
+			} else {
+				cmp = ((Comparable<Object>) a[i]).compareTo(b[i]);
+			}
+
+			if (cmp != 0)
+				return descending.get(i) ? -cmp : cmp;
+		}
+
+		int last = columns.size();
+		int cmp = ((Long) a[last]).compareTo((Long) b[last]);
+		return isRowIdDescending() ? -cmp : cmp;
+	}
+
+	/**
+	 * Indicates whether the row ID is sorted in descending order, which
+	 * follows the last column.
+	 *
+	 * @return True if the row ID is descending.
+	 */
+	private boolean isRowIdDescending() {
+		return !descending.isEmpty() && descending.get(descending.size() - 1);
+	}
+}
@@ -0,0 +1,333 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled statement cache.
+ *
+ * Keeps compiled <tt>SQLiteStatement</tt>s keyed by their SQL text so a
+ * statement is prepared once and then only re-bound on every call. The cache
+ * is bounded and evicts the least recently used statement when full.
+ *
+ * Compiled statements are not safe for concurrent use, so a statement is
+ * taken out of the cache while it runs and put back afterwards; a thread
+ * that finds it taken compiles its own. The cache's lock is only held to
+ * look statements up and put them back, never while one compiles or runs,
+ * as that needs a database connection another thread may be holding while
+ * it waits for the lock. Executions are timed by the
+ * <tt>QueryProfiler</tt>.
+ *
+ * @author krdavis
+ */
+public class StatementCache {
+	// Tag used by logging APIs
+	private static final String TAG = "StatementCache";
+
+	/** Default maximum number of cached statements */
+	public static final int DEFAULT_MAX_SIZE = 16;
+
+	// Member variables
+	private final SQLiteDatabase db;
+	private final LinkedHashMap<String, SQLiteStatement> statements;
+	private long hitCount;
+	private long missCount;
+	private boolean closed;
+
+	/**
+	 * Constructs a new <tt>StatementCache</tt> object.
+	 *
+	 * @param db
+	 *            Database object the statements are compiled against.
+	 * @param maxSize
+	 *            Maximum number of cached statements.
+	 */
+	public StatementCache(SQLiteDatabase db, final int maxSize) {
+		Log.d(TAG, "StatementCache()");
+
+		this.db = db;
+		this.statements = new LinkedHashMap<String, SQLiteStatement>(
+				maxSize, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, SQLiteStatement> eldest) {
+				if (size() > maxSize) {
+					eldest.getValue().close();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Executes an insert statement.
+	 *
+	 * @param sql
+	 *            The statement SQL.
+	 * @param args
+	 *            The bind arguments, may be null.
+	 * @return The row ID of the inserted row or -1 if an error occurred.
+	 */
+	public long executeInsert(String sql, Object[] args) {
+		long start = QueryProfiler.getInstance().start();
+		SQLiteStatement statement = acquire(sql, args);
+		try {
+			return statement.executeInsert();
+		} finally {
+			release(sql, statement);
+			QueryProfiler.getInstance().record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Executes an update or delete statement.
+	 *
+	 * @param sql
+	 *            The statement SQL.
+	 * @param args
+	 *            The bind arguments, may be null.
+	 * @return The number of rows affected.
+	 */
+	public int executeUpdateDelete(String sql, Object[] args) {
+		long start = QueryProfiler.getInstance().start();
+		SQLiteStatement statement = acquire(sql, args);
+		try {
+			return statement.executeUpdateDelete();
+		} finally {
+			release(sql, statement);
+			QueryProfiler.getInstance().record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Executes a query that returns a single numeric value.
+	 *
+	 * @param sql
+	 *            The query SQL.
+	 * @param args
+	 *            The bind arguments, may be null.
+	 * @return The value of the first column of the first row.
+	 */
+	public long simpleQueryForLong(String sql, Object[] args) {
+		long start = QueryProfiler.getInstance().start();
+		SQLiteStatement statement = acquire(sql, args);
+		try {
+			return statement.simpleQueryForLong();
+		} finally {
+			release(sql, statement);
+			QueryProfiler.getInstance().record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Executes a query that returns a single text value.
+	 *
+	 * @param sql
+	 *            The query SQL.
+	 * @param args
+	 *            The bind arguments, may be null.
+	 * @return The value of the first column of the first row.
+	 */
+	public String simpleQueryForString(String sql, Object[] args) {
+		long start = QueryProfiler.getInstance().start();
+		SQLiteStatement statement = acquire(sql, args);
+		try {
+			return statement.simpleQueryForString();
+		} finally {
+			release(sql, statement);
+			QueryProfiler.getInstance().record(db, sql, start);
+		}
+	}
+
+	/**
+	 * Takes the compiled statement for the SQL out of the cache, compiling
+	 * one if it isn't there, and binds the arguments. The statement belongs
+	 * to the calling thread until it is released.
+	 *
+	 * @param sql
+	 *            The statement SQL.
+	 * @param args
+	 *            The bind arguments, may be null.
+	 * @return The bound statement.
+	 */
+	private SQLiteStatement acquire(String sql, Object[] args) {
+		SQLiteStatement statement;
+		synchronized (this) {
+			statement = statements.remove(sql);
+
+			if (statement == null) {
+				missCount++;
+			} else {
+				hitCount++;
+			}
+		}
+
+		if (statement == null)
+			statement = db.compileStatement(sql);
+
+		try {
+			bind(statement, args);
+		} catch (RuntimeException e) {
+			release(sql, statement);
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Puts a statement taken by acquire() back into the cache, or closes it
+	 * if another thread has cached one for the same SQL meanwhile or the
+	 * cache has been closed.
+	 *
+	 * @param sql
+	 *            The statement SQL.
+	 * @param statement
+	 *            The statement.
+	 */
+	private void release(String sql, SQLiteStatement statement) {
+		statement.clearBindings();
+
+		synchronized (this) {
+			if (!closed && !statements.containsKey(sql)) {
+				statements.put(sql, statement);
+				return;
+			}
+		}
+
+		statement.close();
+	}
+
+	/**
+	 * Binds arguments to a compiled statement.
+	 *
+	 * @param statement
+	 *            The statement.
+	 * @param args
+	 *            The bind arguments, may be null. Supported types are
+	 *            String, byte[], Boolean and any Number.
+	 * @throws IllegalArgumentException
+	 *             If an argument has an unsupported type.
+	 */
+	public static void bind(SQLiteStatement statement, Object[] args) {
+		if (args == null)
+			return;
+
+		for (int i = 0; i < args.length; i++) {
+			Object arg = args[i];
+			int index = i + 1;
+
+			if (arg == null) {
+				statement.bindNull(index);
+			} else if (arg instanceof String) {
+				statement.bindString(index, (String) arg);
+			} else if (arg instanceof Double || arg instanceof Float) {
+				statement.bindDouble(index, ((Number) arg).doubleValue());
+			} else if (arg instanceof Number) {
+				statement.bindLong(index, ((Number) arg).longValue());
+			} else if (arg instanceof Boolean) {
+				statement.bindLong(index, ((Boolean) arg) ? 1 : 0);
+			} else if (arg instanceof byte[]) {
+				statement.bindBlob(index, (byte[]) arg);
+			} else {
+				throw new IllegalArgumentException("Unsupported bind argument "
+						+ arg.getClass().getName() + " at index " + index);
+			}
+		}
+	}
+
+	/**
+	 * Gets the database object the statements are compiled against.
+	 *
+	 * @return Database object.
+	 */
+	public SQLiteDatabase getDatabase() {
+		return db;
+	}
+
+	/**
+	 * Gets the number of executions that reused a compiled statement.
+	 *
+	 * @return The hit count.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Gets the number of executions that had to compile a statement.
+	 *
+	 * @return The miss count.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Gets the number of statements currently cached.
+	 *
+	 * @return The cache size.
+	 */
+	public synchronized int size() {
+		return statements.size();
+	}
+
+	/**
+	 * Resets the hit and miss counters.
+	 */
+	public synchronized void resetStats() {
+		hitCount = 0;
+		missCount = 0;
+	}
+
+	/**
+	 * Closes and removes all cached statements. Statements running at the
+	 * time are closed when they finish, and nothing is cached afterwards.
+	 */
+	public synchronized void close() {
+		Log.d(TAG, "close()");
+
+		closed = true;
+		Iterator<SQLiteStatement> it = statements.values().iterator();
+		while (it.hasNext()) {
+			it.next().close();
+			it.remove();
+		}
+	}
+
+	/**
+	 * Returns a string representation of the cache statistics.
+	 *
+	 * @return The statistics.
+	 */
+	@Override
+	public synchronized String toString() {
+		return "size=" + statements.size() + " hits=" + hitCount + " misses="
+				+ missCount;
+	}
+}
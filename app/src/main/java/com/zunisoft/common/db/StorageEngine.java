@@ -0,0 +1,239 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import android.database.Cursor;
+
+import java.util.List;
+
+/**
+ * Storage engine.
+ *
+ * The operations a model persists itself with, independent of where the
+ * rows are kept. Rows are addressed by table name and row ID, and columns
+ * by their logical names, e.g. a category name rather than the ID the
+ * category is stored under. How a table is laid out in the engine is
+ * described by its <tt>StorageTable</tt>, registered before first use.
+ *
+ * Writes that break a unique column throw
+ * <tt>SQLiteConstraintException</tt>, whatever the engine.
+ *
+ * @see SQLiteStorageEngine
+ * @see MemoryStorageEngine
+ *
+ * @author krdavis
+ */
+public interface StorageEngine {
+	/** Row ID column of every table */
+	String COL_ROW_ID = "_id";
+
+	/** Search rank column added to search results, lower is better */
+	String COL_RANK = "rank";
+
+	/** Returned by findId() when no row matches */
+	long NOT_FOUND = -1;
+
+	/**
+	 * Registers the layout of a table. Registering the same table again has
+	 * no effect.
+	 *
+	 * @param table
+	 *            The table.
+	 */
+	void register(StorageTable table);
+
+	/**
+	 * Inserts a row.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The column values, in the same order as the column names.
+	 * @return The row ID of the new row or -1 if an error occurred.
+	 */
+	long insert(String table, String[] columns, Object[] values);
+
+	/**
+	 * Updates some columns of a row.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param id
+	 *            The row ID.
+	 * @param columns
+	 *            The column names.
+	 * @param values
+	 *            The column values, in the same order as the column names.
+	 * @return The number of rows affected.
+	 */
+	int update(String table, long id, String[] columns, Object[] values);
+
+	/**
+	 * Deletes a row.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param id
+	 *            The row ID.
+	 * @return The number of rows affected.
+	 */
+	int delete(String table, long id);
+
+	/**
+	 * Reads a row.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param id
+	 *            The row ID.
+	 * @param columns
+	 *            The columns to read.
+	 * @return Cursor holding the row, empty if there is no such row.
+	 */
+	Cursor load(String table, long id, String[] columns);
+
+	/**
+	 * Reads rows in a sort order, optionally between two keys.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The columns to read, which must include the key columns of
+	 *            the order.
+	 * @param order
+	 *            The sort order.
+	 * @param afterKey
+	 *            Only rows after this key are read, null to start at the
+	 *            first row.
+	 * @param lastKey
+	 *            Only rows up to and including this key are read, null for
+	 *            no upper bound.
+	 * @param limit
+	 *            Maximum number of rows, 0 for no limit.
+	 * @return Cursor holding the rows, in order.
+	 */
+	Cursor findPage(String table, String[] columns, SortOrder order,
+			Object[] afterKey, Object[] lastKey, int limit);
+
+	/**
+	 * Searches the table's search columns. Every word of the search text is
+	 * matched as a prefix, and all words must match. A row is ranked by the
+	 * first ranked column that matches every word on its own, after those by
+	 * whether the words match anywhere.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The columns to read; a COL_RANK column is added.
+	 * @param searchText
+	 *            The text to search for.
+	 * @param order
+	 *            The order of rows with the same rank.
+	 * @return Cursor holding the matching rows, best matches first.
+	 */
+	Cursor search(String table, String[] columns, String searchText,
+			SortOrder order);
+
+	/**
+	 * Counts the rows of a table.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @return The number of rows.
+	 */
+	long count(String table);
+
+	/**
+	 * Counts the rows holding a value in any of several columns. Sees the
+	 * writes of an open transaction.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param columns
+	 *            The columns to look in.
+	 * @param value
+	 *            The value, not null.
+	 * @return The number of rows.
+	 */
+	long countMatching(String table, String[] columns, Object value);
+
+	/**
+	 * Finds the row holding a value in a column. Sees the writes of an open
+	 * transaction.
+	 *
+	 * @param table
+	 *            The table name.
+	 * @param column
+	 *            The column, usually a unique one.
+	 * @param value
+	 *            The value, not null.
+	 * @return The row ID of the first matching row, or NOT_FOUND.
+	 */
+	long findId(String table, String column, Object value);
+
+	/**
+	 * Runs a SQL query. Reporting queries that have no engine-neutral form
+	 * use this.
+	 *
+	 * @param query
+	 *            The query.
+	 * @return Result set of the query.
+	 * @throws UnsupportedOperationException
+	 *             If the engine doesn't run SQL.
+	 */
+	Cursor query(Query query);
+
+	/**
+	 * Gets the plan SQLite would use to run a query.
+	 *
+	 * @param query
+	 *            The query.
+	 * @return One line per step of the plan.
+	 * @throws UnsupportedOperationException
+	 *             If the engine doesn't run SQL.
+	 */
+	List<String> explain(Query query);
+
+	/**
+	 * Begins a transaction. Transactions nest; the writes are only kept if
+	 * every level was marked successful.
+	 */
+	void beginTransaction();
+
+	/**
+	 * Marks the current transaction as successful.
+	 */
+	void setTransactionSuccessful();
+
+	/**
+	 * Ends the current transaction, committing or rolling back the writes
+	 * when the outermost one ends.
+	 */
+	void endTransaction();
+
+	/**
+	 * Indicates whether a transaction is open.
+	 *
+	 * @return True if a transaction is open.
+	 */
+	boolean inTransaction();
+}
@@ -0,0 +1,225 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage table.
+ *
+ * Describes how a model's table is laid out, so every storage engine can
+ * store it: the view its rows are read from, columns kept in lookup tables,
+ * the searchable columns and their full-text index, and unique columns.
+ * Engines use the parts that apply to them.
+ *
+ * <pre>
+ * StorageTable table = new StorageTable("item")
+ *         .view("item_view")
+ *         .lookup("category", "category_id", categories)
+ *         .search("item_fts", 2, "description", "category", "notes")
+ *         .unique("barcode");
+ * </pre>
+ *
+ * @author krdavis
+ */
+public class StorageTable {
+	// Member variables
+	private final String name;
+	private String view;
+	private final Map<String, String> lookupIdColumns = new HashMap<String, String>();
+	private final Map<String, LookupTable> lookupTables = new HashMap<String, LookupTable>();
+	private String searchIndex;
+	private String[] searchColumns = new String[0];
+	private int rankedColumns;
+	private final List<String> uniqueColumns = new ArrayList<String>();
+
+	/**
+	 * Constructs a new <tt>StorageTable</tt> object.
+	 *
+	 * @param name
+	 *            The table name.
+	 */
+	public StorageTable(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Sets the view rows are read from. The view must expose the logical
+	 * columns, e.g. lookup values by name.
+	 *
+	 * @param view
+	 *            The view name.
+	 * @return This table.
+	 */
+	public StorageTable view(String view) {
+		this.view = view;
+		return this;
+	}
+
+	/**
+	 * Declares a column whose values are kept in a lookup table. The table
+	 * stores the value's ID in another column.
+	 *
+	 * @param column
+	 *            The logical column name.
+	 * @param idColumn
+	 *            The column holding the lookup ID.
+	 * @param lookup
+	 *            The lookup table.
+	 * @return This table.
+	 */
+	public StorageTable lookup(String column, String idColumn, LookupTable lookup) {
+		lookupIdColumns.put(column, idColumn);
+		lookupTables.put(column, lookup);
+		return this;
+	}
+
+	/**
+	 * Declares the searchable columns.
+	 *
+	 * @param searchIndex
+	 *            The full-text index table, sharing row IDs with the table.
+	 * @param rankedColumns
+	 *            Number of leading search columns a row is ranked by.
+	 * @param columns
+	 *            The searchable columns.
+	 * @return This table.
+	 */
+	public StorageTable search(String searchIndex, int rankedColumns,
+			String... columns) {
+		this.searchIndex = searchIndex;
+		this.rankedColumns = rankedColumns;
+		this.searchColumns = columns;
+		return this;
+	}
+
+	/**
+	 * Declares a unique column. NULL may occur any number of times.
+	 *
+	 * @param column
+	 *            The column name.
+	 * @return This table.
+	 */
+	public StorageTable unique(String column) {
+		uniqueColumns.add(column);
+		return this;
+	}
+
+	/**
+	 * Gets the table name.
+	 *
+	 * @return The name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the name rows are read from: the view, if there is one.
+	 *
+	 * @return The view or table name.
+	 */
+	public String getReadName() {
+		return view != null ? view : name;
+	}
+
+	/**
+	 * Gets the lookup ID column of a column.
+	 *
+	 * @param column
+	 *            The logical column name.
+	 * @return The ID column, or null if the column isn't a lookup column.
+	 */
+	public String getLookupIdColumn(String column) {
+		return lookupIdColumns.get(column);
+	}
+
+	/**
+	 * Gets the lookup table of a column.
+	 *
+	 * @param column
+	 *            The logical column name.
+	 * @return The lookup table, or null if the column isn't a lookup column.
+	 */
+	public LookupTable getLookupTable(String column) {
+		return lookupTables.get(column);
+	}
+
+	/**
+	 * Gets the full-text index table.
+	 *
+	 * @return The index table name, or null if there is none.
+	 */
+	public String getSearchIndex() {
+		return searchIndex;
+	}
+
+	/**
+	 * Gets the searchable columns.
+	 *
+	 * @return The column names, ranked columns first.
+	 */
+	public String[] getSearchColumns() {
+		return searchColumns;
+	}
+
+	/**
+	 * Gets the number of leading search columns a row is ranked by.
+	 *
+	 * @return The number of ranked columns.
+	 */
+	public int getRankedColumns() {
+		return rankedColumns;
+	}
+
+	/**
+	 * Gets the unique columns.
+	 *
+	 * @return The column names.
+	 */
+	public List<String> getUniqueColumns() {
+		return Collections.unmodifiableList(uniqueColumns);
+	}
+
+	/**
+	 * Splits search text into the lowercase words that are matched as
+	 * prefixes. Characters other than letters and digits separate words.
+	 *
+	 * @param searchText
+	 *            The search text, may be null.
+	 * @return The words, empty if the text holds none.
+	 */
+	public static List<String> searchTerms(String searchText) {
+		List<String> terms = new ArrayList<String>();
+		if (searchText == null)
+			return terms;
+
+		for (String word : searchText.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0)
+				terms.add(word);
+		}
+
+		return terms;
+	}
+}
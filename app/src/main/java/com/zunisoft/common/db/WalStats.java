@@ -0,0 +1,166 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.db;
+
+/**
+ * Write-ahead log statistics.
+ *
+ * Snapshot of the database's journal and checkpoint state as reported by <tt>DatabaseAdapter.getWalStats()</tt>.
+ *
+ * @author krdavis
+ */
+public class WalStats {
+	// Journal state
+	private String journalMode;
+	private long walFileSize;
+	private int autoCheckpoint;
+
+	// Checkpoint state
+	private int checkpointCount;
+	private long lastCheckpointTime;
+	private int lastCheckpointLogFrames;
+	private int lastCheckpointedFrames;
+	private boolean lastCheckpointBusy;
+
+	/**
+	 * Constructs a new <tt>WalStats</tt> object.
+	 *
+	 * @param journalMode
+	 *            The journal mode.
+	 * @param walFileSize
+	 *            Size of the write-ahead log file in bytes.
+	 * @param autoCheckpoint
+	 *            The auto-checkpoint threshold in pages.
+	 * @param checkpointCount
+	 *            Number of explicit checkpoints run.
+	 * @param lastCheckpointTime
+	 *            Time of the last explicit checkpoint in milliseconds since
+	 *            the epoch, 0 if none was run.
+	 * @param lastCheckpointLogFrames
+	 *            Frames in the log when the last checkpoint ran.
+	 * @param lastCheckpointedFrames
+	 *            Frames moved into the database by the last checkpoint.
+	 * @param lastCheckpointBusy
+	 *            True if the last checkpoint could not complete.
+	 */
+	public WalStats(String journalMode, long walFileSize, int autoCheckpoint,
+			int checkpointCount, long lastCheckpointTime,
+			int lastCheckpointLogFrames, int lastCheckpointedFrames,
+			boolean lastCheckpointBusy) {
+		this.journalMode = journalMode;
+		this.walFileSize = walFileSize;
+		this.autoCheckpoint = autoCheckpoint;
+		this.checkpointCount = checkpointCount;
+		this.lastCheckpointTime = lastCheckpointTime;
+		this.lastCheckpointLogFrames = lastCheckpointLogFrames;
+		this.lastCheckpointedFrames = lastCheckpointedFrames;
+		this.lastCheckpointBusy = lastCheckpointBusy;
+	}
+
+	/**
+	 * Gets the journal mode.
+	 *
+	 * @return The journal mode, e.g. "wal".
+	 */
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	/**
+	 * Gets the size of the write-ahead log file.
+	 *
+	 * @return The log file size in bytes.
+	 */
+	public long getWalFileSize() {
+		return walFileSize;
+	}
+
+	/**
+	 * Gets the auto-checkpoint threshold.
+	 *
+	 * @return The threshold in pages, 0 if auto-checkpointing is off.
+	 */
+	public int getAutoCheckpoint() {
+		return autoCheckpoint;
+	}
+
+	/**
+	 * Gets the number of explicit checkpoints run.
+	 *
+	 * @return The checkpoint count.
+	 */
+	public int getCheckpointCount() {
+		return checkpointCount;
+	}
+
+	/**
+	 * Gets the time of the last explicit checkpoint.
+	 *
+	 * @return Milliseconds since the epoch, 0 if none was run.
+	 */
+	public long getLastCheckpointTime() {
+		return lastCheckpointTime;
+	}
+
+	/**
+	 * Gets the number of frames in the log when the last checkpoint ran.
+	 *
+	 * @return The frame count.
+	 */
+	public int getLastCheckpointLogFrames() {
+		return lastCheckpointLogFrames;
+	}
+
+	/**
+	 * Gets the number of frames the last checkpoint moved into the database.
+	 *
+	 * @return The frame count.
+	 */
+	public int getLastCheckpointedFrames() {
+		return lastCheckpointedFrames;
+	}
+
+	/**
+	 * Checks whether the last checkpoint was blocked by a reader or writer.
+	 *
+	 * @return True if the last checkpoint could not complete.
+	 */
+	public boolean isLastCheckpointBusy() {
+		return lastCheckpointBusy;
+	}
+
+	/**
+	 * Returns a string representation of the statistics.
+	 *
+	 * @return The statistics.
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("journal=").append(journalMode);
+		sb.append(" walBytes=").append(walFileSize);
+		sb.append(" autoCheckpoint=").append(autoCheckpoint);
+		sb.append(" checkpoints=").append(checkpointCount);
+		sb.append(" lastCheckpoint=").append(lastCheckpointedFrames)
+				.append("/").append(lastCheckpointLogFrames);
+		if (lastCheckpointBusy)
+			sb.append(" (busy)");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.CompressFormat;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Photo codec backed by the platform's bitmap compressor.
+ *
+ * PNG is lossless and ignores the quality setting. JPEG and WebP are lossy,
+ * much smaller and faster to encode for camera photos, but drop
+ * transparency, so transparent pixels come back black.
+ *
+ * @author krdavis
+ */
+public class BitmapCodec implements PhotoCodec {
+	/** Default JPEG quality, 0 to 100 */
+	public static final int DEFAULT_JPEG_QUALITY = 85;
+
+	/** Default WebP quality, 0 to 100 */
+	public static final int DEFAULT_WEBP_QUALITY = 80;
+
+	// Encoded size assumed per pixel when sizing the output buffer
+	private static final int BYTES_PER_PIXEL_ESTIMATE = 1;
+
+	// Member variables
+	private final CompressFormat format;
+	private final int quality;
+
+	/**
+	 * Constructs a new <tt>BitmapCodec</tt> object.
+	 *
+	 * @param format
+	 *            The compression format.
+	 * @param quality
+	 *            Compression quality from 0 to 100, ignored by lossless
+	 *            formats.
+	 * @throws IllegalArgumentException
+	 *             If the quality is out of range.
+	 */
+	public BitmapCodec(CompressFormat format, int quality) {
+		if (quality < 0 || quality > 100)
+			throw new IllegalArgumentException("Quality out of range: "
+					+ quality);
+
+		this.format = format;
+		this.quality = quality;
+	}
+
+	/**
+	 * Creates a lossless PNG codec.
+	 *
+	 * @return The codec.
+	 */
+	public static BitmapCodec png() {
+		return new BitmapCodec(CompressFormat.PNG, 100);
+	}
+
+	/**
+	 * Creates a JPEG codec.
+	 *
+	 * @param quality
+	 *            Compression quality from 0 to 100.
+	 * @return The codec.
+	 */
+	public static BitmapCodec jpeg(int quality) {
+		return new BitmapCodec(CompressFormat.JPEG, quality);
+	}
+
+	/**
+	 * Creates a lossy WebP codec.
+	 *
+	 * @param quality
+	 *            Compression quality from 0 to 100.
+	 * @return The codec.
+	 */
+	public static BitmapCodec webp(int quality) {
+		return new BitmapCodec(CompressFormat.WEBP, quality);
+	}
+
+	/**
+	 * Gets the compression format.
+	 *
+	 * @return The format.
+	 */
+	public CompressFormat getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the compression quality.
+	 *
+	 * @return Quality from 0 to 100.
+	 */
+	public int getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Gets the name of the codec.
+	 *
+	 * @return The format and, for lossy formats, the quality.
+	 */
+	@Override
+	public String getName() {
+		return format == CompressFormat.PNG ? format.name()
+				: format.name() + "-" + quality;
+	}
+
+	/**
+	 * Encodes a photo.
+	 *
+	 * @param photo
+	 *            The photo.
+	 * @return The encoded data or null if the photo cannot be encoded.
+	 */
+	@Override
+	public byte[] encode(Bitmap photo) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				photo.getWidth() * photo.getHeight() * BYTES_PER_PIXEL_ESTIMATE);
+
+		if (!photo.compress(format, quality, out))
+			return null;
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns a string representation of the codec.
+	 *
+	 * @return The codec name.
+	 */
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
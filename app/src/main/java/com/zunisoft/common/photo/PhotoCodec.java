@@ -0,0 +1,50 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.common.photo;
+
+import android.graphics.Bitmap;
+
+/**
+ * Photo codec interface.
+ *
+ * Encodes photos into the bytes kept in the photo store. Decoding doesn't
+ * go through the codec: the platform decoder recognizes the format from the
+ * data, so photos stored by any codec, or by an earlier version of the app,
+ * can always be read back.
+ *
+ * @author krdavis
+ */
+public interface PhotoCodec {
+	/**
+	 * Gets the name of the codec, for logging and benchmarks.
+	 *
+	 * @return The name.
+	 */
+	String getName();
+
+	/**
+	 * Encodes a photo.
+	 *
+	 * @param photo
+	 *            The photo.
+	 * @return The encoded data or null if the photo cannot be encoded.
+	 */
+	byte[] encode(Bitmap photo);
+}
@@ -0,0 +1,392 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.common.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content addressed photo store.
+ *
+ * Photos are kept as individual files under the store directory and are
+ * referenced by the SHA-1 hash of their encoded bytes. Storing the same
+ * content twice yields the same reference and a single file on disk, so
+ * identical photos are deduplicated automatically. Files are sharded into
+ * sub-directories named after the first two characters of their reference.
+ *
+ * Bitmaps are encoded by a pluggable codec chosen by photo size. Large
+ * photos default to lossy JPEG, small images to lossless PNG.
+ *
+ * @author krdavis
+ */
+public class PhotoStore {
+	// Tag used by logging APIs
+	private static final String TAG = "PhotoStore";
+
+	// Hash algorithm used to build photo references
+	private static final String HASH_ALGORITHM = "SHA-1";
+
+	// Hex digits used to encode references
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	// Prefix for files that are still being written
+	private static final String TEMP_PREFIX = ".tmp-";
+
+	// Size of the buffer used for file I/O
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Default pixel count from which a photo is encoded as large */
+	public static final int DEFAULT_LARGE_PHOTO_PIXELS = 128 * 128;
+
+	// Member variables
+	private final File storeDir;
+	private PhotoCodec smallCodec = BitmapCodec.png();
+	private PhotoCodec largeCodec = BitmapCodec.jpeg(BitmapCodec.DEFAULT_JPEG_QUALITY);
+	private int largePhotoPixels = DEFAULT_LARGE_PHOTO_PIXELS;
+
+	/**
+	 * Constructs a new <tt>PhotoStore</tt> object.
+	 *
+	 * @param storeDir
+	 *            Directory the photos are stored in. The directory will be
+	 *            created if it doesn't exist.
+	 */
+	public PhotoStore(File storeDir) {
+		Log.d(TAG, "PhotoStore()");
+
+		this.storeDir = storeDir;
+
+		// If the directory doesn't exist, create it
+		if (!storeDir.exists()) {
+			storeDir.mkdirs();
+		}
+	}
+
+	/**
+	 * Stores the specified photo data. If a photo with identical content is
+	 * already present it is reused and nothing is written.
+	 *
+	 * @param data
+	 *            Encoded photo data.
+	 * @return The photo reference or null if the photo could not be stored.
+	 */
+	public String put(byte[] data) {
+		Log.d(TAG, "put()");
+
+		String ref = hash(data);
+		if (ref == null)
+			return null;
+
+		File file = getFile(ref);
+		if (file.exists())
+			return ref;
+
+		// Write to a temp file first so a partially written photo is never
+		// visible under its reference
+		File dir = file.getParentFile();
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		File temp = new File(dir, TEMP_PREFIX + ref);
+
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(temp);
+			out.write(data);
+			out.close();
+			out = null;
+
+			if (!temp.renameTo(file) && !file.exists()) {
+				Log.e(TAG, "Couldn't move photo into place: " + file);
+				return null;
+			}
+		} catch (IOException e) {
+			Log.e(TAG, "Writing photo failed", e);
+			return null;
+		} finally {
+			closeQuietly(out);
+			if (temp.exists())
+				temp.delete();
+		}
+
+		return ref;
+	}
+
+	/**
+	 * Encodes the specified photo and stores it.
+	 *
+	 * @param photo
+	 *            The photo.
+	 * @return The photo reference or null if the photo could not be encoded
+	 *         or stored.
+	 */
+	public String put(Bitmap photo) {
+		byte[] data = encode(photo);
+		if (data == null)
+			return null;
+
+		return put(data);
+	}
+
+	/**
+	 * Encodes the specified photo with the codec for its size.
+	 *
+	 * @param photo
+	 *            The photo.
+	 * @return The encoded data or null if the photo could not be encoded.
+	 */
+	public byte[] encode(Bitmap photo) {
+		PhotoCodec codec = getCodec(photo);
+
+		byte[] data = codec.encode(photo);
+		if (data == null)
+			Log.e(TAG, "Encoding photo as " + codec.getName() + " failed");
+
+		return data;
+	}
+
+	/**
+	 * Gets the codec a photo is encoded with.
+	 *
+	 * @param photo
+	 *            The photo.
+	 * @return The large photo codec if the photo has at least the large
+	 *         photo pixel count, the small photo codec otherwise.
+	 */
+	public PhotoCodec getCodec(Bitmap photo) {
+		return photo.getWidth() * photo.getHeight() >= largePhotoPixels
+				? largeCodec : smallCodec;
+	}
+
+	/**
+	 * Sets the codecs photos are encoded with. Photos already stored are
+	 * kept as they are and remain readable.
+	 *
+	 * @param smallCodec
+	 *            Codec for photos below the large photo pixel count.
+	 * @param largeCodec
+	 *            Codec for photos of at least the large photo pixel count.
+	 * @param largePhotoPixels
+	 *            Pixel count from which a photo is encoded as large.
+	 */
+	public void setCodecs(PhotoCodec smallCodec, PhotoCodec largeCodec,
+			int largePhotoPixels) {
+		this.smallCodec = smallCodec;
+		this.largeCodec = largeCodec;
+		this.largePhotoPixels = largePhotoPixels;
+	}
+
+	/**
+	 * Reads the data of the specified photo.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @return The encoded photo data or null if the photo doesn't exist.
+	 */
+	public byte[] get(String ref) {
+		Log.d(TAG, "get()");
+
+		File file = getFile(ref);
+		if (!file.exists())
+			return null;
+
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(
+					(int) file.length());
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} catch (IOException e) {
+			Log.e(TAG, "Reading photo failed", e);
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Decodes the specified photo into a bitmap.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @return The decoded bitmap or null if the photo doesn't exist or cannot
+	 *         be decoded.
+	 */
+	public Bitmap decode(String ref) {
+		Log.d(TAG, "decode()");
+
+		File file = getFile(ref);
+		if (!file.exists())
+			return null;
+
+		return BitmapFactory.decodeFile(file.getPath());
+	}
+
+	/**
+	 * Decodes the specified photo into a bitmap on a background thread.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @param callback
+	 *            Callback that receives the bitmap on the main thread.
+	 * @return The decoding task, which can be cancelled.
+	 */
+	public AsyncTask<Void, Void, Bitmap> decodeAsync(final String ref,
+			final PhotoCallback callback) {
+		Log.d(TAG, "decodeAsync()");
+
+		AsyncTask<Void, Void, Bitmap> task = new AsyncTask<Void, Void, Bitmap>() {
+			@Override
+			protected Bitmap doInBackground(Void... args) {
+				return decode(ref);
+			}
+
+			@Override
+			protected void onPostExecute(Bitmap photo) {
+				callback.onPhotoLoaded(photo);
+			}
+		};
+
+		return task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+	}
+
+	/**
+	 * Checks whether the specified photo is present in the store.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @return True if the photo exists, false otherwise.
+	 */
+	public boolean contains(String ref) {
+		return getFile(ref).exists();
+	}
+
+	/**
+	 * Removes the specified photo from the store.
+	 *
+	 * Callers are responsible for making sure the photo is no longer
+	 * referenced, since identical photos share a single file.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @return True if the photo was removed, false otherwise.
+	 */
+	public boolean delete(String ref) {
+		Log.d(TAG, "delete()");
+
+		return getFile(ref).delete();
+	}
+
+	/**
+	 * Gets the file that holds the specified photo.
+	 *
+	 * @param ref
+	 *            Photo reference.
+	 * @return The photo file. The file may not exist.
+	 */
+	public File getFile(String ref) {
+		return new File(new File(storeDir, ref.substring(0, 2)), ref);
+	}
+
+	/**
+	 * Gets the directory the photos are stored in.
+	 *
+	 * @return The store directory.
+	 */
+	public File getStoreDir() {
+		return storeDir;
+	}
+
+	/**
+	 * Reads the dimensions of encoded photo data without decoding the pixels.
+	 *
+	 * @param data
+	 *            Encoded photo data.
+	 * @return Array holding the width and height or null if the data cannot
+	 *         be decoded.
+	 */
+	public static int[] decodeDimensions(byte[] data) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+		if (options.outWidth <= 0 || options.outHeight <= 0)
+			return null;
+
+		return new int[] { options.outWidth, options.outHeight };
+	}
+
+	/**
+	 * Builds the reference for the specified photo data.
+	 *
+	 * @param data
+	 *            Encoded photo data.
+	 * @return The hex encoded content hash or null if hashing is unavailable.
+	 */
+	public static String hash(byte[] data) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			byte[] bytes = digest.digest(data);
+
+			char[] hex = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++) {
+				hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+				hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+			}
+			return new String(hex);
+		} catch (NoSuchAlgorithmException e) {
+			Log.e(TAG, HASH_ALGORITHM + " not available", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Closes a stream, ignoring any errors.
+	 *
+	 * @param stream
+	 *            Stream to close, may be null.
+	 */
+	private static void closeQuietly(Closeable stream) {
+		if (stream != null) {
+			try {
+				stream.close();
+			} catch (IOException e) {
+				Log.w(TAG, "Error closing stream.");
+			}
+		}
+	}
+}
@@ -31,7 +31,7 @@ import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 
-import com.zunisoft.common.concurrent.TaskListener;
+import com.zunisoft.common.concurrent.ProgressTaskListener;
 import com.zunisoft.common.db.DatabaseAdapter;
 import com.zunisoft.wishlist.fragment.AboutFragment;
 import com.zunisoft.wishlist.fragment.ExternalStorageStatusFragment;
@@ -45,7 +45,7 @@ import com.zunisoft.wishlist.fragment.ItemListFragment;
  * @author krdavis
  */
 
-public class MainActivity extends ActionBarActivity implements TaskListener {
+public class MainActivity extends ActionBarActivity implements ProgressTaskListener {
 
     // Tag used by logging APIs
     private static final String TAG = "MainActivity";
@@ -232,6 +232,7 @@ public class MainActivity extends ActionBarActivity implements TaskListener {
     /**
      * Called when a task starts execution.
      */
+    @Override
     public void onTaskStarted() {
         Log.d(TAG, "onTaskStarted()");
 
@@ -249,6 +250,7 @@ public class MainActivity extends ActionBarActivity implements TaskListener {
      * @param result
      *            Result message for task that has finished executing.
      */
+    @Override
     public void onTaskFinished(String result) {
         Log.d(TAG, "onTaskFinished()");
 
@@ -256,20 +258,53 @@ public class MainActivity extends ActionBarActivity implements TaskListener {
             pdialog.dismiss();
         }
 
-        if (Integer.valueOf(result) == SetupTask.SETUP_OK)
+        if (Integer.valueOf(result) == SetupTask.SETUP_OK) {
             setupChecked = true;
 
+            // Tidy up the database once the app is idle
+            DatabaseAdapter.getInstance(getApplicationContext()).getMaintenance().schedule();
+        }
+
         isTaskRunning = false;
     }
 
+    /**
+     * Called while a task is executing to report its progress. The setup task
+     * reports database upgrade progress from its background thread.
+     *
+     * @param message
+     *            Description of the work currently being done.
+     * @param progress
+     *            Units of work done so far.
+     * @param max
+     *            Total units of work, 0 if unknown.
+     */
+    @Override
+    public void onTaskProgress(final String message, final long progress,
+            final long max) {
+        Log.d(TAG, "onTaskProgress() -> " + message + " " + progress + "/" + max);
+
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (pdialog == null || !pdialog.isShowing())
+                    return;
+
+                int percent = max > 0 ? (int) (progress * 100 / max) : 0;
+                pdialog.setMessage(getString(R.string.progress_dlg_upgrade_msg,
+                        message, percent));
+            }
+        });
+    }
+
     // Setup task
     private class SetupTask extends AsyncTask<Void, Void, Integer> {
         public static final int SETUP_OK = 0;
         public static final int SETUP_FAIL = 1;
 
-        private final TaskListener listener;
+        private final ProgressTaskListener listener;
 
-        public SetupTask(TaskListener listener) {
+        public SetupTask(ProgressTaskListener listener) {
             this.listener = listener;
         }
 
@@ -283,9 +318,9 @@ public class MainActivity extends ActionBarActivity implements TaskListener {
 
             Integer setupResult;
 
-            // Get the db adapter
+            // Get the db adapter, upgrading the database if required
             DatabaseAdapter dbAdapter = DatabaseAdapter
-                    .getInstance(getApplicationContext());
+                    .getInstance(getApplicationContext(), listener);
 
             setupResult = dbAdapter.getDatabase() == null ? SETUP_FAIL : SETUP_OK;
 
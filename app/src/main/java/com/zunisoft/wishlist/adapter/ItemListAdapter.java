@@ -21,172 +21,781 @@ package com.zunisoft.wishlist.adapter;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.os.AsyncTask;
 import android.util.Log;
+import android.util.LruCache;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.RatingBar;
-import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 
+import com.zunisoft.common.db.ChangeBus;
+import com.zunisoft.common.db.ChangeEvent;
+import com.zunisoft.common.db.ChangeListener;
 import com.zunisoft.common.db.DatabaseAdapter;
+import com.zunisoft.common.db.DatabaseCallback;
+import com.zunisoft.common.db.DatabaseExecutor;
+import com.zunisoft.common.db.SortOrder;
+import com.zunisoft.common.photo.PhotoCallback;
 import com.zunisoft.wishlist.R;
 import com.zunisoft.wishlist.model.Item;
+import com.zunisoft.wishlist.model.ItemMapper;
 
 import java.text.DateFormat;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
- * A ListAdapter that manages a ListView backed by a cursor of items.
+ * A ListAdapter that manages a ListView backed by pages of items.
+ *
+ * Items are read a page at a time with Item.findPage(), in one of the item
+ * sort orders. The next page is
+ * prefetched in the background as the list nears the end of the loaded
+ * rows, and pages far from the visible position are closed. Each page's
+ * key is kept, so a closed page is re-read with a single indexed seek when
+ * it scrolls back into view. Memory use therefore depends on the page size,
+ * plus a row ID per loaded item, not on the size of the rows.
+ *
+ * The adapter listens to the change bus and applies item changes by
+ * re-reading only the pages the changed rows left or entered.
+ *
+ * All reads run on the database executor, one at a time, so the pages and
+ * their keys only change on the main thread between reads. Rows of a page
+ * that is still being re-read are shown blank until it arrives.
+ *
+ * Thumbnails are decoded in the background and kept in a small cache keyed
+ * by photo reference; a row shows the placeholder until its photo arrives.
  *
  * @see com.zunisoft.wishlist.model.Item
  *
  * @author krdavis
  */
-public class ItemListAdapter extends SimpleCursorAdapter {
+public class ItemListAdapter extends BaseAdapter implements ChangeListener {
     // Tag used by logging APIs
     private static final String TAG = "ItemListAdapter";
 
+    /** Default number of rows from the end at which the next page is loaded */
+    public static final int DEFAULT_PREFETCH_DISTANCE = 10;
+
+    /** Default number of pages kept open around the visible position */
+    public static final int DEFAULT_MAX_OPEN_PAGES = 5;
+
+    /** Size of the decoded thumbnail cache in bytes */
+    public static final int THUMBNAIL_CACHE_SIZE = 2 * 1024 * 1024;
+
     // Member variables
-    private Cursor cursor;
     private Context context;
+    private LayoutInflater inflater;
     private DatabaseAdapter dba;
     private Item item;
-    private DateFormat dateStorageFormat;
     private DateFormat dateDisplayFormat;
 
+    // Paging state. Page i holds the items after the key at index i of the
+    // key list, up to and including the key at index i + 1; the key of page
+    // 0 is null. Once the last page is loaded it has no upper key
+    private final SortOrder order;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private int maxOpenPages = DEFAULT_MAX_OPEN_PAGES;
+    private final List<Cursor> pages = new ArrayList<Cursor>();
+    private final List<long[]> pageIds = new ArrayList<long[]>();
+    private final List<Object[]> pageKeys = new ArrayList<Object[]>();
+    private int[] pageStarts = new int[0];
+    private int count;
+    private boolean lastPageLoaded;
+    private boolean closed;
+    private Future<?> task;
+    private final List<ChangeEvent> pendingChanges = new ArrayList<ChangeEvent>();
+
+    // Row ID column index, the same for every page
+    private int colId;
+
+    // Decoded thumbnails by photo reference, and the decodes running for
+    // each row's image view
+    private final LruCache<String, Bitmap> thumbnails =
+            new LruCache<String, Bitmap>(THUMBNAIL_CACHE_SIZE) {
+                @Override
+                protected int sizeOf(String ref, Bitmap bitmap) {
+                    return bitmap.getRowBytes() * bitmap.getHeight();
+                }
+            };
+    private final Map<ImageView, AsyncTask<?, ?, ?>> thumbnailTasks =
+            new HashMap<ImageView, AsyncTask<?, ?, ?>>();
+
+    // Row mapper and the item every row is mapped into for binding
+    private final ItemMapper mapper = new ItemMapper();
+    private final Item row;
+
     /**
      * Constructs a new <tt>ItemListAdapter</tt>.
      *
      * @param context
-     *            The context where the ListView associated with this
-     *            SimpleListItemFactory is running.
-     * @param layout
-     *            Resource identifier of a layout file that defines the views
-     *            for this list item. The layout file should include at least
-     *            those named views defined in "to".
-     * @param c
-     *            The database cursor. Can be null if the cursor is not
-     *            available yet.
-     * @param from
-     *            A list of column names representing the data to bind to the
-     *            UI. Can be null if the cursor is not available yet.
-     * @param to
-     *            The views that should display column in the "from" parameter.
-     *            These should all be TextViews. The first N views in this list
-     *            are given the values of the first N columns in the from
-     *            parameter. Can be null if the cursor is not available yet.
-     */
-    public ItemListAdapter(Context context, int layout, Cursor c, String[] from,
-                          int[] to) {
-        super(context, layout, c, from, to);
-
+     *            The context where the ListView associated with this adapter
+     *            is running.
+     * @param order
+     *            The sort order the first page was read in.
+     * @param firstPage
+     *            The first page of items, as returned by Item.findPage().
+     * @param pageSize
+     *            The page size the first page was read with.
+     * @param prefetchDistance
+     *            Number of rows from the end of the loaded rows at which the
+     *            next page is loaded.
+     */
+    public ItemListAdapter(Context context, SortOrder order, Cursor firstPage,
+                           int pageSize, int prefetchDistance) {
         Log.d(TAG, "ItemListAdapter()");
 
-        this.cursor = c;
         this.context = context;
+        this.inflater = LayoutInflater.from(context);
+        this.order = order;
+        this.pageSize = pageSize;
+        this.prefetchDistance = prefetchDistance;
 
         this.dba = DatabaseAdapter.getInstance(context);
         this.item = new Item(this.context.getResources());
-        this.item.setSQLiteDatabase(dba.getDatabase());
+        this.item.setSQLiteDatabase(dba.getDatabase(), dba.getReaderDatabase());
+        this.item.setPhotoStore(dba.getPhotoStore());
 
-        // Set the date format objects
+        // Set the date format object
         String datePattern = context.getResources().getString(
-                R.string.date_storage_format);
-        dateStorageFormat = new SimpleDateFormat(datePattern);
-
-        datePattern = context.getResources().getString(
                 R.string.date_display_format);
         dateDisplayFormat = new SimpleDateFormat(datePattern);
+
+        // Resolve the row ID column index
+        colId = firstPage.getColumnIndexOrThrow(Item.COL_ROW_ID);
+        row = new Item(this.context.getResources());
+
+        pageKeys.add(null);
+        appendPage(firstPage);
+
+        ChangeBus.getInstance().register(this);
+    }
+
+    /**
+     * How many items are in the data set represented by this adapter. Grows
+     * as pages are loaded.
+     *
+     * @return Count of items.
+     */
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the data item associated with the specified position in the data set.
+     *
+     * @param position
+     *            Position of the item whose data we want within the adapter's
+     *            data set.
+     * @return The page cursor, moved to the item.
+     */
+    @Override
+    public Object getItem(int position) {
+        return moveToPosition(position);
     }
 
     /**
-     * Binds all of the field names passed into the "to" parameter of the
-     * constructor with their corresponding cursor columns as specified in the
-     * "from" parameter. If no appropriate binding can be found, an
-     * IllegalStateException is thrown.
+     * Get the row id associated with the specified position in the list.
+     *
+     * @param position
+     *            The position of the item within the adapter's data set whose
+     *            row id we want.
+     * @return The item row ID.
+     */
+    @Override
+    public long getItemId(int position) {
+        if (position < 0 || position >= count)
+            return 0;
+
+        int index = pageOf(position);
+        return pageIds.get(index)[position - pageStarts[index]];
+    }
+
+    /**
+     * Indicates whether the item ids are stable across changes to the
+     * underlying data.
+     *
+     * @return True, item row IDs never change.
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Get a View that displays the data at the specified position in the data
+     * set.
+     *
+     * @param position
+     *            The position of the item within the adapter's data set.
+     * @param convertView
+     *            The old view to reuse, if possible.
+     * @param parent
+     *            The parent that this view will eventually be attached to.
+     * @return A View corresponding to the data at the specified position.
+     */
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView != null ? convertView : inflater.inflate(
+                R.layout.item_list_row, parent, false);
+
+        Cursor cursor = moveToPosition(position);
+        if (cursor != null) {
+            bindView(view, cursor);
+        } else {
+            bindEmptyView(view);
+        }
+
+        prefetch(position);
+        closeDistantPages(pageOf(position));
+
+        return view;
+    }
+
+    /**
+     * Binds an item row to a list row view.
      *
      * @param view
-     *            Existing view, returned earlier by newView.
-     * @param context
-     *            Interface to application's global information.
+     *            The list row view.
      * @param cursor
-     *            The cursor from which to get the data. The cursor is already
-     *            moved to the correct position.
-     * @throws IllegalStateException
-     *             If binding cannot occur.
+     *            The page cursor, moved to the item.
      */
-    public void bindView(View view, Context context, Cursor cursor) {
+    private void bindView(View view, Cursor cursor) {
         Log.d(TAG, "bindView()");
 
+        mapper.map(cursor, row);
+
         // Set the thumbnail photo
         ImageView imageView = (ImageView) view
                 .findViewById(R.id.item_list_row_thumbnail_photo);
-
-        byte[] blob = cursor.getBlob(this.cursor
-                .getColumnIndex(Item.COL_PHOTO_THUMBNAIL));
-
-        if (blob != null) {
-            Bitmap bitmap = BitmapFactory.decodeByteArray(blob, 0, blob.length);
-            imageView.setImageBitmap(bitmap);
-        } else {
-            imageView.setImageResource(R.drawable.ic_camera);
-        }
-
+        bindThumbnail(imageView, row.getThumbnailPhotoRef());
         imageView.setScaleType(ImageView.ScaleType.CENTER_INSIDE);
 
         // Decsription
         TextView textView = (TextView) view
                 .findViewById(R.id.item_list_row_description);
-
-        String val = cursor.getString(this.cursor
-                .getColumnIndex(Item.COL_DESCRIPTION));
-
-        textView.setText(val);
+        textView.setText(row.getDescription());
 
         // Location
         textView = (TextView) view
                 .findViewById(R.id.item_list_row_location);
-
-        val = cursor.getString(this.cursor
-                .getColumnIndex(Item.COL_LOCATION));
-
-        textView.setText(val);
+        textView.setText(row.getLocation());
 
         // Category
         textView = (TextView) view
                 .findViewById(R.id.item_list_row_category);
-
-        val = cursor.getString(this.cursor
-                .getColumnIndex(Item.COL_CATEGORY));
-
-        textView.setText(val);
+        textView.setText(row.getCategory());
 
         // Date of capture
         textView = (TextView) view
                 .findViewById(R.id.item_list_row_date);
-
-        try {
-            Date dob = dateStorageFormat.parse(cursor.getString(this.cursor
-                    .getColumnIndex(Item.COL_DATE_CAPTURED)));
-            textView.setText(dateDisplayFormat.format(dob));
-        } catch (ParseException e) {
-            Log.e(TAG, "Parsing date of capture failed", e);
-        }
+        textView.setText(dateDisplayFormat.format(row.getCaptureDate()));
 
         // Desirability
         RatingBar rb = (RatingBar) view
                 .findViewById(R.id.item_list_row_desirability);
+        rb.setRating((float) row.getDesirability());
+    }
 
-        int rate = cursor.getInt(this.cursor
-                .getColumnIndex(Item.COL_DESIRABILITY));
+    /**
+     * Shows a thumbnail photo, from the cache or else decoded in the
+     * background. A decode still running for the photo the recycled view
+     * showed before is cancelled, so it can't overwrite this one.
+     *
+     * @param imageView
+     *            The row's thumbnail view.
+     * @param ref
+     *            The photo reference, may be null.
+     */
+    private void bindThumbnail(final ImageView imageView, final String ref) {
+        AsyncTask<?, ?, ?> previous = thumbnailTasks.remove(imageView);
+        if (previous != null)
+            previous.cancel(false);
 
-        rb.setRating((float)rate);
+        Bitmap bitmap = ref != null ? thumbnails.get(ref) : null;
+        if (bitmap != null) {
+            imageView.setImageBitmap(bitmap);
+            return;
+        }
 
-        super.bindView(view, context, cursor);
+        imageView.setImageResource(R.drawable.ic_camera);
+        if (ref == null)
+            return;
+
+        thumbnailTasks.put(imageView, dba.getPhotoStore().decodeAsync(ref,
+                new PhotoCallback() {
+                    @Override
+                    public void onPhotoLoaded(Bitmap photo) {
+                        thumbnailTasks.remove(imageView);
+
+                        if (photo != null) {
+                            thumbnails.put(ref, photo);
+                            imageView.setImageBitmap(photo);
+                        }
+                    }
+                }));
     }
 
-}
+    /**
+     * Clears a list row view whose page is still being read.
+     *
+     * @param view
+     *            The list row view.
+     */
+    private void bindEmptyView(View view) {
+        bindThumbnail((ImageView) view.findViewById(
+                R.id.item_list_row_thumbnail_photo), null);
+        ((TextView) view.findViewById(R.id.item_list_row_description)).setText(null);
+        ((TextView) view.findViewById(R.id.item_list_row_location)).setText(null);
+        ((TextView) view.findViewById(R.id.item_list_row_category)).setText(null);
+        ((TextView) view.findViewById(R.id.item_list_row_date)).setText(null);
+        ((RatingBar) view.findViewById(R.id.item_list_row_desirability)).setRating(0);
+    }
+
+    /**
+     * Applies committed item changes. Each changed row marks the page it
+     * was in and the page its key now falls in; only those pages are read
+     * again. Rows that now fall beyond the loaded pages show up when the
+     * next page is loaded.
+     *
+     * @param events
+     *            The changes.
+     */
+    @Override
+    public void onChange(List<ChangeEvent> events) {
+        if (closed)
+            return;
+
+        for (ChangeEvent event : events) {
+            if (Item.SQL_TABLE_NAME.equals(event.getTable()))
+                pendingChanges.add(event);
+        }
+
+        if (task == null)
+            applyPendingChanges();
+    }
+
+    /**
+     * Finds the pages affected by the changes received so far and re-reads
+     * them in the background.
+     */
+    private void applyPendingChanges() {
+        if (pendingChanges.isEmpty())
+            return;
+
+        final List<ChangeEvent> events = new ArrayList<ChangeEvent>(pendingChanges);
+        pendingChanges.clear();
+
+        // Nothing else reads while this runs, so the paging state is stable
+        final List<long[]> ids = new ArrayList<long[]>(pageIds);
+        final List<Object[]> keys = new ArrayList<Object[]>(pageKeys);
+
+        task = DatabaseExecutor.getInstance().submit(new Callable<Map<Integer, Cursor>>() {
+            @Override
+            public Map<Integer, Cursor> call() {
+                TreeSet<Integer> affected = new TreeSet<Integer>();
+
+                for (ChangeEvent event : events) {
+                    long id = event.getRowId();
+
+                    // The page the row was in
+                    if (event.getType() != ChangeEvent.INSERT) {
+                        int index = pageOfId(ids, id);
+                        if (index >= 0)
+                            affected.add(index);
+                    }
+
+                    // The page the row is in now
+                    if (event.getType() != ChangeEvent.DELETE) {
+                        Object[] key = item.findPageKey(order, id);
+                        if (key != null) {
+                            int index = pageOfKey(keys, ids.size(), key);
+                            if (index >= 0)
+                                affected.add(index);
+                        }
+                    }
+                }
+
+                // A cancelled task's pages are closed by the executor
+                Map<Integer, Cursor> reloaded = new TreeMap<Integer, Cursor>();
+                try {
+                    for (int index : affected) {
+                        Cursor cursor = queryPage(keys, index);
+                        reloaded.put(index, cursor);
+                        cursor.getCount();
+                    }
+                } catch (RuntimeException e) {
+                    for (Cursor cursor : reloaded.values()) {
+                        cursor.close();
+                    }
+                    throw e;
+                }
+
+                return reloaded;
+            }
+        }, new DatabaseCallback<Map<Integer, Cursor>>() {
+            @Override
+            public void onResult(Map<Integer, Cursor> reloaded) {
+                task = null;
+
+                if (!reloaded.isEmpty()) {
+                    Log.d(TAG, "Re-reading pages " + reloaded.keySet());
+
+                    for (Map.Entry<Integer, Cursor> entry : reloaded.entrySet()) {
+                        replacePage(entry.getKey(), entry.getValue());
+                    }
+
+                    updatePageStarts();
+                    notifyDataSetChanged();
+                }
+
+                applyPendingChanges();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                task = null;
+                Log.e(TAG, "Re-reading pages failed", e);
+
+                applyPendingChanges();
+            }
+        });
+    }
+
+    /**
+     * Moves the cursor of the page holding a position to it, re-reading the
+     * page if it was closed.
+     *
+     * @param position
+     *            The position of the item within the adapter's data set.
+     * @return The page cursor, or null if the item is no longer there.
+     */
+    private Cursor moveToPosition(int position) {
+        if (closed || position < 0 || position >= count)
+            return null;
+
+        int index = pageOf(position);
+        Cursor cursor = pages.get(index);
+
+        if (cursor == null) {
+            reopenPage(index);
+            return null;
+        }
+
+        return cursor.moveToPosition(position - pageStarts[index]) ? cursor : null;
+    }
+
+    /**
+     * Starts re-reading a closed page in the background, unless another
+     * read is under way. The rows are shown once it is back.
+     *
+     * @param index
+     *            The page index.
+     */
+    private void reopenPage(final int index) {
+        if (task != null)
+            return;
+
+        Log.d(TAG, "Reopening page " + index);
+
+        boolean bounded = index + 1 < pageKeys.size();
+        task = item.findPageBetweenAsync(order, pageKeys.get(index),
+                bounded ? pageKeys.get(index + 1) : null, new DatabaseCallback<Cursor>() {
+                    @Override
+                    public void onResult(Cursor cursor) {
+                        task = null;
+
+                        if (closed || pages.get(index) != null) {
+                            cursor.close();
+                        } else {
+                            pages.set(index, cursor);
+                            notifyDataSetChanged();
+                        }
+
+                        applyPendingChanges();
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        task = null;
+                        Log.e(TAG, "Reopening page failed", e);
+                    }
+                });
+    }
+
+    /**
+     * Reads a page between its keys.
+     *
+     * @param keys
+     *            The page keys.
+     * @param index
+     *            The page index.
+     * @return The page.
+     */
+    private Cursor queryPage(List<Object[]> keys, int index) {
+        boolean bounded = index + 1 < keys.size();
+
+        return item.findPageBetween(order, keys.get(index),
+                bounded ? keys.get(index + 1) : null);
+    }
+
+    /**
+     * Puts a re-read page in place of the old one. The page keeps its keys,
+     * so the pages around it are unaffected. A closed page stays closed,
+     * only its row IDs are updated.
+     *
+     * @param index
+     *            The page index.
+     * @param cursor
+     *            The page, read again.
+     */
+    private void replacePage(int index, Cursor cursor) {
+        pageIds.set(index, readIds(cursor));
+
+        Cursor old = pages.get(index);
+        if (old != null) {
+            old.close();
+            pages.set(index, cursor);
+        } else {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Adds a loaded page to the end of the list and records the key of the
+     * page after it.
+     *
+     * @param cursor
+     *            The page.
+     */
+    private void appendPage(Cursor cursor) {
+        int rows = cursor.getCount();
+
+        pages.add(cursor);
+        pageIds.add(readIds(cursor));
+
+        if (rows < pageSize) {
+            lastPageLoaded = true;
+        } else {
+            cursor.moveToLast();
+            pageKeys.add(order.readKey(cursor));
+        }
+
+        updatePageStarts();
+    }
+
+    /**
+     * Reads the row IDs of a page.
+     *
+     * @param cursor
+     *            The page.
+     * @return The row IDs, in page order.
+     */
+    private long[] readIds(Cursor cursor) {
+        long[] ids = new long[cursor.getCount()];
+
+        for (int i = 0; cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(colId);
+        }
+
+        return ids;
+    }
+
+    /**
+     * Recomputes the position of the first row of every page and the total
+     * row count.
+     */
+    private void updatePageStarts() {
+        pageStarts = new int[pageIds.size()];
+        count = 0;
+
+        for (int i = 0; i < pageStarts.length; i++) {
+            pageStarts[i] = count;
+            count += pageIds.get(i).length;
+        }
+    }
+
+    /**
+     * Finds the page holding a position.
+     *
+     * @param position
+     *            The position of the item within the adapter's data set.
+     * @return The page index.
+     */
+    private int pageOf(int position) {
+        int low = 0;
+        int high = pageStarts.length - 1;
+
+        // The last page starting at or before the position holds it, since
+        // any empty page in front of it starts at the same position
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pageStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
 
+        return low;
+    }
+
+    /**
+     * Finds the loaded page holding a row.
+     *
+     * @param ids
+     *            The row IDs of every page.
+     * @param id
+     *            The row ID.
+     * @return The page index or -1 if the row isn't loaded.
+     */
+    private static int pageOfId(List<long[]> ids, long id) {
+        for (int i = 0; i < ids.size(); i++) {
+            for (long pageId : ids.get(i)) {
+                if (pageId == id)
+                    return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Finds the loaded page a page key falls in.
+     *
+     * @param keys
+     *            The page keys.
+     * @param pageCount
+     *            The number of loaded pages.
+     * @param key
+     *            The item's page key.
+     * @return The page index or -1 if the key falls beyond the loaded pages.
+     */
+    private int pageOfKey(List<Object[]> keys, int pageCount, Object[] key) {
+        // Pages end at the key of the next page, if they have one
+        for (int i = 0; i < pageCount; i++) {
+            if (i + 1 >= keys.size())
+                return i;
+
+            if (order.compare(key, keys.get(i + 1)) <= 0)
+                return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Starts loading the next page if a position is close enough to the end
+     * of the loaded rows.
+     *
+     * @param position
+     *            The position being displayed.
+     */
+    private void prefetch(int position) {
+        if (lastPageLoaded || task != null
+                || position < count - prefetchDistance)
+            return;
+
+        int index = pages.size();
+        task = item.findPageAsync(order, pageKeys.get(index), pageSize,
+                new DatabaseCallback<Cursor>() {
+                    @Override
+                    public void onResult(Cursor cursor) {
+                        task = null;
+
+                        if (closed) {
+                            cursor.close();
+                            return;
+                        }
+
+                        appendPage(cursor);
+                        notifyDataSetChanged();
+
+                        applyPendingChanges();
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        task = null;
+                        Log.e(TAG, "Loading next page failed", e);
+                    }
+                });
+    }
+
+    /**
+     * Closes the pages that are too far from the page being displayed.
+     *
+     * @param index
+     *            The index of the page being displayed.
+     */
+    private void closeDistantPages(int index) {
+        int reach = maxOpenPages / 2;
+
+        for (int i = 0; i < pages.size(); i++) {
+            Cursor cursor = pages.get(i);
+
+            if (cursor != null && Math.abs(i - index) > reach) {
+                cursor.close();
+                pages.set(i, null);
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of pages kept open around the visible position.
+     *
+     * @param maxOpenPages
+     *            The number of pages, at least 1.
+     */
+    public void setMaxOpenPages(int maxOpenPages) {
+        this.maxOpenPages = Math.max(maxOpenPages, 1);
+    }
+
+    /**
+     * Closes every page, stops listening for changes and cancels any page
+     * or thumbnail being loaded. The adapter is empty afterwards.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        closed = true;
+        ChangeBus.getInstance().unregister(this);
+
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        pendingChanges.clear();
+
+        for (AsyncTask<?, ?, ?> thumbnailTask : thumbnailTasks.values()) {
+            thumbnailTask.cancel(false);
+        }
+        thumbnailTasks.clear();
+        thumbnails.evictAll();
+
+        for (int i = 0; i < pages.size(); i++) {
+            Cursor cursor = pages.get(i);
+
+            if (cursor != null) {
+                cursor.close();
+                pages.set(i, null);
+            }
+        }
+        mapper.reset();
+
+        count = 0;
+        notifyDataSetChanged();
+    }
+}
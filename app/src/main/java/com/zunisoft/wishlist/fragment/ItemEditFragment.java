@@ -18,7 +18,6 @@
 
 package com.zunisoft.wishlist.fragment;
 
-import java.io.ByteArrayOutputStream;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -26,6 +25,7 @@ import java.util.Date;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.Future;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
@@ -60,7 +60,9 @@ import com.google.zxing.integration.android.IntentResult;
 
 import com.zunisoft.common.concurrent.TaskListener;
 import com.zunisoft.common.db.DatabaseAdapter;
+import com.zunisoft.common.db.DatabaseCallback;
 import com.zunisoft.common.db.RecordNotFoundException;
+import com.zunisoft.common.photo.PhotoCallback;
 import com.zunisoft.common.support.DatePickerDialogFragment;
 import com.zunisoft.common.support.JSONFunctions;
 import com.zunisoft.wishlist.model.Item;
@@ -86,6 +88,7 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
     // Bundle keys
     public static final String ITEM_ID_KEY = "ITEM_ID_KEY";
     private static final String SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY = "LARGE_PHOTO";
+    private static final String SAVED_INSTANCE_STATE_PHOTO_CHANGED_KEY = "PHOTO_CHANGED";
 
     // Dialogs
     private ProgressDialog pdialog;
@@ -107,11 +110,14 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
 
     // Member variables
     private Bitmap imageLarge;
+    private boolean photoChanged;
     private boolean isTaskRunning = false;
     private boolean isEditMode;
     private DateFormat dateFormat;
     private Item item;
     private int itemId;
+    private Future<Void> loadTask;
+    private Future<?> saveTask;
 
     // Field data map - database column name|view ID
     private HashMap<String, Integer> fieldDataMap = new HashMap<String, Integer>();
@@ -228,68 +234,132 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
         int itemId = (int)bundle.getLong(ITEM_ID_KEY, 0);
         Log.d(TAG, "Item ID: "  + itemId);
 
-        try {
-            // Create a new pet object
+        // Create a new pet object, the retained one is kept
+        if (item == null) {
             item = new Item(getResources());
-            item.setSQLiteDatabase(dbAdapter.getDatabase());
+            item.setSQLiteDatabase(dbAdapter.getDatabase(),
+                    dbAdapter.getReaderDatabase());
+            item.setPhotoStore(dbAdapter.getPhotoStore());
+        }
 
-            // Load the specified pet
-            item.load(itemId);
+        // Set the photos
+        if (savedInstanceState != null)
+            photoChanged = savedInstanceState.getBoolean(SAVED_INSTANCE_STATE_PHOTO_CHANGED_KEY);
 
-            // Set the view components
-            editDescription.setText(item.getDescription());
-            editLocation.setText(item.getLocation());
+        if (photoChanged) {
+            imageLarge = (Bitmap) savedInstanceState
+                    .getParcelable(SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY);
+        } else {
+            // Show the default photo until the stored one is decoded
+            imageLarge = BitmapFactory.decodeResource(getActivity().getApplicationContext().getResources(),
+                    R.drawable.ic_camera);
+        }
+        cameraButton.setBackground(new BitmapDrawable(getResources(), imageLarge));
+
+        // Load the specified pet in the background, a new one needs no query.
+        // A retained pet is already loaded and the views restore their text
+        if (itemId > 0 && isEditMode) {
+            if (!photoChanged && item.hasLargePhoto())
+                loadLargePhoto();
+        } else if (itemId > 0) {
+            loadRecord(itemId);
+        } else {
+            showNewRecord();
+        }
 
-            String date = dateFormat.format(item.getCaptureDate());
-            editDateAdded.setText(date);
+        return rootView;
+	}
 
-            if (item.getPurchasedDate() != null) {
-                date = dateFormat.format(item.getPurchasedDate());
-                editDatePurchased.setText(date);
+    /**
+     * Loads the item in the background and shows it once loaded. Saving is
+     * ignored until then.
+     *
+     * @param itemId
+     *            The item ID.
+     */
+    private void loadRecord(int itemId) {
+        Log.d(TAG, "loadRecord()");
+
+        if (loadTask != null)
+            loadTask.cancel(false);
+
+        loadTask = item.loadAsync(itemId, new DatabaseCallback<Void>() {
+            @Override
+            public void onResult(Void result) {
+                loadTask = null;
+                showRecord();
             }
 
-            editCategory.setText(item.getCategory());
-            ratingDesirability.setRating(item.getDesirability());
-            editBarcode.setText(item.getBarcode());
-            editNotes.setText(item.getNotes());
-
-            // Set the photos
-            if (savedInstanceState != null) {
-                imageLarge = (Bitmap) savedInstanceState
-                        .getParcelable(SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY);
-            } else if (item.getLargePhoto() != null) {
-                imageLarge = item.getLargePhoto();
-            } else {
-                // Set default photo
-                imageLarge = BitmapFactory.decodeResource(getActivity().getApplicationContext().getResources(),
-                        R.drawable.ic_camera);
+            @Override
+            public void onError(Exception e) {
+                loadTask = null;
+                if (!(e instanceof RecordNotFoundException))
+                    Log.e(TAG, "Loading item failed", e);
+
+                showNewRecord();
             }
-            cameraButton.setBackground(new BitmapDrawable(getResources(), imageLarge));
+        });
+    }
 
-            isEditMode = true;
-        } catch (RecordNotFoundException e) {
-            // Set the capture date (today)
-            DateFormat dateDisplayFormat = new SimpleDateFormat(getString(
-                    R.string.date_display_format));
-            editDateAdded.setText(dateDisplayFormat.format(new Date()));
+    /**
+     * Sets the view components from the loaded item.
+     */
+    private void showRecord() {
+        Log.d(TAG, "showRecord()");
 
+        editDescription.setText(item.getDescription());
+        editLocation.setText(item.getLocation());
 
-            // Set photos
-            if (savedInstanceState != null) {
-                imageLarge = (Bitmap) savedInstanceState
-                        .getParcelable(SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY);
-            } else {
-                // Set default photo
-                imageLarge = BitmapFactory.decodeResource(getActivity().getApplicationContext().getResources(),
-                        R.drawable.ic_camera);
-            }
-            cameraButton.setBackground(new BitmapDrawable(getResources(), imageLarge));
+        String date = dateFormat.format(item.getCaptureDate());
+        editDateAdded.setText(date);
 
-            isEditMode = false;
+        if (item.getPurchasedDate() != null) {
+            date = dateFormat.format(item.getPurchasedDate());
+            editDatePurchased.setText(date);
         }
 
-        return rootView;
-	}
+        editCategory.setText(item.getCategory());
+        ratingDesirability.setRating(item.getDesirability());
+        editBarcode.setText(item.getBarcode());
+        editNotes.setText(item.getNotes());
+
+        if (!photoChanged && item.hasLargePhoto())
+            loadLargePhoto();
+
+        isEditMode = true;
+        getActivity().supportInvalidateOptionsMenu();
+    }
+
+    /**
+     * Sets the view components up for a new item.
+     */
+    private void showNewRecord() {
+        Log.d(TAG, "showNewRecord()");
+
+        // Set the capture date (today)
+        DateFormat dateDisplayFormat = new SimpleDateFormat(getString(
+                R.string.date_display_format));
+        editDateAdded.setText(dateDisplayFormat.format(new Date()));
+
+        isEditMode = false;
+    }
+
+    /**
+     * Called when the view previously created by onCreateView(LayoutInflater, ViewGroup, Bundle)
+     * has been detached from the fragment. A load still under way is dropped, so its result
+     * never reaches the old views; the next view loads the item again.
+     */
+    @Override
+    public void onDestroyView() {
+        Log.d(TAG, "onDestroyView()");
+
+        super.onDestroyView();
+
+        if (loadTask != null) {
+            loadTask.cancel(false);
+            loadTask = null;
+        }
+    }
 
     /**
      * Called to retrieve per-instance state from an activity before being
@@ -305,9 +375,31 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
 
         super.onSaveInstanceState(outState);
 
-        // Photos
-        outState.putParcelable(SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY,
-                imageLarge);
+        // Photos, only when taken since the item was loaded
+        outState.putBoolean(SAVED_INSTANCE_STATE_PHOTO_CHANGED_KEY, photoChanged);
+        if (photoChanged) {
+            outState.putParcelable(SAVED_INSTANCE_STATE_LARGE_PHOTO_KEY,
+                    imageLarge);
+        }
+    }
+
+    /**
+     * Decodes the item's stored photo off the UI thread and shows it on the
+     * camera button, unless a new photo was taken in the meantime.
+     */
+    private void loadLargePhoto() {
+        Log.d(TAG, "loadLargePhoto()");
+
+        item.loadLargePhoto(new PhotoCallback() {
+            @Override
+            public void onPhotoLoaded(Bitmap photo) {
+                if (photo == null || photoChanged || !isAdded())
+                    return;
+
+                imageLarge = photo;
+                cameraButton.setBackground(new BitmapDrawable(getResources(), imageLarge));
+            }
+        });
     }
 
     /**
@@ -352,8 +444,7 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
         // Process the selection event for the appropriate menu item
         switch (item.getItemId()) {
             case R.id.action_delete:
-                this.item.delete();
-                this.getFragmentManager().popBackStack();
+                deleteRecord();
                 return true;
         }
 
@@ -416,15 +507,9 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
         if (requestCode == CAPTURE_IMAGE_ACTIVITY_REQUEST_CODE) {
             if (resultCode == Activity.RESULT_OK) {
 
-                Bitmap bmp = (Bitmap) intent.getExtras().get("data");
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-
-                bmp.compress(Bitmap.CompressFormat.PNG, 100, stream);
-                byte[] byteArray = stream.toByteArray();
-
-                // Convert ByteArray to Bitmap::
-                imageLarge = BitmapFactory.decodeByteArray(byteArray, 0,
-                        byteArray.length);
+                // Used as is, the photo store encodes it when the item is saved
+                imageLarge = (Bitmap) intent.getExtras().get("data");
+                photoChanged = true;
                 cameraButton.setBackground(new BitmapDrawable(getResources(), imageLarge));
             }
         } else {
@@ -446,11 +531,16 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
     }
 
     /**
-     * Saves component data to the database.
+     * Saves component data to the database in the background and closes the
+     * fragment once saved.
      */
     protected void saveRecord() {
         Log.d(TAG, "saveRecord()");
 
+        // The item is still loading or being written
+        if (loadTask != null || saveTask != null)
+            return;
+
         // Set the model with the view component's data
         item.setDescription(editDescription.getText().toString());
         item.setLocation(editLocation.getText().toString());
@@ -474,25 +564,72 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
         item.setBarcode(editBarcode.getText().toString());
         item.setNotes(editNotes.getText().toString());
 
-        // Photos
-        Bitmap imageThumbnail = Bitmap.createBitmap(256, 256, imageLarge.getConfig());
-        Canvas canvas = new Canvas(imageThumbnail);
-        canvas.drawBitmap(imageLarge, null, new Rect(0, 0, 256, 256), null);
+        // Photos, the stored ones are kept unless a new one was taken
+        if (photoChanged) {
+            Bitmap imageThumbnail = Bitmap.createBitmap(256, 256, imageLarge.getConfig());
+            Canvas canvas = new Canvas(imageThumbnail);
+            canvas.drawBitmap(imageLarge, null, new Rect(0, 0, 256, 256), null);
 
-        item.setThumbnailPhoto(imageThumbnail);
-        item.setLargePhoto(imageLarge);
+            item.setThumbnailPhoto(imageThumbnail);
+            item.setLargePhoto(imageLarge);
+        }
 
-        // Save the record
-        if (item.save() == -1) {
-            Log.d(TAG, "Save failed. Reason");
+        // Save the record, a new item with a known barcode updates the existing one
+        saveTask = item.saveByBarcodeAsync(new DatabaseCallback<Long>() {
+            @Override
+            public void onResult(Long result) {
+                saveTask = null;
 
-            if (!item.getErrors().isEmpty())
-                setValidationHints(item.getErrors());
-        } else {
-            this.getFragmentManager().popBackStack();
-        }
+                if (result == -1) {
+                    Log.d(TAG, "Save failed. Reason");
 
+                    if (!item.getErrors().isEmpty() && getView() != null)
+                        setValidationHints(item.getErrors());
+                } else {
+                    close();
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                saveTask = null;
+                Log.e(TAG, "Saving item failed", e);
+            }
+        });
+    }
+
+    /**
+     * Deletes the item in the background and closes the fragment once it is
+     * gone.
+     */
+    protected void deleteRecord() {
+        Log.d(TAG, "deleteRecord()");
+
+        if (saveTask != null || loadTask != null)
+            return;
 
+        saveTask = item.deleteAsync(new DatabaseCallback<Boolean>() {
+            @Override
+            public void onResult(Boolean result) {
+                saveTask = null;
+                close();
+            }
+
+            @Override
+            public void onError(Exception e) {
+                saveTask = null;
+                Log.e(TAG, "Deleting item failed", e);
+            }
+        });
+    }
+
+    /**
+     * Returns to the previous fragment, unless the fragment is no longer
+     * showing.
+     */
+    private void close() {
+        if (isResumed())
+            getFragmentManager().popBackStack();
     }
 
     /**
@@ -518,6 +655,14 @@ public class ItemEditFragment extends Fragment implements View.OnClickListener,
             // Get the values
             field = entry.getKey();
             hint = entry.getValue();
+
+            // Errors without a field of their own, such as a photo that
+            // could not be stored, are shown as a message
+            if (!fieldDataMap.containsKey(field)) {
+                Toast.makeText(getActivity().getApplicationContext(), hint,
+                        Toast.LENGTH_LONG).show();
+                continue;
+            }
             viewId = (Integer) fieldDataMap.get(field);
 
             // Set the hint
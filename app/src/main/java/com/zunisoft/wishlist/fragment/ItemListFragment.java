@@ -22,8 +22,8 @@ import android.app.Activity;
 import android.support.v4.app.Fragment;
 import android.app.ProgressDialog;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -35,12 +35,19 @@ import android.view.ViewGroup;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemClickListener;
 import android.widget.ListView;
+import android.widget.TextView;
 
 import com.zunisoft.common.concurrent.TaskListener;
 import com.zunisoft.common.db.DatabaseAdapter;
+import com.zunisoft.common.db.DatabaseCallback;
+import com.zunisoft.common.db.ObservableQuery;
+import com.zunisoft.common.db.SortOrder;
 import com.zunisoft.wishlist.R;
 import com.zunisoft.wishlist.adapter.ItemListAdapter;
 import com.zunisoft.wishlist.model.Item;
+import com.zunisoft.wishlist.model.ItemSummary;
+
+import java.util.concurrent.Future;
 
 /**
  * Application item list fragment.
@@ -54,11 +61,28 @@ public class ItemListFragment extends Fragment implements TaskListener {
     // Tag used by logging APIs
     private static final String TAG = "ItemListFragment";
 
+    // Item list paging
+    private static final int PAGE_SIZE = Item.DEFAULT_PAGE_SIZE;
+    private static final int PREFETCH_DISTANCE = ItemListAdapter.DEFAULT_PREFETCH_DISTANCE;
+
+    // Sort order preference, an index into Item.SORT_ORDERS
+    private static final String PREFS_NAME = "item_list";
+    private static final String PREF_SORT_ORDER = "sort_order";
+
+    // Sort menu items, in the order of Item.SORT_ORDERS
+    private static final int[] SORT_MENU_IDS = { R.id.action_sort_description,
+            R.id.action_sort_date_captured, R.id.action_sort_desirability,
+            R.id.action_sort_purchased };
+
     ListView listView;
     private boolean isTaskRunning = false;
     private ProgressDialog pdialog;
     private Cursor cursor;
     private ItemListAdapter adapter;
+    private Future<Cursor> loadTask;
+    private int sortIndex;
+    private ItemSummary summary;
+    private ObservableQuery<ItemSummary> summaryQuery;
 
     /**
      * Empty constructor
@@ -82,6 +106,10 @@ public class ItemListFragment extends Fragment implements TaskListener {
 
         setHasOptionsMenu(true);
         setRetainInstance(true);
+
+        sortIndex = getSortPreferences().getInt(PREF_SORT_ORDER, 0);
+        if (sortIndex < 0 || sortIndex >= Item.SORT_ORDERS.length)
+            sortIndex = 0;
     }
 
     /**
@@ -130,12 +158,63 @@ public class ItemListFragment extends Fragment implements TaskListener {
         // Get the root view
         View rootView = inflater.inflate(R.layout.item_list, container, false);
 
-        ItemListTask task = new ItemListTask(this);
-        task.execute(cursor);
+        // The retained adapter has kept up with item changes, so only the
+        // first view needs a query
+        if (adapter != null) {
+            showItems(rootView);
+        } else {
+            loadItems(Item.SORT_ORDERS[sortIndex]);
+        }
 
         return rootView;
     }
 
+    /**
+     * Called when the view previously created by onCreateView(LayoutInflater, ViewGroup, Bundle)
+     * has been detached from the fragment. The adapter is kept and goes on applying item changes.
+     */
+    @Override
+    public void onDestroyView() {
+        Log.d(TAG, "onDestroyView()");
+
+        super.onDestroyView();
+
+        if (listView != null) {
+            listView.setAdapter(null);
+            listView = null;
+        }
+    }
+
+    /**
+     * Called when the fragment is no longer in use. Cancels loading the
+     * first page, closes the item pages and stops observing the item totals.
+     */
+    @Override
+    public void onDestroy() {
+        Log.d(TAG, "onDestroy()");
+
+        super.onDestroy();
+
+        // The executor closes the page of a cancelled load
+        if (loadTask != null) {
+            loadTask.cancel(false);
+            loadTask = null;
+        }
+
+        if (summaryQuery != null) {
+            summaryQuery.unsubscribe();
+            summaryQuery = null;
+        }
+
+        if (adapter != null) {
+            adapter.close();
+            adapter = null;
+        } else if (cursor != null) {
+            cursor.close();
+        }
+        cursor = null;
+    }
+
     /**
      * Called when a fragment is first attached to its activity. onCreate(Bundle) will be called after this.
      *
@@ -173,6 +252,7 @@ public class ItemListFragment extends Fragment implements TaskListener {
         Log.d(TAG, "onCreateOptionsMenu");
 
         inflater.inflate(R.menu.menu_item_list, menu);
+        menu.findItem(SORT_MENU_IDS[sortIndex]).setChecked(true);
     }
 
     /**
@@ -203,10 +283,145 @@ public class ItemListFragment extends Fragment implements TaskListener {
                 return true;
         }
 
+        // Sort order selection
+        for (int i = 0; i < SORT_MENU_IDS.length; i++) {
+            if (item.getItemId() == SORT_MENU_IDS[i]) {
+                // Only check the order once it is applied, a load in
+                // progress keeps the current one
+                if (setSortIndex(i))
+                    item.setChecked(true);
+                return true;
+            }
+        }
+
 
         return true;
     }
 
+    /**
+     * Gets the preferences the item list sort order is kept in.
+     *
+     * @return The preferences.
+     */
+    private SharedPreferences getSortPreferences() {
+        return getActivity().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Switches the item list to another sort order and reloads it from the
+     * first page.
+     *
+     * @param index
+     *            The index of the sort order in Item.SORT_ORDERS.
+     * @return True if the list switched to the sort order, false if it
+     *         already had it or a load is in progress.
+     */
+    private boolean setSortIndex(int index) {
+        Log.d(TAG, "setSortIndex()");
+
+        if (index == sortIndex || isTaskRunning)
+            return false;
+
+        sortIndex = index;
+        getSortPreferences().edit().putInt(PREF_SORT_ORDER, index).apply();
+
+        if (adapter != null) {
+            if (listView != null)
+                listView.setAdapter(null);
+            adapter.close();
+            adapter = null;
+        }
+        cursor = null;
+
+        loadItems(Item.SORT_ORDERS[index]);
+        return true;
+    }
+
+    /**
+     * Creates an item bound to the database.
+     *
+     * @return The item.
+     */
+    private Item newItem() {
+        DatabaseAdapter db = DatabaseAdapter.getInstance(getActivity().getApplicationContext());
+
+        Item item = new Item(getActivity().getApplicationContext().getResources());
+        item.setSQLiteDatabase(db.getDatabase(), db.getReaderDatabase());
+        item.setPhotoStore(db.getPhotoStore());
+
+        return item;
+    }
+
+    /**
+     * Reads the item summary and the first page of items in the background,
+     * then shows them.
+     *
+     * @param order
+     *            The sort order.
+     */
+    private void loadItems(final SortOrder order) {
+        Log.d(TAG, "loadItems()");
+
+        onTaskStarted();
+
+        final Context context = getActivity().getApplicationContext();
+
+        // The totals come from one aggregate query, not from the rows, and
+        // are read alongside the first page
+        observeSummary();
+
+        if (loadTask != null)
+            loadTask.cancel(false);
+
+        loadTask = newItem().findPageAsync(order, null, PAGE_SIZE,
+                new DatabaseCallback<Cursor>() {
+            @Override
+            public void onResult(Cursor result) {
+                loadTask = null;
+
+                // Nothing would close an adapter made for a fragment that
+                // is going away; a new view loads the list again
+                if (isRemoving() || getActivity() == null) {
+                    result.close();
+                    isTaskRunning = false;
+                    return;
+                }
+
+                showFirstPage(context, order, result);
+            }
+
+            @Override
+            public void onError(Exception e) {
+                loadTask = null;
+                Log.e(TAG, "Loading items failed", e);
+                onTaskFinished(null);
+            }
+        });
+    }
+
+    /**
+     * Creates the item list adapter from the first page of items.
+     *
+     * @param context
+     *            Application context.
+     * @param order
+     *            The sort order the page was read in.
+     * @param firstPage
+     *            The first page.
+     */
+    private void showFirstPage(Context context, SortOrder order, Cursor firstPage) {
+        Log.d(TAG, "showFirstPage()");
+
+        cursor = firstPage;
+        adapter = new ItemListAdapter(context, order, firstPage, PAGE_SIZE,
+                PREFETCH_DISTANCE);
+
+        if (getView() != null)
+            showItems(getView());
+
+        onTaskFinished(null);
+    }
+
     /**
      * Controls the display of the empty list message.
      *
@@ -215,15 +430,112 @@ public class ItemListFragment extends Fragment implements TaskListener {
      *            to hide it.
      */
     protected void showEmptyListMsg(boolean state) {
+        if (getView() != null)
+            showEmptyListMsg(getView(), state);
+    }
+
+    /**
+     * Controls the display of the empty list message.
+     *
+     * @param rootView
+     *            The fragment's root view.
+     * @param state
+     *            Empty list message state. True to display the message, false
+     *            to hide it.
+     */
+    private void showEmptyListMsg(View rootView, boolean state) {
         Log.d(TAG, "showEmptyListMsg()");
 
         // Add visible code for search box
-        getActivity().findViewById(R.id.item_list_view).setVisibility(
+        rootView.findViewById(R.id.item_list_view).setVisibility(
                 state == true ? View.GONE : View.VISIBLE);
-        getActivity().findViewById(R.id.item_list_empty_view).setVisibility(
+        rootView.findViewById(R.id.item_list_empty_view).setVisibility(
                 state == true ? View.VISIBLE : View.GONE);
     }
 
+    /**
+     * Displays the item summary and, when there are no items, the empty list
+     * message.
+     *
+     * @param rootView
+     *            The fragment's root view.
+     */
+    private void showSummary(View rootView) {
+        Log.d(TAG, "showSummary()");
+
+        showEmptyListMsg(rootView, summary.getCount() == 0);
+
+        TextView textView = (TextView) rootView.findViewById(R.id.item_list_summary);
+        textView.setText(getString(R.string.item_list_summary_format,
+                summary.getCount(), summary.getPurchasedCount(),
+                summary.getAverageDesirability()));
+    }
+
+    /**
+     * Starts observing the item summary, unless that is already under way.
+     * The totals, which toggle the empty list message, are computed again in
+     * the background after item changes; a detached fragment shows the
+     * latest ones when it is shown again.
+     */
+    private void observeSummary() {
+        if (summaryQuery != null || getActivity() == null)
+            return;
+
+        summaryQuery = newItem().observeSummary();
+        summaryQuery.subscribe(new DatabaseCallback<ItemSummary>() {
+            @Override
+            public void onResult(ItemSummary result) {
+                summary = result;
+
+                if (getView() != null)
+                    showSummary(getView());
+            }
+
+            @Override
+            public void onError(Exception e) {
+                Log.e(TAG, "Summarizing items failed", e);
+            }
+        });
+    }
+
+    /**
+     * Hooks the item list adapter up to the list view.
+     *
+     * @param rootView
+     *            The fragment's root view.
+     */
+    private void showItems(View rootView) {
+        Log.d(TAG, "showItems()");
+
+        if (summary != null)
+            showSummary(rootView);
+
+        //Find the listview reference
+        listView = (ListView) rootView.findViewById(R.id.item_list);
+
+        listView.setOnItemClickListener(new OnItemClickListener() {
+            public void onItemClick(AdapterView<?> parent, View view,
+                                    int position, long id) {
+            Log.d(TAG, "list position: " + position);
+            Log.d(TAG, "id: " + id);
+
+            ItemEditFragment fragment = new ItemEditFragment();
+
+            Bundle bundle = new Bundle();
+            bundle.putLong(ItemEditFragment.ITEM_ID_KEY, id);
+            fragment.setArguments(bundle);
+
+            getFragmentManager().beginTransaction()
+                    .replace(R.id.container, fragment)
+                    .addToBackStack(null)
+                    .commit();
+
+        }});
+
+        //Hook up our adapter to our ListView
+        listView.setAdapter(adapter);
+    }
+
     /**
      * Called when a task starts execution.
      */
@@ -251,79 +563,4 @@ public class ItemListFragment extends Fragment implements TaskListener {
         }
         isTaskRunning = false;
     }
-
-    // Item list task
-    private class ItemListTask extends AsyncTask<Cursor, Void, Cursor> {
-        private final TaskListener listener;
-
-        public ItemListTask(TaskListener listener) {
-            this.listener = listener;
-        }
-
-        @Override
-        protected void onPreExecute() {
-            listener.onTaskStarted();
-        }
-
-        @Override
-        protected Cursor doInBackground(final Cursor... args) {
-
-            DatabaseAdapter db;
-            Item item;
-
-            db = DatabaseAdapter.getInstance(getActivity().getApplicationContext());
-
-            // Create a new item object
-            item = new Item(getActivity().getApplicationContext().getResources());
-            item.setSQLiteDatabase(db.getDatabase());
-
-            cursor = item.findAll();
-
-            return cursor;
-        }
-
-        @Override
-        protected void onPostExecute(final Cursor cursor) {
-            if (cursor.getCount() == 0) {
-                showEmptyListMsg(true);
-            } else {
-                showEmptyListMsg(false);
-
-                String[] from = new String[] { Item.COL_DESCRIPTION, Item.COL_LOCATION,
-                    Item.COL_CATEGORY, Item.COL_DATE_CAPTURED, Item.COL_DESIRABILITY };
-                int[] to = new int[] { R.id.item_list_row_description, R.id.item_list_row_location,
-                    R.id.item_edit_category, R.id.item_edit_date_captured, R.id.item_edit_desirability};
-
-                adapter = new ItemListAdapter(getActivity().getApplicationContext(),
-                        R.layout.item_list_row, cursor, from, to);
-
-                //Find the listview reference
-                listView = (ListView) getActivity().findViewById(R.id.item_list);
-
-                listView.setOnItemClickListener(new OnItemClickListener() {
-                    public void onItemClick(AdapterView<?> parent, View view,
-                                            int position, long id) {
-                    Log.d(TAG, "list position: " + position);
-                    Log.d(TAG, "id: " + id);
-
-                    ItemEditFragment fragment = new ItemEditFragment();
-
-                    Bundle bundle = new Bundle();
-                    bundle.putLong(ItemEditFragment.ITEM_ID_KEY, id);
-                    fragment.setArguments(bundle);
-
-                    getFragmentManager().beginTransaction()
-                            .replace(R.id.container, fragment)
-                            .addToBackStack(null)
-                            .commit();
-
-                }});
-
-                //Hook up our adapter to our ListView
-                listView.setAdapter(adapter);
-            }
-
-            listener.onTaskFinished(null);
-        }
-    }
 }
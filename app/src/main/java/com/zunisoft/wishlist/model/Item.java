@@ -18,24 +18,35 @@
 
 package com.zunisoft.wishlist.model;
 
-import android.content.ContentValues;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteConstraintException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.util.Log;
 
-import com.zunisoft.common.db.ActiveRecord;
+import com.zunisoft.common.db.CachedActiveRecord;
+import com.zunisoft.common.db.ChangeEvent;
+import com.zunisoft.common.db.DatabaseCallback;
+import com.zunisoft.common.db.LookupTable;
+import com.zunisoft.common.db.ObservableQuery;
+import com.zunisoft.common.db.Query;
 import com.zunisoft.common.db.RecordNotFoundException;
+import com.zunisoft.common.db.SQLiteStorageEngine;
+import com.zunisoft.common.db.SortOrder;
+import com.zunisoft.common.db.StorageEngine;
+import com.zunisoft.common.db.StorageTable;
+import com.zunisoft.common.photo.PhotoCallback;
+import com.zunisoft.common.photo.PhotoStore;
 import com.zunisoft.wishlist.R;
 
-import org.apache.http.impl.cookie.DateUtils;
-
-import java.io.ByteArrayOutputStream;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 /**
  * Item model.
@@ -44,14 +55,18 @@ import java.util.Date;
  *
  * @author krdavis
  */
-public class Item extends ActiveRecord {
+public class Item extends CachedActiveRecord {
     // Tag used by logging APIs
     private static final String TAG = "Item";
 
     // Database table columns
     public static final String COL_ROW_ID = "_id";
-    public static final String COL_PHOTO_THUMBNAIL = "photo_thumbnail";
-    public static final String COL_PHOTO_LARGE = "photo_large";
+    public static final String COL_PHOTO_THUMBNAIL_REF = "photo_thumbnail_ref";
+    public static final String COL_PHOTO_THUMBNAIL_WIDTH = "photo_thumbnail_width";
+    public static final String COL_PHOTO_THUMBNAIL_HEIGHT = "photo_thumbnail_height";
+    public static final String COL_PHOTO_LARGE_REF = "photo_large_ref";
+    public static final String COL_PHOTO_LARGE_WIDTH = "photo_large_width";
+    public static final String COL_PHOTO_LARGE_HEIGHT = "photo_large_height";
     public static final String COL_LOCATION = "location";
     public static final String COL_DESCRIPTION = "description";
     public static final String COL_DATE_CAPTURED = "date_captured";
@@ -60,40 +75,260 @@ public class Item extends ActiveRecord {
     public static final String COL_DESIRABILITY = "desirability";
     public static final String COL_BARCODE = "barcode";
     public static final String COL_NOTES = "notes";
+    public static final String COL_LOCATION_ID = "location_id";
+    public static final String COL_CATEGORY_ID = "category_id";
 
     /** Database table */
     public static final String SQL_TABLE_NAME = "item";
 
+    /**
+     * Database view queries read from. It joins the category and location
+     * names back in under their original column names.
+     */
+    public static final String SQL_VIEW_NAME = "item_view";
+
+    /** Category lookup table */
+    public static final LookupTable CATEGORIES = new LookupTable("category");
+
+    /** Location lookup table */
+    public static final LookupTable LOCATIONS = new LookupTable("location");
+
+    /** Lookup table DDL create statements, run before the item table's */
+    public static final String[] SQL_CREATE_LOOKUP_TABLES = {
+            CATEGORIES.getCreateSql(), LOCATIONS.getCreateSql() };
+
     /** Database table DDL create statement */
     public static final String SQL_CREATE_TABLE = "CREATE TABLE "
             + SQL_TABLE_NAME + " ("
             + COL_ROW_ID + " integer primary key autoincrement, "
-            + COL_PHOTO_THUMBNAIL + " blob null, "
-            + COL_PHOTO_LARGE + " blob null, "
-            + COL_LOCATION + " text not null, "
+            + COL_PHOTO_THUMBNAIL_REF + " text null, "
+            + COL_PHOTO_THUMBNAIL_WIDTH + " integer not null default 0, "
+            + COL_PHOTO_THUMBNAIL_HEIGHT + " integer not null default 0, "
+            + COL_PHOTO_LARGE_REF + " text null, "
+            + COL_PHOTO_LARGE_WIDTH + " integer not null default 0, "
+            + COL_PHOTO_LARGE_HEIGHT + " integer not null default 0, "
+            + COL_LOCATION_ID + " integer not null references "
+            + LOCATIONS.getTableName() + ", "
             + COL_DESCRIPTION + " text not null, "
-            + COL_DATE_CAPTURED + " text not null, "
-            + COL_DATE_PURCHASED + " text null, "
-            + COL_CATEGORY + " text not null, "
+            + COL_DATE_CAPTURED + " integer not null, "
+            + COL_DATE_PURCHASED + " integer null, "
+            + COL_CATEGORY_ID + " integer not null references "
+            + CATEGORIES.getTableName() + ", "
             + COL_DESIRABILITY + " integer not null default 0, "
             + COL_BARCODE + " text null, "
             + COL_NOTES + " text null"
             + ");";
 
+    /** Database view DDL create statement */
+    public static final String SQL_CREATE_VIEW = "CREATE VIEW " + SQL_VIEW_NAME
+            + " AS SELECT " + SQL_TABLE_NAME + ".*, "
+            + "c." + LookupTable.COL_NAME + " AS " + COL_CATEGORY + ", "
+            + "l." + LookupTable.COL_NAME + " AS " + COL_LOCATION
+            + " FROM " + SQL_TABLE_NAME
+            + " JOIN " + CATEGORIES.getTableName() + " c ON c." + LookupTable.COL_ROW_ID
+            + " = " + SQL_TABLE_NAME + "." + COL_CATEGORY_ID
+            + " JOIN " + LOCATIONS.getTableName() + " l ON l." + LookupTable.COL_ROW_ID
+            + " = " + SQL_TABLE_NAME + "." + COL_LOCATION_ID + ";";
+
+    // Name of a lookup table value, for the search index triggers
+    private static final String CATEGORY_NAME_OF_NEW = "(SELECT " + LookupTable.COL_NAME
+            + " FROM " + CATEGORIES.getTableName() + " WHERE " + LookupTable.COL_ROW_ID
+            + " = new." + COL_CATEGORY_ID + ")";
+    private static final String LOCATION_NAME_OF_NEW = "(SELECT " + LookupTable.COL_NAME
+            + " FROM " + LOCATIONS.getTableName() + " WHERE " + LookupTable.COL_ROW_ID
+            + " = new." + COL_LOCATION_ID + ")";
+
+    /** Full-text search table */
+    public static final String FTS_TABLE_NAME = "item_fts";
+
+    /** Search rank column */
+    public static final String COL_RANK = StorageEngine.COL_RANK;
+
+    /**
+     * Full-text search DDL create statements. The search table shares row IDs
+     * with the item table and is kept in sync by triggers.
+     */
+    public static final String[] SQL_CREATE_SEARCH_INDEX = {
+            "CREATE VIRTUAL TABLE " + FTS_TABLE_NAME + " USING fts4("
+                    + COL_DESCRIPTION + ", " + COL_CATEGORY + ", " + COL_LOCATION + ", "
+                    + COL_NOTES + ", " + COL_BARCODE + ");",
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_insert AFTER INSERT ON "
+                    + SQL_TABLE_NAME + " BEGIN INSERT INTO " + FTS_TABLE_NAME
+                    + " (docid, " + COL_DESCRIPTION + ", " + COL_CATEGORY + ", "
+                    + COL_LOCATION + ", " + COL_NOTES + ", " + COL_BARCODE + ") VALUES ("
+                    + "new." + COL_ROW_ID + ", new." + COL_DESCRIPTION + ", "
+                    + CATEGORY_NAME_OF_NEW + ", " + LOCATION_NAME_OF_NEW + ", new."
+                    + COL_NOTES + ", new." + COL_BARCODE + "); END;",
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_update AFTER UPDATE OF "
+                    + COL_DESCRIPTION + ", " + COL_CATEGORY_ID + ", " + COL_LOCATION_ID + ", "
+                    + COL_NOTES + ", " + COL_BARCODE + " ON " + SQL_TABLE_NAME
+                    + " BEGIN UPDATE " + FTS_TABLE_NAME + " SET "
+                    + COL_DESCRIPTION + " = new." + COL_DESCRIPTION + ", "
+                    + COL_CATEGORY + " = " + CATEGORY_NAME_OF_NEW + ", "
+                    + COL_LOCATION + " = " + LOCATION_NAME_OF_NEW + ", "
+                    + COL_NOTES + " = new." + COL_NOTES + ", "
+                    + COL_BARCODE + " = new." + COL_BARCODE
+                    + " WHERE docid = old." + COL_ROW_ID + "; END;",
+            "CREATE TRIGGER " + FTS_TABLE_NAME + "_delete AFTER DELETE ON "
+                    + SQL_TABLE_NAME + " BEGIN DELETE FROM " + FTS_TABLE_NAME
+                    + " WHERE docid = old." + COL_ROW_ID + "; END;" };
+
+    // Item list columns the sort indexes carry after their key, so a page is
+    // read from the index alone. Each index leaves out the ones in its key
+    private static final String LIST_COLUMNS_AFTER_DESCRIPTION = COL_PHOTO_THUMBNAIL_REF
+            + ", " + COL_LOCATION_ID + ", " + COL_CATEGORY_ID + ", " + COL_DATE_CAPTURED
+            + ", " + COL_DATE_PURCHASED + ", " + COL_DESIRABILITY;
+    private static final String LIST_COLUMNS_AFTER_DATE_CAPTURED = COL_DESCRIPTION
+            + ", " + COL_PHOTO_THUMBNAIL_REF + ", " + COL_LOCATION_ID + ", "
+            + COL_CATEGORY_ID + ", " + COL_DATE_PURCHASED + ", " + COL_DESIRABILITY;
+    private static final String LIST_COLUMNS_AFTER_DESIRABILITY = COL_PHOTO_THUMBNAIL_REF
+            + ", " + COL_LOCATION_ID + ", " + COL_CATEGORY_ID + ", " + COL_DATE_CAPTURED
+            + ", " + COL_DATE_PURCHASED;
+    private static final String LIST_COLUMNS_AFTER_DATE_PURCHASED = COL_PHOTO_THUMBNAIL_REF
+            + ", " + COL_LOCATION_ID + ", " + COL_CATEGORY_ID + ", " + COL_DATE_CAPTURED
+            + ", " + COL_DESIRABILITY;
+
+    /**
+     * Database index DDL create statements. The sort indexes list the row ID
+     * right after the sort columns, so the columns they carry for the item
+     * list don't change the index order.
+     */
+    public static final String[] SQL_CREATE_INDEXES = {
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_PHOTO_THUMBNAIL_REF
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_PHOTO_THUMBNAIL_REF + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_PHOTO_LARGE_REF
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_PHOTO_LARGE_REF + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_DATE_CAPTURED
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_DATE_CAPTURED + ", "
+                    + COL_ROW_ID + ", " + LIST_COLUMNS_AFTER_DATE_CAPTURED + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_DATE_PURCHASED + "_"
+                    + COL_DESCRIPTION + "_idx ON " + SQL_TABLE_NAME + " ("
+                    + COL_DATE_PURCHASED + ", " + COL_DESCRIPTION + ", " + COL_ROW_ID
+                    + ", " + LIST_COLUMNS_AFTER_DATE_PURCHASED + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_DESIRABILITY + "_"
+                    + COL_DESCRIPTION + "_idx ON " + SQL_TABLE_NAME + " ("
+                    + COL_DESIRABILITY + " DESC, " + COL_DESCRIPTION + ", " + COL_ROW_ID
+                    + ", " + LIST_COLUMNS_AFTER_DESIRABILITY + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_DESCRIPTION
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_DESCRIPTION + ", "
+                    + COL_ROW_ID + ", " + LIST_COLUMNS_AFTER_DESCRIPTION + ");",
+            "CREATE UNIQUE INDEX " + SQL_TABLE_NAME + "_" + COL_BARCODE
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_BARCODE + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_CATEGORY_ID
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_CATEGORY_ID + ");",
+            "CREATE INDEX " + SQL_TABLE_NAME + "_" + COL_LOCATION_ID
+                    + "_idx ON " + SQL_TABLE_NAME + " (" + COL_LOCATION_ID + ");" };
+
     /** Default select list */
     public static final String[] DEFAULT_SELECT_LIST = { COL_ROW_ID,
-            COL_PHOTO_THUMBNAIL, COL_PHOTO_LARGE, COL_LOCATION, COL_DESCRIPTION,
-            COL_DATE_CAPTURED, COL_DATE_PURCHASED, COL_CATEGORY, COL_DESIRABILITY,
-            COL_BARCODE, COL_NOTES };
+            COL_PHOTO_THUMBNAIL_REF, COL_PHOTO_THUMBNAIL_WIDTH, COL_PHOTO_THUMBNAIL_HEIGHT,
+            COL_PHOTO_LARGE_REF, COL_PHOTO_LARGE_WIDTH, COL_PHOTO_LARGE_HEIGHT,
+            COL_LOCATION, COL_DESCRIPTION, COL_DATE_CAPTURED, COL_DATE_PURCHASED,
+            COL_CATEGORY, COL_DESIRABILITY, COL_BARCODE, COL_NOTES };
 
     /** Minimum select list */
     public static final String[] MIN_SELECT_LIST = { COL_ROW_ID,
-            COL_PHOTO_THUMBNAIL, COL_DESCRIPTION, COL_LOCATION, COL_DATE_CAPTURED,
-            COL_DATE_PURCHASED, COL_DESIRABILITY};
+            COL_PHOTO_THUMBNAIL_REF, COL_DESCRIPTION, COL_LOCATION, COL_CATEGORY,
+            COL_DATE_CAPTURED, COL_DATE_PURCHASED, COL_DESIRABILITY};
 
     /** Default sort order */
     public static final String DEFAULT_SORT_ORDER = COL_DESCRIPTION + " ASC";
 
+    /** Default number of items per page returned by findPage() */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /** Date of capture sort order, most recent first */
+    public static final String DATE_CAPTURED_SORT_ORDER = COL_DATE_CAPTURED + " DESC";
+
+    /** Date of purchase sort order, most recent first */
+    public static final String DATE_PURCHASED_SORT_ORDER = COL_DATE_PURCHASED + " DESC";
+
+    /*
+     * Item list sort orders. Each is served by an index on its columns
+     * followed by the row ID, which breaks ties, so pages are read in index
+     * order without a sort step. The index also carries the item list
+     * columns, so a page doesn't look up the item rows.
+     */
+
+    /** Sort by description, served by the description index */
+    public static final SortOrder SORT_BY_DESCRIPTION = new SortOrder(COL_ROW_ID)
+            .asc(COL_DESCRIPTION);
+
+    /**
+     * Sort by date of capture, most recent first, served by the date of
+     * capture index read backwards
+     */
+    public static final SortOrder SORT_BY_DATE_CAPTURED = new SortOrder(COL_ROW_ID)
+            .desc(COL_DATE_CAPTURED);
+
+    /**
+     * Sort by desirability, most desirable first, then by description, served
+     * by the desirability and description index
+     */
+    public static final SortOrder SORT_BY_DESIRABILITY = new SortOrder(COL_ROW_ID)
+            .desc(COL_DESIRABILITY)
+            .asc(COL_DESCRIPTION);
+
+    /**
+     * Sort unpurchased items first, by description, then purchased items by
+     * date of purchase, served by the date of purchase and description index
+     */
+    public static final SortOrder SORT_BY_PURCHASED = new SortOrder(COL_ROW_ID)
+            .add(COL_DATE_PURCHASED, false, true)
+            .asc(COL_DESCRIPTION);
+
+    // Row ID order, read straight off the table
+    private static final SortOrder SORT_BY_ROW_ID = new SortOrder(COL_ROW_ID);
+
+    /** Item list sort orders, in the order they are offered */
+    public static final SortOrder[] SORT_ORDERS = { SORT_BY_DESCRIPTION,
+            SORT_BY_DATE_CAPTURED, SORT_BY_DESIRABILITY, SORT_BY_PURCHASED };
+
+    /**
+     * Table layout for storage engines. Category and location are written by
+     * name and stored in their lookup tables; description and category
+     * matches rank first in searches.
+     */
+    public static final StorageTable STORAGE_TABLE = new StorageTable(SQL_TABLE_NAME)
+            .view(SQL_VIEW_NAME)
+            .lookup(COL_CATEGORY, COL_CATEGORY_ID, CATEGORIES)
+            .lookup(COL_LOCATION, COL_LOCATION_ID, LOCATIONS)
+            .search(FTS_TABLE_NAME, 2, COL_DESCRIPTION, COL_CATEGORY, COL_LOCATION,
+                    COL_NOTES, COL_BARCODE)
+            .unique(COL_BARCODE);
+
+    // Columns written by save(), in bind order
+    private static final String[] SAVE_COLUMNS = { COL_DESCRIPTION, COL_LOCATION,
+            COL_DATE_CAPTURED, COL_DATE_PURCHASED, COL_CATEGORY, COL_DESIRABILITY,
+            COL_BARCODE, COL_NOTES, COL_PHOTO_THUMBNAIL_REF, COL_PHOTO_THUMBNAIL_WIDTH,
+            COL_PHOTO_THUMBNAIL_HEIGHT, COL_PHOTO_LARGE_REF, COL_PHOTO_LARGE_WIDTH,
+            COL_PHOTO_LARGE_HEIGHT };
+
+    // Saved columns that hold plain fields rather than photos
+    private static final String[] FIELD_COLUMNS = { COL_DESCRIPTION, COL_LOCATION,
+            COL_DATE_CAPTURED, COL_DATE_PURCHASED, COL_CATEGORY, COL_DESIRABILITY,
+            COL_BARCODE, COL_NOTES };
+
+    // Category name condition, a seek on the category ID index
+    private static final String CATEGORY_SELECTION = COL_CATEGORY_ID + " = (SELECT "
+            + LookupTable.COL_ROW_ID + " FROM " + CATEGORIES.getTableName() + " WHERE "
+            + LookupTable.COL_NAME + " = ?)";
+
+    // Description or category match condition
+    private static final String NAME_OR_CATEGORY_MATCH_SELECTION = COL_ROW_ID
+            + " IN (SELECT docid FROM " + FTS_TABLE_NAME + " WHERE " + COL_DESCRIPTION
+            + " MATCH ? UNION SELECT docid FROM " + FTS_TABLE_NAME + " WHERE "
+            + COL_CATEGORY + " MATCH ?)";
+
+    // Photo reference columns
+    private static final String[] PHOTO_REF_COLUMNS = { COL_PHOTO_THUMBNAIL_REF,
+            COL_PHOTO_LARGE_REF };
+
+    // Photo reference and size columns
+    private static final String[] PHOTO_COLUMNS = { COL_PHOTO_THUMBNAIL_REF,
+            COL_PHOTO_THUMBNAIL_WIDTH, COL_PHOTO_THUMBNAIL_HEIGHT, COL_PHOTO_LARGE_REF,
+            COL_PHOTO_LARGE_WIDTH, COL_PHOTO_LARGE_HEIGHT };
+
     // Data members
     private int id;
     private Bitmap  thumbnailPhoto;
@@ -107,9 +342,24 @@ public class Item extends ActiveRecord {
     private String  barcode;
     private String  notes;
 
+    // Stored photo references and sizes. The photos themselves are only
+    // decoded when first asked for
+    private String thumbnailPhotoRef;
+    private String largePhotoRef;
+    private int thumbnailPhotoWidth;
+    private int thumbnailPhotoHeight;
+    private int largePhotoWidth;
+    private int largePhotoHeight;
+
     // Member variables
-    private String datePattern;
-    private DateFormat dateFormat;
+    private PhotoStore photoStore;
+    private ItemMapper mapper;
+    private List<String> pendingPhotoReleases = new ArrayList<String>();
+    private boolean insertedInTransaction;
+
+    // Photo references and sizes as they were before the item's first save
+    // in a batch transaction, restored if it rolls back
+    private Object[] committedPhotoColumns;
 
     /**
      * Constructs a new <tt>Item</tt> object.
@@ -120,10 +370,6 @@ public class Item extends ActiveRecord {
     public Item(Resources res) {
         super(res);
         Log.d(TAG, "Item()");
-
-        // Set the date format objects
-        datePattern = res.getString(R.string.date_storage_format);
-        dateFormat = new SimpleDateFormat(datePattern);
     }
 
     /**
@@ -135,8 +381,138 @@ public class Item extends ActiveRecord {
     public Cursor findAll() {
         Log.d(TAG, "findAll()");
 
-        return db.query(SQL_TABLE_NAME, DEFAULT_SELECT_LIST, null, null, null,
-                null, DEFAULT_SORT_ORDER);
+        return getStorageEngine().findPage(SQL_TABLE_NAME, DEFAULT_SELECT_LIST,
+                SORT_BY_DESCRIPTION, null, null, 0);
+    }
+
+    /**
+     * Describes the item table to storage engines.
+     *
+     * @return The table layout.
+     */
+    @Override
+    protected StorageTable getStorageTable() {
+        return STORAGE_TABLE;
+    }
+
+    /**
+     * Finds a page of items in a sort order.
+     *
+     * Pages are keyed by the sort column values and row ID of the last item
+     * of the previous page rather than by an offset, so the sort order's
+     * index seeks straight to the start of the page and every page costs the
+     * same no matter how deep into the list it is.
+     *
+     * @param order
+     *            The sort order, one of SORT_ORDERS.
+     * @param afterKey
+     *            Key of the last item of the previous page, as read by
+     *            order.readKey(), null for the first page.
+     * @param pageSize
+     *            Maximum number of items in the page.
+     * @return Cursor with the minimum select list columns, which include
+     *         the key columns of every sort order.
+     */
+    public Cursor findPage(SortOrder order, Object[] afterKey, int pageSize) {
+        Log.d(TAG, "findPage()");
+
+        return getStorageEngine().findPage(SQL_TABLE_NAME, MIN_SELECT_LIST, order,
+                afterKey, null, pageSize);
+    }
+
+    /**
+     * Finds a page of items in a sort order in the background.
+     *
+     * @param order
+     *            The sort order, one of SORT_ORDERS.
+     * @param afterKey
+     *            Key of the last item of the previous page, null for the
+     *            first page.
+     * @param pageSize
+     *            Maximum number of items in the page.
+     * @param callback
+     *            Callback receiving the page on the main thread, may be null.
+     * @return The future of the page.
+     * @see #findPage(SortOrder, Object[], int)
+     */
+    public Future<Cursor> findPageAsync(final SortOrder order, final Object[] afterKey,
+                                        final int pageSize, DatabaseCallback<Cursor> callback) {
+        return asyncQuery(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return findPage(order, afterKey, pageSize);
+            }
+        }, callback);
+    }
+
+    /**
+     * Finds the items between two page keys in a sort order, with no limit
+     * on the number of items. Used to re-read a page whose bounds are known
+     * after rows were added to or removed from it.
+     *
+     * @param order
+     *            The sort order, one of SORT_ORDERS.
+     * @param afterKey
+     *            Key of the last item before the page, null to start at the
+     *            first item.
+     * @param lastKey
+     *            Key of the last item the page may hold, null for no upper
+     *            bound.
+     * @return Cursor with the minimum select list columns.
+     */
+    public Cursor findPageBetween(SortOrder order, Object[] afterKey,
+                                  Object[] lastKey) {
+        Log.d(TAG, "findPageBetween()");
+
+        return getStorageEngine().findPage(SQL_TABLE_NAME, MIN_SELECT_LIST, order,
+                afterKey, lastKey, 0);
+    }
+
+    /**
+     * Finds the items between two page keys in a sort order in the
+     * background.
+     *
+     * @param order
+     *            The sort order, one of SORT_ORDERS.
+     * @param afterKey
+     *            Key of the last item before the page, null to start at the
+     *            first item.
+     * @param lastKey
+     *            Key of the last item the page may hold, null for no upper
+     *            bound.
+     * @param callback
+     *            Callback receiving the page on the main thread, may be null.
+     * @return The future of the page.
+     * @see #findPageBetween(SortOrder, Object[], Object[])
+     */
+    public Future<Cursor> findPageBetweenAsync(final SortOrder order,
+                                               final Object[] afterKey, final Object[] lastKey,
+                                               DatabaseCallback<Cursor> callback) {
+        return asyncQuery(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return findPageBetween(order, afterKey, lastKey);
+            }
+        }, callback);
+    }
+
+    /**
+     * Finds the page key of an item in a sort order.
+     *
+     * @param order
+     *            The sort order.
+     * @param id
+     *            The item row ID.
+     * @return The key or null if the item doesn't exist.
+     */
+    public Object[] findPageKey(SortOrder order, long id) {
+        Cursor cursor = getStorageEngine().load(SQL_TABLE_NAME, id,
+                order.getKeyColumns());
+        try {
+            return cursor.moveToFirst() ? order.readKey(cursor) : null;
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -154,7 +530,6 @@ public class Item extends ActiveRecord {
     public Cursor findAllByNameAndCategory(String searchText, boolean minimumFields) {
         Log.d(TAG, "findAllByName()");
 
-        String selection;
         String fields[];
 
         if (minimumFields)
@@ -162,23 +537,279 @@ public class Item extends ActiveRecord {
         else
             fields = DEFAULT_SELECT_LIST;
 
-        if (searchText == null || searchText.trim().length() == 0) {
-            // No filter
-            selection = null;
-        } else {
-            // Escape the search string
-            searchText = searchText.trim().replace(SINGLE_QUOTE, ESC_SINGLE_QUOTE);
-
-            // Build selection expression
-            String likeExpr = " LIKE '" + searchText + "%'";
-            selection = COL_DESCRIPTION + likeExpr + " OR " + COL_CATEGORY
-                    + likeExpr;
-            Log.d(TAG, "Search filter = " + selection);
+        String match = SQLiteStorageEngine.buildMatchQuery(searchText);
+
+        Query query = Query.from(SQL_VIEW_NAME)
+                .select(fields)
+                .orderBy(DEFAULT_SORT_ORDER);
+
+        if (match.length() > 0) {
+            Log.d(TAG, "Search filter = " + match);
+
+            // Match the description or the category through the search index
+            query.where(NAME_OR_CATEGORY_MATCH_SELECTION, match, match);
         }
 
-        // Perform the search
-        return db.query(SQL_TABLE_NAME, fields, selection, null,
-                null, null, DEFAULT_SORT_ORDER);
+        return find(query);
+    }
+
+    /**
+     * Finds all records with a date of capture or purchase within a range.
+     * Filtering and sorting both run in SQL against the date indexes.
+     *
+     * @param dateColumn
+     *            The date column to filter on, COL_DATE_CAPTURED or
+     *            COL_DATE_PURCHASED.
+     * @param from
+     *            Start of the range (inclusive), null for no lower bound.
+     * @param to
+     *            End of the range (exclusive), null for no upper bound.
+     * @param minimumFields
+     *            If true, returns a list with a reduced number of fields to
+     *            help conserve memory.
+     * @return Result set of the records in the range, most recent first.
+     * @throws IllegalArgumentException
+     *             If dateColumn is not a date column.
+     */
+    public Cursor findAllByDateRange(String dateColumn, Date from, Date to,
+                                     boolean minimumFields) {
+        Log.d(TAG, "findAllByDateRange()");
+
+        if (!COL_DATE_CAPTURED.equals(dateColumn) && !COL_DATE_PURCHASED.equals(dateColumn))
+            throw new IllegalArgumentException("Not a date column: " + dateColumn);
+
+        // Unpurchased items have no purchase date and never match
+        Query query = Query.from(SQL_VIEW_NAME)
+                .select(minimumFields ? MIN_SELECT_LIST : DEFAULT_SELECT_LIST)
+                .where(dateColumn + " IS NOT NULL")
+                .orderBy(dateColumn + " DESC");
+
+        if (from != null)
+            query.where(dateColumn + " >= ?", from);
+        if (to != null)
+            query.where(dateColumn + " < ?", to);
+
+        return find(query);
+    }
+
+    /**
+     * Finds all records in a category. The category name is resolved to its
+     * ID by a subquery that runs once, so the filter itself is an integer
+     * index seek.
+     *
+     * @param category
+     *            The category name.
+     * @param minimumFields
+     *            If true, returns a list with a reduced number of fields to
+     *            help conserve memory.
+     * @return Result set of the records in the category, empty if there is
+     *         no such category.
+     */
+    public Cursor findAllByCategory(String category, boolean minimumFields) {
+        Log.d(TAG, "findAllByCategory()");
+
+        // An unknown category yields a NULL ID, which matches nothing
+        return find(Query.from(SQL_VIEW_NAME)
+                .select(minimumFields ? MIN_SELECT_LIST : DEFAULT_SELECT_LIST)
+                .where(CATEGORY_SELECTION, category)
+                .orderBy(DEFAULT_SORT_ORDER));
+    }
+
+    /**
+     * Finds the names of all categories in use, in alphabetical order.
+     *
+     * @return The category names.
+     */
+    public List<String> findCategories() {
+        Log.d(TAG, "findCategories()");
+
+        Cursor cursor = find(Query.from(CATEGORIES.getTableName())
+                .select(LookupTable.COL_NAME)
+                .whereIn(LookupTable.COL_ROW_ID, Query.from(SQL_TABLE_NAME)
+                        .select(COL_CATEGORY_ID))
+                .orderBy(LookupTable.COL_NAME));
+        try {
+            List<String> categories = new ArrayList<String>(cursor.getCount());
+            while (cursor.moveToNext())
+                categories.add(cursor.getString(0));
+            return categories;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Counts the items. Only the count is read, no row is.
+     *
+     * @return The number of items.
+     */
+    public long count() {
+        Log.d(TAG, "count()");
+
+        return getStorageEngine().count(SQL_TABLE_NAME);
+    }
+
+    /**
+     * Checks whether there is any item, stopping at the first one found.
+     *
+     * @return True if there is at least one item.
+     */
+    public boolean exists() {
+        Log.d(TAG, "exists()");
+
+        Cursor cursor = getStorageEngine().findPage(SQL_TABLE_NAME,
+                new String[] { COL_ROW_ID }, SORT_BY_ROW_ID, null, null, 1);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Computes the item totals in a single pass.
+     *
+     * @return The summary.
+     */
+    public ItemSummary summarize() {
+        Log.d(TAG, "summarize()");
+
+        Cursor cursor = find(Query.from(SQL_TABLE_NAME)
+                .select("COUNT(*)", "COUNT(" + COL_DATE_PURCHASED + ")",
+                        "IFNULL(AVG(" + COL_DESIRABILITY + "), 0)"));
+        try {
+            cursor.moveToFirst();
+            return new ItemSummary(cursor.getLong(0), cursor.getLong(1),
+                    cursor.getDouble(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Computes the item totals in the background.
+     *
+     * @param callback
+     *            Callback receiving the summary on the main thread, may be
+     *            null.
+     * @return The future of the summary.
+     */
+    public Future<ItemSummary> summarizeAsync(DatabaseCallback<ItemSummary> callback) {
+        return async(new Callable<ItemSummary>() {
+            @Override
+            public ItemSummary call() {
+                return summarize();
+            }
+        }, callback);
+    }
+
+    /**
+     * Observes the item totals. They are computed again in the background
+     * whenever items change.
+     *
+     * @return The query, not yet subscribed.
+     * @see #summarize()
+     */
+    public ObservableQuery<ItemSummary> observeSummary() {
+        return observe(new Callable<ItemSummary>() {
+            @Override
+            public ItemSummary call() {
+                return summarize();
+            }
+        }, SQL_TABLE_NAME);
+    }
+
+    /**
+     * Counts the items in each category. Rows are grouped by category ID,
+     * in category ID index order.
+     *
+     * @return Item count by category name, in alphabetical order.
+     */
+    public Map<String, Long> countByCategory() {
+        Log.d(TAG, "countByCategory()");
+
+        Cursor cursor = find(Query.from(SQL_VIEW_NAME)
+                .select(COL_CATEGORY, "COUNT(*)")
+                .groupBy(COL_CATEGORY_ID)
+                .orderBy(COL_CATEGORY));
+        try {
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            while (cursor.moveToNext())
+                counts.put(cursor.getString(0), cursor.getLong(1));
+            return counts;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Computes the average desirability of the items in each category.
+     *
+     * @return Average desirability by category name, in alphabetical order.
+     */
+    public Map<String, Double> averageDesirabilityByCategory() {
+        Log.d(TAG, "averageDesirabilityByCategory()");
+
+        Cursor cursor = find(Query.from(SQL_VIEW_NAME)
+                .select(COL_CATEGORY, "AVG(" + COL_DESIRABILITY + ")")
+                .groupBy(COL_CATEGORY_ID)
+                .orderBy(COL_CATEGORY));
+        try {
+            Map<String, Double> averages = new LinkedHashMap<String, Double>();
+            while (cursor.moveToNext())
+                averages.put(cursor.getString(0), cursor.getDouble(1));
+            return averages;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Searches the description, category, location, notes and barcode of all
+     * records. Every word of the search text is matched as a prefix.
+     *
+     * Results are ranked by where they matched: description matches come
+     * first, then category matches, then matches in any other field. Records
+     * with the same rank are ordered by description.
+     *
+     * @param searchText
+     *            The text to search for.
+     * @param minimumFields
+     *            If true, returns a list with a reduced number of fields to
+     *            help conserve memory.
+     * @return Result set of the matching records, best matches first. The
+     *         result set includes a rank column, lower is better.
+     */
+    public Cursor search(String searchText, boolean minimumFields) {
+        Log.d(TAG, "search()");
+
+        return getStorageEngine().search(SQL_TABLE_NAME,
+                minimumFields ? MIN_SELECT_LIST : DEFAULT_SELECT_LIST, searchText,
+                SORT_BY_DESCRIPTION);
+    }
+
+    /**
+     * Searches all records in the background.
+     *
+     * @param searchText
+     *            The text to search for.
+     * @param minimumFields
+     *            If true, returns a list with a reduced number of fields to
+     *            help conserve memory.
+     * @param callback
+     *            Callback receiving the result set on the main thread, may
+     *            be null.
+     * @return The future of the result set.
+     * @see #search(String, boolean)
+     */
+    public Future<Cursor> searchAsync(final String searchText, final boolean minimumFields,
+                                      DatabaseCallback<Cursor> callback) {
+        return asyncQuery(new Callable<Cursor>() {
+            @Override
+            public Cursor call() {
+                return search(searchText, minimumFields);
+            }
+        }, callback);
     }
 
     /**
@@ -193,53 +824,29 @@ public class Item extends ActiveRecord {
     public void load(int id) throws RecordNotFoundException {
         Log.d(TAG, "load()");
 
-        Cursor cursor = db.query(true, SQL_TABLE_NAME, DEFAULT_SELECT_LIST,
-                COL_ROW_ID + "=" + id, null, null, null, null, null);
+        if (loadFromIdentityMap(id)) {
+            clearDirty();
+            return;
+        }
+
+        long generation = getIdentityMap().getGeneration();
+        Cursor cursor = getStorageEngine().load(SQL_TABLE_NAME, id, DEFAULT_SELECT_LIST);
 
         try {
             if (cursor.getCount() > 0) {
                 cursor.moveToFirst();
 
                 // Set the fields
-                setId(cursor.getInt(cursor.getColumnIndex(COL_ROW_ID)));
-                setDescription(cursor.getString(cursor.getColumnIndex(COL_DESCRIPTION)));
-                setLocation(cursor.getString(cursor.getColumnIndex(COL_LOCATION)));
-
-                // Set the date of capture
-                try {
-                    setCaptureDate(dateFormat.parse(cursor.getString(cursor
-                            .getColumnIndex(COL_DATE_CAPTURED))));
-                } catch (ParseException e) {
-                    Log.e(TAG, "Parsing date of capture failed", e);
-                }
+                if (mapper == null)
+                    mapper = new ItemMapper();
+                mapper.map(cursor, this);
 
-                // Set the date of purchase
-                try {
-                    if (cursor.getString(cursor
-                            .getColumnIndex(COL_DATE_PURCHASED)) != null)
-                        setPurchasedDate(dateFormat.parse(cursor.getString(cursor
-                            .getColumnIndex(COL_DATE_PURCHASED))));
-                } catch (ParseException e) {
-                    Log.e(TAG, "Parsing date of purchase failed", e);
-                }
+                // The photos are decoded on first use
+                thumbnailPhoto = null;
+                largePhoto = null;
+                clearDirty();
 
-                setCategory(cursor.getString(cursor.getColumnIndex(COL_CATEGORY)));
-                setDesirability(cursor.getInt(cursor.getColumnIndex(COL_DESIRABILITY)));
-                setBarcode(cursor.getString(cursor.getColumnIndex(COL_BARCODE)));
-                setNotes(cursor.getString(cursor.getColumnIndex(COL_NOTES)));
-
-                // Set the thumbnail photo
-                byte[] blob = cursor.getBlob(cursor
-                        .getColumnIndex(COL_PHOTO_THUMBNAIL));
-                if (blob != null)
-                    setThumbnailPhoto(BitmapFactory.decodeByteArray(blob, 0,
-                            blob.length));
-
-                // Set the large photo
-                blob = cursor.getBlob(cursor.getColumnIndex(COL_PHOTO_LARGE));
-                if (blob != null)
-                    setLargePhoto(BitmapFactory
-                            .decodeByteArray(blob, 0, blob.length));
+                putInIdentityMap(generation);
             } else {
                 throw new RecordNotFoundException();
             }
@@ -259,6 +866,8 @@ public class Item extends ActiveRecord {
         Log.d(TAG, "reload()");
 
         if (id != 0) {
+            getIdentityMap().invalidate(id);
+
             try {
                 load(id);
             } catch (RecordNotFoundException e) {
@@ -269,10 +878,12 @@ public class Item extends ActiveRecord {
     }
 
     /**
-     * Saves the model to the database.
+     * Saves the model to the database. An update only writes the columns
+     * changed since the item was loaded or last saved, and only stores photos
+     * that were replaced.
      *
      * @return The row ID of newly inserted row, the number of rows affected by
-     *         an update or -1 if an error occurred.
+     *         an update (0 if nothing changed) or -1 if an error occurred.
      */
     @Override
     public long save() {
@@ -281,48 +892,118 @@ public class Item extends ActiveRecord {
         long retval;
 
         if (validate()) {
-            ContentValues values = new ContentValues();
+            if (!getStorageEngine().inTransaction())
+                flushPhotoReleases();
+            else if (committedPhotoColumns == null)
+                committedPhotoColumns = new Object[] { thumbnailPhotoRef,
+                        thumbnailPhotoWidth, thumbnailPhotoHeight, largePhotoRef,
+                        largePhotoWidth, largePhotoHeight };
+
+            // Store the photos that were set, the others keep their reference
+            String thumbnailRef = thumbnailPhotoRef;
+            int thumbnailWidth = thumbnailPhotoWidth;
+            int thumbnailHeight = thumbnailPhotoHeight;
+            if (isDirty(COL_PHOTO_THUMBNAIL_REF)) {
+                thumbnailRef = storePhoto(thumbnailPhoto);
+                if (thumbnailPhoto != null && thumbnailRef == null) {
+                    errors.put(COL_PHOTO_THUMBNAIL_REF,
+                            res.getString(R.string.validation_photo_not_stored));
+                    return -1;
+                }
 
-            // Set the fields
-            values.put(COL_DESCRIPTION, description);
-            values.put(COL_LOCATION, location);
-            values.put(COL_DATE_CAPTURED, DateUtils.formatDate(dateCaptured, datePattern));
-
-            if (datePurchased != null)
-                values.put(COL_DATE_PURCHASED, DateUtils.formatDate(datePurchased, datePattern));
-
-            values.put(COL_CATEGORY, category);
-            values.put(COL_DESIRABILITY, desirability);
-            values.put(COL_BARCODE, barcode);
-            values.put(COL_NOTES, notes);
-
-            // Set the thumbnail photo
-            if (thumbnailPhoto != null) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                thumbnailPhoto.compress(Bitmap.CompressFormat.PNG, 100, out);
-                values.put(COL_PHOTO_THUMBNAIL, out.toByteArray());
-            } else {
-                byte[] out = null;
-                values.put(COL_PHOTO_THUMBNAIL, out);
+                thumbnailWidth = thumbnailPhoto != null ? thumbnailPhoto.getWidth() : 0;
+                thumbnailHeight = thumbnailPhoto != null ? thumbnailPhoto.getHeight() : 0;
             }
 
-            // Set the large photo
-            if (largePhoto != null) {
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-                largePhoto.compress(Bitmap.CompressFormat.PNG, 100, out);
-                values.put(COL_PHOTO_LARGE, out.toByteArray());
-            } else {
-                byte[] out = null;
-                values.put(COL_PHOTO_LARGE, out);
+            String largeRef = largePhotoRef;
+            int largeWidth = largePhotoWidth;
+            int largeHeight = largePhotoHeight;
+            if (isDirty(COL_PHOTO_LARGE_REF)) {
+                largeRef = storePhoto(largePhoto);
+                if (largePhoto != null && largeRef == null) {
+                    errors.put(COL_PHOTO_LARGE_REF,
+                            res.getString(R.string.validation_photo_not_stored));
+
+                    // The thumbnail just stored isn't going to be referenced
+                    if (thumbnailRef != null && !thumbnailRef.equals(thumbnailPhotoRef))
+                        releasePhoto(thumbnailRef);
+                    return -1;
+                }
+
+                largeWidth = largePhoto != null ? largePhoto.getWidth() : 0;
+                largeHeight = largePhoto != null ? largePhoto.getHeight() : 0;
             }
 
-            if (id <= 0) {
-                retval = db.insert(SQL_TABLE_NAME, null, values);
+            boolean inserted = id <= 0;
+
+            // Set the fields
+            Object[] values = {
+                    description,
+                    location,
+                    dateCaptured.getTime(),
+                    datePurchased != null ? datePurchased.getTime() : null,
+                    category,
+                    desirability,
+                    barcode,
+                    notes,
+                    thumbnailRef,
+                    thumbnailWidth,
+                    thumbnailHeight,
+                    largeRef,
+                    largeWidth,
+                    largeHeight };
+
+            try {
+                if (inserted) {
+                    retval = insertRow(SQL_TABLE_NAME, SAVE_COLUMNS, values);
+
+                    if (retval != -1) {
+                        id = (int) retval;
+                        insertedInTransaction = getStorageEngine().inTransaction();
+                    }
+                } else if (isDirty()) {
+                    retval = updateDirtyColumns(SQL_TABLE_NAME, SAVE_COLUMNS,
+                            values, id);
+                } else {
+                    // Nothing changed, nothing to write
+                    return 0;
+                }
+            } catch (SQLiteConstraintException e) {
+                // The unique barcode index is the only constraint a valid
+                // item can break
+                Log.e(TAG, "Saving item failed", e);
+                errors.put(COL_BARCODE, res.getString(R.string.validation_duplicate_barcode));
+                retval = -1;
+            } catch (SQLException e) {
+                Log.e(TAG, "Saving item failed", e);
+                retval = -1;
+            }
 
-                if (retval != -1) id = (int) retval;
+            // Release the photos this item no longer refers to
+            if (retval != -1) {
+                getIdentityMap().invalidate(id);
+                notifyChange(SQL_TABLE_NAME, inserted ? ChangeEvent.INSERT
+                        : ChangeEvent.UPDATE, id);
+
+                String oldThumbnailRef = thumbnailPhotoRef;
+                String oldLargeRef = largePhotoRef;
+
+                thumbnailPhotoRef = thumbnailRef;
+                largePhotoRef = largeRef;
+                setThumbnailPhotoSize(thumbnailWidth, thumbnailHeight);
+                setLargePhotoSize(largeWidth, largeHeight);
+                clearDirty();
+
+                if (oldThumbnailRef != null && !oldThumbnailRef.equals(thumbnailRef))
+                    releasePhoto(oldThumbnailRef);
+                if (oldLargeRef != null && !oldLargeRef.equals(largeRef))
+                    releasePhoto(oldLargeRef);
             } else {
-                retval = db.update(SQL_TABLE_NAME, values, COL_ROW_ID + "="
-                        + id, null);
+                // The photos just stored aren't going to be referenced
+                if (thumbnailRef != null && !thumbnailRef.equals(thumbnailPhotoRef))
+                    releasePhoto(thumbnailRef);
+                if (largeRef != null && !largeRef.equals(largePhotoRef))
+                    releasePhoto(largeRef);
             }
         } else {
             retval = -1;
@@ -330,6 +1011,105 @@ public class Item extends ActiveRecord {
         return retval;
     }
 
+    /**
+     * Saves a new item, or, if an item with the same barcode already exists,
+     * updates that item with the fields that were set instead. Scanning a
+     * product twice therefore updates the item it was first scanned into.
+     *
+     * The existing item is found with a seek on the unique barcode index,
+     * so the save stays a single keyed write. Items that were loaded, or
+     * have no barcode, are saved as usual.
+     *
+     * @return The row ID of the inserted or updated item, or -1 if an error
+     *         occurred.
+     */
+    public long saveByBarcode() {
+        Log.d(TAG, "saveByBarcode()");
+
+        if (id > 0 || barcode == null) {
+            long retval = save();
+            return retval != -1 ? id : -1;
+        }
+
+        long existingId;
+        try {
+            existingId = getStorageEngine().findId(SQL_TABLE_NAME, COL_BARCODE, barcode);
+        } catch (SQLException e) {
+            Log.e(TAG, "Looking up item barcode failed", e);
+            return -1;
+        }
+
+        if (existingId == StorageEngine.NOT_FOUND) {
+            long retval = save();
+            return retval != -1 ? id : -1;
+        }
+
+        // Only the fields that were set are written over the existing item.
+        // Its stored photos are read first, so the ones replaced by the
+        // scan are released
+        try {
+            if (!readPhotoColumns(existingId))
+                return save() != -1 ? id : -1;
+        } catch (SQLException e) {
+            Log.e(TAG, "Reading item photos failed", e);
+            return -1;
+        }
+
+        id = (int) existingId;
+        if (save() == -1) {
+            id = 0;
+            thumbnailPhotoRef = null;
+            largePhotoRef = null;
+            setThumbnailPhotoSize(0, 0);
+            setLargePhotoSize(0, 0);
+            return -1;
+        }
+
+        return id;
+    }
+
+    /**
+     * Reads the stored photo references and sizes of a row into the model,
+     * without marking them as changed.
+     *
+     * @param rowId
+     *            The row ID.
+     * @return True if the row was found, false otherwise.
+     */
+    private boolean readPhotoColumns(long rowId) {
+        Cursor cursor = getStorageEngine().load(SQL_TABLE_NAME, rowId, PHOTO_COLUMNS);
+        try {
+            if (!cursor.moveToFirst())
+                return false;
+
+            thumbnailPhotoRef = cursor.getString(0);
+            setThumbnailPhotoSize(cursor.getInt(1), cursor.getInt(2));
+            largePhotoRef = cursor.getString(3);
+            setLargePhotoSize(cursor.getInt(4), cursor.getInt(5));
+            return true;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Saves the item by barcode in the background.
+     *
+     * @param callback
+     *            Callback receiving the result of saveByBarcode() on the main
+     *            thread, may be null.
+     * @return The future of the save.
+     * @see #saveByBarcode()
+     */
+    public Future<Long> saveByBarcodeAsync(DatabaseCallback<Long> callback) {
+        return async(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return saveByBarcode();
+            }
+        }, callback);
+    }
+
     /**
      * Deletes the model from the database.
      *
@@ -339,8 +1119,247 @@ public class Item extends ActiveRecord {
     public boolean delete() {
         Log.d(TAG, "delete()");
 
-        return db.delete(SQL_TABLE_NAME, COL_ROW_ID + "=" + id,
-                null) > 0;
+        boolean deleted;
+
+        if (!getStorageEngine().inTransaction())
+            flushPhotoReleases();
+
+        try {
+            // Read the stored photo references, the model may not be loaded
+            String[] refs = null;
+            Cursor cursor = getStorageEngine().load(SQL_TABLE_NAME, id,
+                    new String[] { COL_PHOTO_THUMBNAIL_REF, COL_PHOTO_LARGE_REF });
+            try {
+                if (cursor.moveToFirst())
+                    refs = new String[] { cursor.getString(0), cursor.getString(1) };
+            } finally {
+                cursor.close();
+            }
+
+            deleted = deleteRow(SQL_TABLE_NAME, id) > 0;
+
+            if (deleted) {
+                getIdentityMap().invalidate(id);
+                notifyChange(SQL_TABLE_NAME, ChangeEvent.DELETE, id);
+            }
+
+            // Release the item's photos
+            if (deleted && refs != null) {
+                for (String ref : refs) {
+                    if (ref != null)
+                        releasePhoto(ref);
+                }
+
+                thumbnailPhotoRef = null;
+                largePhotoRef = null;
+            }
+        } catch (SQLException e) {
+            Log.e(TAG, "Deleting item failed", e);
+            deleted = false;
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Called after a batch transaction the item took part in has ended.
+     *
+     * Photos released inside the transaction are only removed from the photo
+     * store once it has ended, and photos stored inside it are removed too
+     * if it was rolled back. After a rollback an item inserted in the
+     * transaction goes back to being unsaved, an updated item's fields are
+     * marked as changed again, and the photo references go back to the
+     * stored ones, so the next save stores the photos again.
+     *
+     * Inside an outer transaction the photos are left for it to settle.
+     *
+     * @param committed
+     *            True if the transaction was committed, false if it was
+     *            rolled back.
+     */
+    @Override
+    protected void onTransactionFinished(boolean committed) {
+        // Readers may have cached the state from before the commit
+        if (id != 0)
+            getIdentityMap().invalidate(id);
+
+        if (!committed) {
+            if (insertedInTransaction) {
+                id = 0;
+            } else {
+                // The rolled back update has to be written again
+                for (String column : FIELD_COLUMNS) {
+                    markDirty(column);
+                }
+            }
+
+            restorePhotoColumns();
+        }
+        insertedInTransaction = false;
+
+        if (!getStorageEngine().inTransaction())
+            flushPhotoReleases();
+    }
+
+    /**
+     * Settles the photos held back by a transaction that has ended. Batch
+     * transactions do this when they finish; after a transaction the caller
+     * opened on the storage engine it happens on the item's next save or
+     * delete, which is safe because a photo is only removed once no row
+     * refers to it.
+     */
+    private void flushPhotoReleases() {
+        committedPhotoColumns = null;
+
+        if (pendingPhotoReleases.isEmpty())
+            return;
+
+        // Only photos no row refers to are removed, which after a rollback
+        // includes the ones stored in the transaction
+        List<String> refs = new ArrayList<String>(pendingPhotoReleases);
+        pendingPhotoReleases.clear();
+
+        for (String ref : refs) {
+            releasePhoto(ref);
+        }
+    }
+
+    /**
+     * Puts back the photo references and sizes the item had before it was
+     * saved in a rolled back transaction, marking the ones that changed so
+     * the next save writes them.
+     */
+    private void restorePhotoColumns() {
+        if (committedPhotoColumns == null)
+            return;
+
+        Object[] committed = committedPhotoColumns;
+        committedPhotoColumns = null;
+
+        String ref = (String) committed[0];
+        if (ref == null ? thumbnailPhotoRef != null : !ref.equals(thumbnailPhotoRef)) {
+            thumbnailPhotoRef = ref;
+            setThumbnailPhotoSize((Integer) committed[1], (Integer) committed[2]);
+            markDirty(COL_PHOTO_THUMBNAIL_REF);
+            markDirty(COL_PHOTO_THUMBNAIL_WIDTH);
+            markDirty(COL_PHOTO_THUMBNAIL_HEIGHT);
+        }
+
+        ref = (String) committed[3];
+        if (ref == null ? largePhotoRef != null : !ref.equals(largePhotoRef)) {
+            largePhotoRef = ref;
+            setLargePhotoSize((Integer) committed[4], (Integer) committed[5]);
+            markDirty(COL_PHOTO_LARGE_REF);
+            markDirty(COL_PHOTO_LARGE_WIDTH);
+            markDirty(COL_PHOTO_LARGE_HEIGHT);
+        }
+    }
+
+    /**
+     * Creates a copy of the item to be kept in the identity map. The copy
+     * shares the item's photos, which are never modified in place.
+     *
+     * @return The copy.
+     */
+    @Override
+    protected CachedActiveRecord copy() {
+        Item copy = new Item(res);
+        copy.copyFrom(this);
+
+        return copy;
+    }
+
+    /**
+     * Sets the item's fields from a cached copy.
+     *
+     * @param record
+     *            The copy returned earlier by copy().
+     */
+    @Override
+    protected void copyFrom(CachedActiveRecord record) {
+        Item item = (Item) record;
+
+        id = item.id;
+        description = item.description;
+        location = item.location;
+        dateCaptured = item.dateCaptured != null ? new Date(item.dateCaptured.getTime()) : null;
+        datePurchased = item.datePurchased != null ? new Date(item.datePurchased.getTime())
+                : null;
+        category = item.category;
+        desirability = item.desirability;
+        barcode = item.barcode;
+        notes = item.notes;
+        thumbnailPhoto = item.thumbnailPhoto;
+        thumbnailPhotoRef = item.thumbnailPhotoRef;
+        thumbnailPhotoWidth = item.thumbnailPhotoWidth;
+        thumbnailPhotoHeight = item.thumbnailPhotoHeight;
+        largePhoto = item.largePhoto;
+        largePhotoRef = item.largePhotoRef;
+        largePhotoWidth = item.largePhotoWidth;
+        largePhotoHeight = item.largePhotoHeight;
+    }
+
+    /**
+     * Estimates the memory held by the item, which is mostly its photos.
+     *
+     * @return The size in bytes.
+     */
+    @Override
+    protected int sizeOf() {
+        int size = DEFAULT_RECORD_SIZE;
+
+        if (thumbnailPhoto != null)
+            size += thumbnailPhoto.getByteCount();
+        if (largePhoto != null)
+            size += largePhoto.getByteCount();
+        if (notes != null)
+            size += notes.length() * 2;
+
+        return size;
+    }
+
+    /**
+     * Encodes a photo and writes it to the photo store.
+     *
+     * @param photo
+     *            The photo to store, may be null.
+     * @return The photo reference or null if there is no photo or it could
+     *         not be stored.
+     */
+    private String storePhoto(Bitmap photo) {
+        if (photo == null)
+            return null;
+
+        // The store picks the codec, lossy for all but small images
+        String ref = photoStore.put(photo);
+        if (ref == null) {
+            Log.e(TAG, "Storing photo failed");
+        } else if (getStorageEngine().inTransaction()) {
+            // Checked once the transaction ends, kept if a row refers to it
+            pendingPhotoReleases.add(ref);
+        }
+
+        return ref;
+    }
+
+    /**
+     * Removes a photo from the photo store once no item refers to it anymore.
+     *
+     * @param ref
+     *            The photo reference.
+     */
+    private void releasePhoto(String ref) {
+        // Wait for the transaction to commit before touching the store
+        if (getStorageEngine().inTransaction()) {
+            pendingPhotoReleases.add(ref);
+            return;
+        }
+
+        long count = getStorageEngine().countMatching(SQL_TABLE_NAME,
+                PHOTO_REF_COLUMNS, ref);
+
+        if (count == 0)
+            photoStore.delete(ref);
     }
 
     /**
@@ -395,6 +1414,16 @@ public class Item extends ActiveRecord {
         return id;
     }
 
+    /**
+     * Gets the row ID of the item.
+     *
+     * @return The row ID or 0 if the item hasn't been saved yet.
+     */
+    @Override
+    public long getRowId() {
+        return id;
+    }
+
     /**
      * Sets the item's ID.
      *
@@ -421,7 +1450,9 @@ public class Item extends ActiveRecord {
      *            The item's description.
      */
     public void setDescription(String description) {
-        this.description = description.trim();
+        description = description.trim();
+        markDirty(COL_DESCRIPTION, this.description, description);
+        this.description = description;
     }
 
     /**
@@ -440,7 +1471,9 @@ public class Item extends ActiveRecord {
      *            The item's location.
      */
     public void setLocation(String location) {
-        this.location = location.trim();
+        location = location.trim();
+        markDirty(COL_LOCATION, this.location, location);
+        this.location = location;
     }
 
     /**
@@ -459,6 +1492,7 @@ public class Item extends ActiveRecord {
      *            The item's capture date.
      */
     public void setCaptureDate(Date dateCaptured) {
+        markDirty(COL_DATE_CAPTURED, this.dateCaptured, dateCaptured);
         this.dateCaptured = dateCaptured;
     }
 
@@ -478,6 +1512,7 @@ public class Item extends ActiveRecord {
      *            The item's purchase date.
      */
     public void setPurchasedDate(Date datePurchased) {
+        markDirty(COL_DATE_PURCHASED, this.datePurchased, datePurchased);
         this.datePurchased = datePurchased;
     }
 
@@ -497,7 +1532,9 @@ public class Item extends ActiveRecord {
      *            The item's category.
      */
     public void setCategory(String category) {
-        this.category = category.trim();
+        category = category.trim();
+        markDirty(COL_CATEGORY, this.category, category);
+        this.category = category;
     }
 
     /**
@@ -516,6 +1553,7 @@ public class Item extends ActiveRecord {
      *            The item's desirability.
      */
     public void setDesirability(int desirability) {
+        markDirty(COL_DESIRABILITY, this.desirability, desirability);
         this.desirability = desirability;
     }
 
@@ -532,10 +1570,17 @@ public class Item extends ActiveRecord {
      * Sets the item's barcode.
      *
      * @param barcode
-     *            The item's barcode.
+     *            The item's barcode, null or blank for none.
      */
     public void setBarcode(String barcode) {
-        this.barcode = barcode.trim();
+        // No barcode is stored as NULL, which the unique index allows any
+        // number of times
+        barcode = barcode != null ? barcode.trim() : "";
+        if (barcode.length() == 0)
+            barcode = null;
+
+        markDirty(COL_BARCODE, this.barcode, barcode);
+        this.barcode = barcode;
     }
 
     /**
@@ -554,18 +1599,51 @@ public class Item extends ActiveRecord {
      *            The item's notes.
      */
     public void setNotes(String notes) {
-        this.notes = notes.trim();
+        notes = notes.trim();
+        markDirty(COL_NOTES, this.notes, notes);
+        this.notes = notes;
     }
 
     /**
-     * Gets the item's thumbnail photo.
+     * Gets the item's thumbnail photo, decoding it from the photo store on
+     * first use. Use loadThumbnailPhoto() on the main thread.
      *
      * @return The item's thumbnail photo.
      */
     public Bitmap getThumbnailPhoto() {
+        if (thumbnailPhoto == null && !isDirty(COL_PHOTO_THUMBNAIL_REF) && thumbnailPhotoRef != null)
+            thumbnailPhoto = photoStore.decode(thumbnailPhotoRef);
+
         return thumbnailPhoto;
     }
 
+    /**
+     * Gets the item's thumbnail photo, decoding it from the photo store on a
+     * background thread if it hasn't been decoded yet.
+     *
+     * @param callback
+     *            Callback that receives the photo on the main thread.
+     */
+    public void loadThumbnailPhoto(final PhotoCallback callback) {
+        if (thumbnailPhoto != null || isDirty(COL_PHOTO_THUMBNAIL_REF) || thumbnailPhotoRef == null) {
+            callback.onPhotoLoaded(thumbnailPhoto);
+            return;
+        }
+
+        final String ref = thumbnailPhotoRef;
+        photoStore.decodeAsync(ref, new PhotoCallback() {
+            @Override
+            public void onPhotoLoaded(Bitmap photo) {
+                // Keep the photo unless the item changed in the meantime
+                if (thumbnailPhoto == null && !isDirty(COL_PHOTO_THUMBNAIL_REF)
+                        && ref.equals(thumbnailPhotoRef))
+                    thumbnailPhoto = photo;
+
+                callback.onPhotoLoaded(photo);
+            }
+        });
+    }
+
     /**
      * Sets the item's thumbnail photo.
      *
@@ -574,17 +1652,50 @@ public class Item extends ActiveRecord {
      */
     public void setThumbnailPhoto(Bitmap thumbnailPhoto) {
         this.thumbnailPhoto = thumbnailPhoto;
+        markDirty(COL_PHOTO_THUMBNAIL_REF);
+        markDirty(COL_PHOTO_THUMBNAIL_WIDTH);
+        markDirty(COL_PHOTO_THUMBNAIL_HEIGHT);
     }
 
     /**
-     * Gets the item's large photo.
+     * Gets the item's large photo, decoding it from the photo store on first
+     * use. Use loadLargePhoto() on the main thread.
      *
      * @return The item's photo.
      */
     public Bitmap getLargePhoto() {
+        if (largePhoto == null && !isDirty(COL_PHOTO_LARGE_REF) && largePhotoRef != null)
+            largePhoto = photoStore.decode(largePhotoRef);
+
         return largePhoto;
     }
 
+    /**
+     * Gets the item's large photo, decoding it from the photo store on a
+     * background thread if it hasn't been decoded yet.
+     *
+     * @param callback
+     *            Callback that receives the photo on the main thread.
+     */
+    public void loadLargePhoto(final PhotoCallback callback) {
+        if (largePhoto != null || isDirty(COL_PHOTO_LARGE_REF) || largePhotoRef == null) {
+            callback.onPhotoLoaded(largePhoto);
+            return;
+        }
+
+        final String ref = largePhotoRef;
+        photoStore.decodeAsync(ref, new PhotoCallback() {
+            @Override
+            public void onPhotoLoaded(Bitmap photo) {
+                // Keep the photo unless the item changed in the meantime
+                if (largePhoto == null && !isDirty(COL_PHOTO_LARGE_REF) && ref.equals(largePhotoRef))
+                    largePhoto = photo;
+
+                callback.onPhotoLoaded(photo);
+            }
+        });
+    }
+
     /**
      * Sets the item's large photo.
      *
@@ -593,6 +1704,92 @@ public class Item extends ActiveRecord {
      */
     public void setLargePhoto(Bitmap photo) {
         this.largePhoto = photo;
+        markDirty(COL_PHOTO_LARGE_REF);
+        markDirty(COL_PHOTO_LARGE_WIDTH);
+        markDirty(COL_PHOTO_LARGE_HEIGHT);
+    }
+
+    /**
+     * Checks whether the item has a large photo, without decoding it.
+     *
+     * @return True if the item has a large photo, false otherwise.
+     */
+    public boolean hasLargePhoto() {
+        return isDirty(COL_PHOTO_LARGE_REF) ? largePhoto != null : largePhotoRef != null;
+    }
+
+    /**
+     * Gets the photo store reference of the item's saved thumbnail photo.
+     *
+     * @return The reference or null if the saved item has no thumbnail.
+     */
+    public String getThumbnailPhotoRef() {
+        return thumbnailPhotoRef;
+    }
+
+    /**
+     * Sets the photo store reference of the item's saved thumbnail photo.
+     *
+     * @param thumbnailPhotoRef
+     *            The reference, as read from the database.
+     */
+    void setThumbnailPhotoRef(String thumbnailPhotoRef) {
+        this.thumbnailPhotoRef = thumbnailPhotoRef;
+    }
+
+    /**
+     * Gets the photo store reference of the item's saved large photo.
+     *
+     * @return The reference or null if the saved item has no large photo.
+     */
+    public String getLargePhotoRef() {
+        return largePhotoRef;
+    }
+
+    /**
+     * Sets the photo store reference of the item's saved large photo.
+     *
+     * @param largePhotoRef
+     *            The reference, as read from the database.
+     */
+    void setLargePhotoRef(String largePhotoRef) {
+        this.largePhotoRef = largePhotoRef;
+    }
+
+    /**
+     * Sets the stored size of the item's thumbnail photo.
+     *
+     * @param width
+     *            The width in pixels, as read from the database.
+     * @param height
+     *            The height in pixels, as read from the database.
+     */
+    void setThumbnailPhotoSize(int width, int height) {
+        this.thumbnailPhotoWidth = width;
+        this.thumbnailPhotoHeight = height;
+    }
+
+    /**
+     * Sets the stored size of the item's large photo.
+     *
+     * @param width
+     *            The width in pixels, as read from the database.
+     * @param height
+     *            The height in pixels, as read from the database.
+     */
+    void setLargePhotoSize(int width, int height) {
+        this.largePhotoWidth = width;
+        this.largePhotoHeight = height;
+    }
+
+    /**
+     * Sets the photo store the item's photos are kept in.
+     *
+     * @param photoStore
+     *            Photo store.
+     */
+    public void setPhotoStore(PhotoStore photoStore) {
+        this.photoStore = photoStore;
     }
 
 }
@@ -0,0 +1,120 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+package com.zunisoft.wishlist.model;
+
+import android.database.Cursor;
+
+import com.zunisoft.common.db.RowMapper;
+
+import java.util.Date;
+
+/**
+ * Maps item rows into <tt>Item</tt> objects.
+ *
+ * Columns missing from the cursor, e.g. when it was read with the minimum
+ * select list, are left untouched in the target item. Photos are mapped as
+ * photo store references and sizes only; the item decodes them on first
+ * use.
+ *
+ * @author krdavis
+ */
+public class ItemMapper extends RowMapper<Item> {
+    // Column indexes
+    private int colId;
+    private int colDescription;
+    private int colLocation;
+    private int colDateCaptured;
+    private int colDatePurchased;
+    private int colCategory;
+    private int colDesirability;
+    private int colBarcode;
+    private int colNotes;
+    private int colThumbnailRef;
+    private int colThumbnailWidth;
+    private int colThumbnailHeight;
+    private int colLargeRef;
+    private int colLargeWidth;
+    private int colLargeHeight;
+
+    /**
+     * Looks up the indexes of the item columns in a cursor.
+     *
+     * @param cursor
+     *            The cursor.
+     */
+    @Override
+    protected void resolveColumns(Cursor cursor) {
+        colId = indexOf(cursor, Item.COL_ROW_ID);
+        colDescription = indexOf(cursor, Item.COL_DESCRIPTION);
+        colLocation = indexOf(cursor, Item.COL_LOCATION);
+        colDateCaptured = indexOf(cursor, Item.COL_DATE_CAPTURED);
+        colDatePurchased = indexOf(cursor, Item.COL_DATE_PURCHASED);
+        colCategory = indexOf(cursor, Item.COL_CATEGORY);
+        colDesirability = indexOf(cursor, Item.COL_DESIRABILITY);
+        colBarcode = indexOf(cursor, Item.COL_BARCODE);
+        colNotes = indexOf(cursor, Item.COL_NOTES);
+        colThumbnailRef = indexOf(cursor, Item.COL_PHOTO_THUMBNAIL_REF);
+        colThumbnailWidth = indexOf(cursor, Item.COL_PHOTO_THUMBNAIL_WIDTH);
+        colThumbnailHeight = indexOf(cursor, Item.COL_PHOTO_THUMBNAIL_HEIGHT);
+        colLargeRef = indexOf(cursor, Item.COL_PHOTO_LARGE_REF);
+        colLargeWidth = indexOf(cursor, Item.COL_PHOTO_LARGE_WIDTH);
+        colLargeHeight = indexOf(cursor, Item.COL_PHOTO_LARGE_HEIGHT);
+    }
+
+    /**
+     * Maps the current row of the cursor into an item.
+     *
+     * @param cursor
+     *            The cursor, moved to the row.
+     * @param item
+     *            The item to map the row into.
+     */
+    @Override
+    protected void mapRow(Cursor cursor, Item item) {
+        if (colId != NO_COLUMN)
+            item.setId(cursor.getInt(colId));
+        if (colDescription != NO_COLUMN)
+            item.setDescription(cursor.getString(colDescription));
+        if (colLocation != NO_COLUMN)
+            item.setLocation(cursor.getString(colLocation));
+        if (colDateCaptured != NO_COLUMN)
+            item.setCaptureDate(new Date(cursor.getLong(colDateCaptured)));
+        if (colDatePurchased != NO_COLUMN)
+            item.setPurchasedDate(cursor.isNull(colDatePurchased) ? null
+                    : new Date(cursor.getLong(colDatePurchased)));
+        if (colCategory != NO_COLUMN)
+            item.setCategory(cursor.getString(colCategory));
+        if (colDesirability != NO_COLUMN)
+            item.setDesirability(cursor.getInt(colDesirability));
+        if (colBarcode != NO_COLUMN)
+            item.setBarcode(cursor.getString(colBarcode));
+        if (colNotes != NO_COLUMN)
+            item.setNotes(cursor.getString(colNotes));
+        if (colThumbnailRef != NO_COLUMN)
+            item.setThumbnailPhotoRef(cursor.getString(colThumbnailRef));
+        if (colThumbnailWidth != NO_COLUMN && colThumbnailHeight != NO_COLUMN)
+            item.setThumbnailPhotoSize(cursor.getInt(colThumbnailWidth),
+                    cursor.getInt(colThumbnailHeight));
+        if (colLargeRef != NO_COLUMN)
+            item.setLargePhotoRef(cursor.getString(colLargeRef));
+        if (colLargeWidth != NO_COLUMN && colLargeHeight != NO_COLUMN)
+            item.setLargePhotoSize(cursor.getInt(colLargeWidth),
+                    cursor.getInt(colLargeHeight));
+    }
+}
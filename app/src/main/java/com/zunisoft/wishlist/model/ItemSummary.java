@@ -0,0 +1,89 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.wishlist.model;
+
+/**
+ * Item summary.
+ *
+ * Totals over all items, computed in a single aggregate query by
+ * Item.summarize().
+ *
+ * @author krdavis
+ */
+public class ItemSummary {
+    // Member variables
+    private final long count;
+    private final long purchasedCount;
+    private final double averageDesirability;
+
+    /**
+     * Constructs a new <tt>ItemSummary</tt> object.
+     *
+     * @param count
+     *            Number of items.
+     * @param purchasedCount
+     *            Number of purchased items.
+     * @param averageDesirability
+     *            Average desirability, 0 if there are no items.
+     */
+    public ItemSummary(long count, long purchasedCount, double averageDesirability) {
+        this.count = count;
+        this.purchasedCount = purchasedCount;
+        this.averageDesirability = averageDesirability;
+    }
+
+    /**
+     * Gets the number of items.
+     *
+     * @return The count.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the number of purchased items.
+     *
+     * @return The count.
+     */
+    public long getPurchasedCount() {
+        return purchasedCount;
+    }
+
+    /**
+     * Gets the average desirability of the items.
+     *
+     * @return The average, 0 if there are no items.
+     */
+    public double getAverageDesirability() {
+        return averageDesirability;
+    }
+
+    /**
+     * Returns a string representation of the summary.
+     *
+     * @return The summary.
+     */
+    @Override
+    public String toString() {
+        return "count=" + count + " purchased=" + purchasedCount
+                + " averageDesirability=" + averageDesirability;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.wishlist.model;
+
+import com.zunisoft.common.db.MemoryStorageEngine;
+import com.zunisoft.common.db.Query;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the item storage tests against the in-memory storage engine.
+ *
+ * @author krdavis
+ */
+public class ItemMemoryStorageTest extends ItemStorageTest {
+    private MemoryStorageEngine storage;
+
+    /**
+     * Creates an empty engine.
+     *
+     * @throws Exception
+     *             If setup fails.
+     */
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        storage = new MemoryStorageEngine();
+    }
+
+    @Override
+    protected void attach(Item item) {
+        item.setStorageEngine(storage);
+    }
+
+    /**
+     * SQL-only reporting queries are refused rather than silently empty.
+     */
+    @Test
+    public void testSqlQueriesUnsupported() {
+        try {
+            newItem().summarize();
+            fail("SQL query ran without a database");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Query plans are refused too, there is no database to explain them.
+     */
+    @Test
+    public void testExplainUnsupported() {
+        try {
+            newItem().explain(Query.from(Item.SQL_TABLE_NAME));
+            fail("Query plan without a database");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.wishlist.model;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import com.zunisoft.common.db.ActiveRecord;
+import com.zunisoft.common.db.DatabaseAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+
+/**
+ * Runs the item storage tests against a scratch SQLite database.
+ *
+ * @author krdavis
+ */
+public class ItemSQLiteStorageTest extends ItemStorageTest {
+    private File dbFile;
+    private SQLiteDatabase db;
+
+    /**
+     * Creates the scratch database.
+     *
+     * @throws Exception
+     *             If setup fails.
+     */
+    @Before
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+
+        dbFile = new File(RuntimeEnvironment.application.getCacheDir(),
+                "item_storage_test.db");
+        SQLiteDatabase.deleteDatabase(dbFile);
+        db = SQLiteDatabase.openOrCreateDatabase(dbFile, null);
+        DatabaseAdapter.createSchema(db);
+    }
+
+    /**
+     * Deletes the scratch database.
+     *
+     * @throws Exception
+     *             If teardown fails.
+     */
+    @After
+    @Override
+    public void tearDown() throws Exception {
+        ActiveRecord.releaseStatementCaches();
+        db.close();
+        SQLiteDatabase.deleteDatabase(dbFile);
+
+        super.tearDown();
+    }
+
+    @Override
+    protected void attach(Item item) {
+        item.setSQLiteDatabase(db);
+    }
+}
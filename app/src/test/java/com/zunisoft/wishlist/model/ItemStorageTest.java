@@ -0,0 +1,544 @@
+/*
+ * ZUNISOFT CONFIDENTIAL
+ * _____________________
+ *
+ *  Copyright [2014] - [2015] ZuniSoft, LLC
+ *  All Rights Reserved.
+ *
+ * NOTICE: All information contained herein is, and remains
+ * the property of ZuniSoft, LLC and its suppliers, if any.
+ * The intellectual and technical concepts contained herein
+ * are proprietary to ZuniSoft, LLC and its suppliers and may
+ * be covered by U.S. and Foreign Patents, patents in process,
+ * and are protected by trade secret or copyright law. Dissemination
+ * of this information or reproduction of this material is strictly
+ * forbidden unless prior written permission is obtained from
+ * ZuniSoft, LLC.
+ */
+
+
+package com.zunisoft.wishlist.model;
+
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+
+import com.zunisoft.common.db.ActiveRecord;
+import com.zunisoft.common.db.BatchResult;
+import com.zunisoft.common.db.RecordNotFoundException;
+import com.zunisoft.common.db.SortOrder;
+import com.zunisoft.common.db.StorageEngine;
+import com.zunisoft.common.photo.PhotoStore;
+import com.zunisoft.wishlist.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * CRUD, paging and search tests of <tt>Item</tt>, run against every storage
+ * engine by a subclass per engine.
+ *
+ * The tests run on the JVM under Robolectric, so they need no device or
+ * emulator.
+ *
+ * @author krdavis
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public abstract class ItemStorageTest {
+    // Base capture date, 2015-01-01
+    private static final long CAPTURED = 1420070400000L;
+    private static final long DAY = 86400000L;
+
+    private File photoDir;
+    private PhotoStore photoStore;
+
+    // Side of the next test photo. Every photo gets its own size, since
+    // Robolectric encodes a bitmap from its size rather than its pixels
+    private int photoSize = 8;
+
+    /**
+     * Gives an item the storage under test.
+     *
+     * @param item
+     *            The item.
+     */
+    protected abstract void attach(Item item);
+
+    /**
+     * Creates a scratch photo store.
+     *
+     * @throws Exception
+     *             If setup fails.
+     */
+    @Before
+    public void setUp() throws Exception {
+        photoDir = new File(RuntimeEnvironment.application.getCacheDir(),
+                "storage_test_photos");
+        deleteRecursively(photoDir);
+        photoStore = new PhotoStore(photoDir);
+    }
+
+    /**
+     * Empties the identity maps, which are shared by every engine, and
+     * deletes the scratch photo store.
+     *
+     * @throws Exception
+     *             If teardown fails.
+     */
+    @After
+    public void tearDown() throws Exception {
+        ActiveRecord.clearIdentityMaps();
+        deleteRecursively(photoDir);
+    }
+
+    /**
+     * Saves an item and loads it back.
+     */
+    @Test
+    public void testSaveAndLoad() throws RecordNotFoundException {
+        Item item = newItem("Blue kettle", "Kitchen", "Garage sale", "111");
+        item.setDesirability(4);
+        item.setNotes("Whistles");
+        long id = item.save();
+        assertTrue(id > 0);
+
+        Item loaded = newItem();
+        loaded.load((int) id);
+        assertEquals("Blue kettle", loaded.getDescription());
+        assertEquals("Kitchen", loaded.getCategory());
+        assertEquals("Garage sale", loaded.getLocation());
+        assertEquals("111", loaded.getBarcode());
+        assertEquals("Whistles", loaded.getNotes());
+        assertEquals(4, loaded.getDesirability());
+        assertEquals(item.getCaptureDate(), loaded.getCaptureDate());
+        assertNull(loaded.getPurchasedDate());
+        assertFalse(loaded.isDirty());
+    }
+
+    /**
+     * Updates only write changed fields, and an unchanged item writes
+     * nothing.
+     */
+    @Test
+    public void testUpdate() throws RecordNotFoundException {
+        Item item = newItem("Teapot", "Kitchen", "Store", null);
+        long id = item.save();
+
+        item.setCategory("Gifts");
+        item.setPurchasedDate(new Date(CAPTURED + DAY));
+        assertEquals(1, item.save());
+        assertEquals(0, item.save());
+
+        Item loaded = newItem();
+        loaded.load((int) id);
+        assertEquals("Gifts", loaded.getCategory());
+        assertEquals("Store", loaded.getLocation());
+        assertEquals(new Date(CAPTURED + DAY), loaded.getPurchasedDate());
+    }
+
+    /**
+     * Deleted items can't be loaded and aren't counted.
+     */
+    @Test
+    public void testDelete() {
+        Item item = newItem("Lamp", "Living room", "Store", null);
+        int id = (int) item.save();
+        assertEquals(1, item.count());
+        assertTrue(item.exists());
+
+        assertTrue(item.delete());
+        assertEquals(0, item.count());
+        assertFalse(item.exists());
+
+        try {
+            newItem().load(id);
+            fail("Deleted item loaded");
+        } catch (RecordNotFoundException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Paging visits every item once, in order, in every sort order.
+     */
+    @Test
+    public void testPaging() {
+        List<Item> items = new ArrayList<Item>();
+        for (int i = 0; i < 25; i++) {
+            Item item = newItem("Item " + (char) ('a' + i % 7) + i, "Category " + i % 3,
+                    "Store", null);
+            item.setDesirability(i % 6);
+            item.setCaptureDate(new Date(CAPTURED + (i % 4) * DAY));
+            if (i % 3 == 0)
+                item.setPurchasedDate(new Date(CAPTURED + (i % 5) * DAY));
+            items.add(item);
+        }
+        Item model = newItem();
+        model.saveAll(items);
+
+        for (SortOrder order : Item.SORT_ORDERS) {
+            Object[] previous = null;
+            Object[] firstPageEnd = null;
+            int count = 0;
+
+            while (true) {
+                Cursor cursor = model.findPage(order, previous, 7);
+                try {
+                    if (cursor.getCount() == 0)
+                        break;
+
+                    while (cursor.moveToNext()) {
+                        Object[] key = order.readKey(cursor);
+                        if (previous != null)
+                            assertTrue(order.compare(previous, key) < 0);
+                        previous = key;
+                        count++;
+                    }
+                    if (firstPageEnd == null)
+                        firstPageEnd = previous;
+                } finally {
+                    cursor.close();
+                }
+            }
+            assertEquals(order.getOrderBy(), items.size(), count);
+
+            // The first page again, by its bounds
+            Cursor cursor = model.findPageBetween(order, null, firstPageEnd);
+            try {
+                assertEquals(7, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+
+            // An item's key is the one paging read
+            Cursor last = model.findPage(order, null, 1);
+            try {
+                assertTrue(last.moveToFirst());
+                Object[] key = order.readKey(last);
+                long id = last.getLong(last.getColumnIndexOrThrow(Item.COL_ROW_ID));
+                assertEquals(0, order.compare(key, model.findPageKey(order, id)));
+            } finally {
+                last.close();
+            }
+        }
+    }
+
+    /**
+     * Description matches rank before category matches, which rank before
+     * matches elsewhere. Every word must match, as a prefix.
+     */
+    @Test
+    public void testSearch() {
+        Item lamp = newItem("Lamp", "Lighting", "Store", null);
+        lamp.setNotes("Blue shade");
+        lamp.save();
+        newItem("Teapot", "Blue things", "Store", null).save();
+        newItem("Blue kettle", "Kitchen", "Store", null).save();
+        newItem("Toaster", "Kitchen", "Store", null).save();
+
+        Item model = newItem();
+        Cursor cursor = model.search("blue", true);
+        try {
+            assertEquals(3, cursor.getCount());
+            int description = cursor.getColumnIndexOrThrow(Item.COL_DESCRIPTION);
+            int rank = cursor.getColumnIndexOrThrow(Item.COL_RANK);
+
+            cursor.moveToNext();
+            assertEquals("Blue kettle", cursor.getString(description));
+            assertEquals(0, cursor.getInt(rank));
+            cursor.moveToNext();
+            assertEquals("Teapot", cursor.getString(description));
+            assertEquals(1, cursor.getInt(rank));
+            cursor.moveToNext();
+            assertEquals("Lamp", cursor.getString(description));
+            assertEquals(2, cursor.getInt(rank));
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(1, countSearch(model, "blu kett"));
+        assertEquals(2, countSearch(model, "kitchen"));
+        assertEquals(0, countSearch(model, "blue toaster"));
+        assertEquals(0, countSearch(model, "!?"));
+    }
+
+    /**
+     * A barcode can only be saved once.
+     */
+    @Test
+    public void testDuplicateBarcode() {
+        newItem("Kettle", "Kitchen", "Store", "222").save();
+
+        Item duplicate = newItem("Other kettle", "Kitchen", "Store", "222");
+        assertEquals(-1, duplicate.save());
+        assertTrue(duplicate.getErrors().containsKey(Item.COL_BARCODE));
+
+        // Items without a barcode never clash
+        assertTrue(newItem("Mug", "Kitchen", "Store", null).save() > 0);
+        assertTrue(newItem("Cup", "Kitchen", "Store", "").save() > 0);
+    }
+
+    /**
+     * Saving by barcode updates the item first saved with that barcode.
+     */
+    @Test
+    public void testSaveByBarcode() throws RecordNotFoundException {
+        Item first = newItem("Kettle", "Kitchen", "Store", "333");
+        long id = first.saveByBarcode();
+        assertTrue(id > 0);
+
+        Item second = newItem("Better kettle", "Kitchen", "Store", "333");
+        assertEquals(id, second.saveByBarcode());
+        assertEquals(1, second.count());
+
+        Item loaded = newItem();
+        loaded.load((int) id);
+        assertEquals("Better kettle", loaded.getDescription());
+    }
+
+    /**
+     * Rescanning an item with a new photo releases the photo it replaced.
+     */
+    @Test
+    public void testSaveByBarcodeReleasesReplacedPhoto() {
+        Item first = newItemWithPhoto("Kettle", "666", Color.RED);
+        long id = first.saveByBarcode();
+        String oldRef = first.getThumbnailPhotoRef();
+        assertTrue(photoStore.contains(oldRef));
+
+        Item second = newItemWithPhoto("Kettle", "666", Color.BLUE);
+        assertEquals(id, second.saveByBarcode());
+
+        assertFalse(photoStore.contains(oldRef));
+        assertTrue(photoStore.contains(second.getThumbnailPhotoRef()));
+    }
+
+    /**
+     * A photo replaced inside a transaction opened on the storage engine is
+     * removed by the item's next save once the transaction has ended.
+     */
+    @Test
+    public void testPhotoReplacedInTransactionIsReleased() {
+        Item item = newItemWithPhoto("Kettle", "777", Color.RED);
+        item.save();
+        String oldRef = item.getThumbnailPhotoRef();
+
+        StorageEngine storage = item.getStorageEngine();
+        storage.beginTransaction();
+        try {
+            item.setThumbnailPhoto(createPhoto(Color.BLUE));
+            item.save();
+            storage.setTransactionSuccessful();
+        } finally {
+            storage.endTransaction();
+        }
+        assertTrue(photoStore.contains(oldRef));
+
+        item.setDescription("Changed");
+        item.save();
+
+        assertFalse(photoStore.contains(oldRef));
+        assertTrue(photoStore.contains(item.getThumbnailPhotoRef()));
+    }
+
+    /**
+     * Writes of a transaction that isn't marked successful are undone.
+     */
+    @Test
+    public void testRollback() {
+        Item kept = newItem("Kettle", "Kitchen", "Store", "444");
+        kept.save();
+
+        StorageEngine storage = kept.getStorageEngine();
+        storage.beginTransaction();
+        try {
+            newItem("Teapot", "Kitchen", "Store", "555").save();
+            kept.setDescription("Changed");
+            kept.save();
+            assertTrue(storage.inTransaction());
+        } finally {
+            storage.endTransaction();
+        }
+        ActiveRecord.clearIdentityMaps();
+
+        assertFalse(storage.inTransaction());
+        assertEquals(1, kept.count());
+        assertEquals(kept.getId(), storage.findId(Item.SQL_TABLE_NAME,
+                Item.COL_BARCODE, "444"));
+        assertEquals(StorageEngine.NOT_FOUND, storage.findId(Item.SQL_TABLE_NAME,
+                Item.COL_BARCODE, "555"));
+        assertEquals(1, countSearch(kept, "kettle"));
+    }
+
+    /**
+     * A record of a batch rejected by the unique barcode index reports the
+     * duplicate and removes the photo it stored, while the other records
+     * are saved, and saving it again with its own barcode stores the photo.
+     */
+    @Test
+    public void testBatchWithDuplicateBarcodeReleasesPhoto() {
+        newItem("Kettle", "Kitchen", "Store", "777").save();
+
+        Item item = newItemWithPhoto("Teapot", "888", Color.GREEN);
+        Item duplicate = newItemWithPhoto("Other kettle", "777", Color.YELLOW);
+
+        List<Item> items = new ArrayList<Item>();
+        items.add(item);
+        items.add(duplicate);
+        BatchResult result = item.saveAll(items);
+
+        assertEquals(1, result.getSuccessCount());
+        assertEquals(BatchResult.FAILED, result.getIds()[1]);
+        assertNotNull(result.getFailures().get(1).get(Item.COL_BARCODE));
+        assertTrue(item.getId() > 0);
+        assertTrue(photoStore.contains(item.getThumbnailPhotoRef()));
+        assertEquals(0, duplicate.getId());
+        assertNull(duplicate.getThumbnailPhotoRef());
+        assertEquals(1, countFiles(photoDir));
+
+        duplicate.setBarcode("999");
+        assertTrue(duplicate.save() > 0);
+        assertTrue(photoStore.contains(duplicate.getThumbnailPhotoRef()));
+        assertEquals(2, countFiles(photoDir));
+    }
+
+    /**
+     * Counts the files in a directory tree.
+     *
+     * @param dir
+     *            The directory.
+     * @return The number of files.
+     */
+    private static int countFiles(File dir) {
+        int count = 0;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                count += child.isDirectory() ? countFiles(child) : 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the results of a search.
+     *
+     * @param model
+     *            The item to search with.
+     * @param searchText
+     *            The search text.
+     * @return The number of matching items.
+     */
+    private static int countSearch(Item model, String searchText) {
+        Cursor cursor = model.search(searchText, true);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Creates a small photo of a single color, stored under a reference of
+     * its own.
+     *
+     * @param color
+     *            The color.
+     * @return The photo.
+     */
+    private Bitmap createPhoto(int color) {
+        Bitmap photo = Bitmap.createBitmap(photoSize, photoSize,
+                Bitmap.Config.ARGB_8888);
+        photoSize++;
+        photo.eraseColor(color);
+        return photo;
+    }
+
+    /**
+     * Deletes a file or a directory with everything in it.
+     *
+     * @param file
+     *            The file or directory.
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Creates an empty item on the storage under test.
+     *
+     * @return The item.
+     */
+    protected Item newItem() {
+        Item item = new Item(RuntimeEnvironment.application.getResources());
+        attach(item);
+        item.setPhotoStore(photoStore);
+        return item;
+    }
+
+    /**
+     * Creates an unsaved item on the storage under test.
+     *
+     * @param description
+     *            The description.
+     * @param category
+     *            The category.
+     * @param location
+     *            The location.
+     * @param barcode
+     *            The barcode, may be null.
+     * @return The item.
+     */
+    protected Item newItem(String description, String category, String location,
+                           String barcode) {
+        Item item = newItem();
+        item.setDescription(description);
+        item.setCategory(category);
+        item.setLocation(location);
+        item.setCaptureDate(new Date(CAPTURED));
+        item.setBarcode(barcode);
+        return item;
+    }
+
+    /**
+     * Creates an unsaved item with a thumbnail photo on the storage under
+     * test.
+     *
+     * @param description
+     *            The description.
+     * @param barcode
+     *            The barcode, may be null.
+     * @param color
+     *            The color of the photo.
+     * @return The item.
+     */
+    protected Item newItemWithPhoto(String description, String barcode, int color) {
+        Item item = newItem(description, "Kitchen", "Store", barcode);
+        item.setThumbnailPhoto(createPhoto(color));
+        return item;
+    }
+}